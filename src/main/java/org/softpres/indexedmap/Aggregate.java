@@ -0,0 +1,33 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Map;
+
+/**
+ * An aggregate of the values associated with each key of a secondary
+ * {@link Index}, as returned from {@link Index#aggregate(Aggregator)}, which is
+ * kept up-to-date as the map changes.
+ *
+ * @param <I> type of secondary index keys.
+ * @param <A> type of aggregate value.
+ */
+public interface Aggregate<I, A> {
+
+  /**
+   * @param key secondary index key.
+   * @return aggregate of the values associated with the secondary index key,
+   * which is the identity of the aggregator if there are none.
+   */
+  A get(I key);
+
+  /**
+   * A read-only view of the aggregate values for every secondary index key
+   * that has entries associated with it, which can be used as a materialized
+   * view of the map grouped by the secondary index keys.
+   *
+   * @return read-only map of secondary index keys to aggregate values.
+   */
+  Map<I, A> asMap();
+
+}
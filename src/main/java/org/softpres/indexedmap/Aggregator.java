@@ -0,0 +1,69 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Optional;
+
+/**
+ * Defines how the values associated with a secondary index key are combined
+ * into a single aggregate value, which is maintained incrementally as entries
+ * are added to and removed from the index, see {@link Index#aggregate(Aggregator)}.
+ * Common aggregators can be created using {@link Aggregators}.
+ * <p/>
+ * Aggregate values should be immutable, as they are handed out by lookups while
+ * the aggregate continues to be maintained.
+ *
+ * @param <V> type of value being aggregated.
+ * @param <A> type of aggregate value.
+ */
+public interface Aggregator<V, A> {
+
+  /**
+   * @return the aggregate of no values.
+   */
+  A identity();
+
+  /**
+   * @param aggregate current aggregate value.
+   * @param value value being added.
+   * @return aggregate value including the added value.
+   */
+  A add(A aggregate, V value);
+
+  /**
+   * Remove a value from the aggregate, if that is possible without knowing the
+   * other values aggregated. Where it is not, such as removing the current
+   * minimum, the aggregate is recalculated from the remaining values.
+   *
+   * @param aggregate current aggregate value.
+   * @param value value being removed, which was previously added.
+   * @return aggregate value excluding the removed value, or empty to have it
+   * recalculated.
+   */
+  Optional<A> remove(A aggregate, V value);
+
+  /**
+   * Whether aggregates can be combined using {@link #combine}, which is needed
+   * where values are aggregated separately for each partition of a
+   * {@link PartitionedIndexedMap}. Not all aggregates can be combined, so by
+   * default they cannot, and partitioned aggregates are then recalculated from
+   * the entries of the key on every lookup.
+   *
+   * @return true if {@link #combine} is supported.
+   */
+  default boolean isCombinable() {
+    return false;
+  }
+
+  /**
+   * Combine aggregates of two separate groups of values, which is only called
+   * where {@link #isCombinable()}.
+   *
+   * @return aggregate of the values of both groups.
+   * @throws UnsupportedOperationException if aggregates cannot be combined.
+   */
+  default A combine(A aggregate, A other) {
+    throw new UnsupportedOperationException("Aggregates cannot be combined");
+  }
+
+}
@@ -0,0 +1,220 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Factory methods for common {@link Aggregator} implementations.
+ */
+public final class Aggregators {
+
+  private Aggregators() { }
+
+  /**
+   * @return aggregator counting the values.
+   */
+  public static <V> Aggregator<V, Long> count() {
+    return of(0L, (count, value) -> count + 1, (count, value) -> count - 1, Long::sum);
+  }
+
+  /**
+   * @param property property of each value to sum.
+   * @return aggregator summing the property of the values.
+   */
+  public static <V> Aggregator<V, Long> sumLong(ToLongFunction<? super V> property) {
+    Objects.requireNonNull(property);
+    return of(0L,
+          (sum, value) -> sum + property.applyAsLong(value),
+          (sum, value) -> sum - property.applyAsLong(value),
+          Long::sum);
+  }
+
+  /**
+   * Note that as values are subtracted from the sum when removed, the sum may
+   * accumulate rounding errors over time.
+   *
+   * @param property property of each value to sum.
+   * @return aggregator summing the property of the values.
+   */
+  public static <V> Aggregator<V, Double> sumDouble(ToDoubleFunction<? super V> property) {
+    Objects.requireNonNull(property);
+    return of(0.0,
+          (sum, value) -> sum + property.applyAsDouble(value),
+          (sum, value) -> sum - property.applyAsDouble(value),
+          Double::sum);
+  }
+
+  /**
+   * Removing a value only requires recalculation if it was the minimum.
+   *
+   * @param comparator order of the values.
+   * @return aggregator of the minimum value, which is empty if there are none.
+   */
+  public static <V> Aggregator<V, Optional<V>> min(Comparator<? super V> comparator) {
+    Objects.requireNonNull(comparator);
+    return new Extreme<>(comparator);
+  }
+
+  /**
+   * Removing a value only requires recalculation if it was the maximum.
+   *
+   * @param comparator order of the values.
+   * @return aggregator of the maximum value, which is empty if there are none.
+   */
+  public static <V> Aggregator<V, Optional<V>> max(Comparator<? super V> comparator) {
+    Objects.requireNonNull(comparator);
+    return new Extreme<V>(comparator.reversed());
+  }
+
+  /**
+   * A user-defined aggregate, where a value can be removed by reversing the
+   * effect of adding it, such as subtraction for addition.
+   *
+   * @param identity the aggregate of no values.
+   * @param add function to add a value to an aggregate.
+   * @param remove function to remove a previously added value from an aggregate.
+   * @return aggregator using the supplied functions.
+   */
+  public static <V, A> Aggregator<V, A> of(
+        A identity,
+        BiFunction<? super A, ? super V, ? extends A> add,
+        BiFunction<? super A, ? super V, ? extends A> remove) {
+
+    return of(identity, add, remove, (a, b) -> {
+      throw new UnsupportedOperationException("Aggregates cannot be combined");
+    });
+  }
+
+  /**
+   * A user-defined aggregate as per {@link #of(Object, BiFunction, BiFunction)},
+   * which can also combine aggregates of separate groups of values.
+   *
+   * @param identity the aggregate of no values.
+   * @param add function to add a value to an aggregate.
+   * @param remove function to remove a previously added value from an aggregate.
+   * @param combine function to combine two aggregates.
+   * @return aggregator using the supplied functions.
+   */
+  public static <V, A> Aggregator<V, A> of(
+        A identity,
+        BiFunction<? super A, ? super V, ? extends A> add,
+        BiFunction<? super A, ? super V, ? extends A> remove,
+        BinaryOperator<A> combine) {
+
+    Objects.requireNonNull(identity);
+    Objects.requireNonNull(add);
+    Objects.requireNonNull(remove);
+    Objects.requireNonNull(combine);
+
+    return new Aggregator<V, A>() {
+      @Override
+      public A identity() {
+        return identity;
+      }
+
+      @Override
+      public A add(A aggregate, V value) {
+        return add.apply(aggregate, value);
+      }
+
+      @Override
+      public Optional<A> remove(A aggregate, V value) {
+        return Optional.of(remove.apply(aggregate, value));
+      }
+
+      @Override
+      public boolean isCombinable() {
+        return true;
+      }
+
+      @Override
+      public A combine(A aggregate, A other) {
+        return combine.apply(aggregate, other);
+      }
+    };
+  }
+
+  /**
+   * A user-defined aggregate, where the effect of adding a value cannot be
+   * reversed, so the aggregate is recalculated from the remaining values for a
+   * secondary key whenever one is removed.
+   *
+   * @param identity the aggregate of no values.
+   * @param add function to add a value to an aggregate.
+   * @return aggregator using the supplied function.
+   */
+  public static <V, A> Aggregator<V, A> of(
+        A identity,
+        BiFunction<? super A, ? super V, ? extends A> add) {
+
+    Objects.requireNonNull(identity);
+    Objects.requireNonNull(add);
+
+    return new Aggregator<V, A>() {
+      @Override
+      public A identity() {
+        return identity;
+      }
+
+      @Override
+      public A add(A aggregate, V value) {
+        return add.apply(aggregate, value);
+      }
+
+      @Override
+      public Optional<A> remove(A aggregate, V value) {
+        return Optional.empty();
+      }
+    };
+  }
+
+  /**
+   * Aggregate of the value that comes first in the supplied order.
+   */
+  private static class Extreme<V> implements Aggregator<V, Optional<V>> {
+    private final Comparator<? super V> comparator;
+
+    Extreme(Comparator<? super V> comparator) {
+      this.comparator = comparator;
+    }
+
+    @Override
+    public Optional<V> identity() {
+      return Optional.empty();
+    }
+
+    @Override
+    public Optional<V> add(Optional<V> aggregate, V value) {
+      if (aggregate.isPresent() && comparator.compare(aggregate.get(), value) <= 0) {
+        return aggregate;
+      }
+      return Optional.of(value);
+    }
+
+    @Override
+    public Optional<Optional<V>> remove(Optional<V> aggregate, V value) {
+      if (aggregate.isPresent() && comparator.compare(aggregate.get(), value) < 0) {
+        return Optional.of(aggregate);
+      }
+      return Optional.empty();
+    }
+
+    @Override
+    public boolean isCombinable() {
+      return true;
+    }
+
+    @Override
+    public Optional<V> combine(Optional<V> aggregate, Optional<V> other) {
+      return other.isPresent() ? add(aggregate, other.get()) : aggregate;
+    }
+  }
+
+}
@@ -0,0 +1,237 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * A secondary index that is maintained asynchronously, so is eventually
+ * consistent with the map, see
+ * {@link IndexedMap#addAsyncIndex(BiFunction, Executor)}. Changes to the map
+ * are queued on the writing thread, which is cheap, and applied to the index
+ * in batches by a task run on the executor, so the view function is never run
+ * by writers and the latency of writes depends only on the other indices.
+ * <p/>
+ * The index is kept over a locked map of its own, holding the latest entries
+ * it has been brought in line with, so lookups of the index never contend
+ * with writes to the map, only with the batches being applied. That map uses
+ * {@link IndexedMapBuilder#ordinalStorage() ordinal storage}, so the entries
+ * are held in arrays and the buckets in compressed bitmaps, rather than
+ * taking a hash map node for each entry and for each of its index keys.
+ * <p/>
+ * A change that the view function fails on is still counted as applied, so
+ * that {@link #lag()} and {@link #awaitCatchUp(Duration)} carry on reflecting
+ * the changes that remain, and the failure is kept, see {@link #lastFailure()}.
+ * The entry is then missing from the index until it is next changed, rather
+ * than being left indexed under its previous value.
+ *
+ * @param <I> type of index keys for lookup.
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class AsyncIndex<I, K, V> implements Index<I, K, V> {
+
+  private final IndexedMap<K, V> applied = new IndexedMapBuilder<K, V>().ordinalStorage().build();
+  private final Index<I, K, V> index;
+  private final ChangePublisher<K, V> queue = new ChangePublisher<>();
+  private final Subscription subscription;
+
+  private final AtomicLong queuedCount = new AtomicLong();
+  private final AtomicLong appliedCount = new AtomicLong();
+  private final Object caughtUp = new Object();
+  private volatile RuntimeException failure;
+
+  AsyncIndex(IndexedMap<K, V> map, BiFunction<K, V, Iterable<I>> view, Executor executor) {
+    index = applied.addIndex((key, value) -> viewOrNone(view, key, value));
+    queue.subscribe(this, change -> true, this::apply, executor);
+    subscription = map.subscribe((ConcurrentChangeListener<K, V>)this::enqueue, Runnable::run);
+
+    // Changes made while copying are also queued, and are applied in order
+    // after the copy, so the index still converges on the latest entries
+    map.forEach(applied::put);
+  }
+
+  private void enqueue(List<Change<K, V>> changes) {
+    queuedCount.addAndGet(changes.size());
+    for (Change<K, V> change : changes) {
+      queue.publish(change.key(), change.previousOrNull(), change.valueOrNull());
+    }
+  }
+
+  private void apply(List<Change<K, V>> changes) {
+    for (Change<K, V> change : changes) {
+      V value = change.valueOrNull();
+      try {
+        if (value == null) {
+          applied.delete(change.key());
+        } else {
+          applied.insert(change.key(), value);
+        }
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+    appliedCount.addAndGet(changes.size());
+    synchronized (caughtUp) {
+      caughtUp.notifyAll();
+    }
+  }
+
+  /**
+   * Index an entry the view function fails on under no keys, rather than
+   * failing the write to the map of applied entries part way through, which
+   * would leave the entry indexed under its previous value.
+   */
+  private Iterable<I> viewOrNone(BiFunction<K, V, Iterable<I>> view, K key, V value) {
+    try {
+      return view.apply(key, value);
+    } catch (RuntimeException e) {
+      failure = e;
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * @return number of changes made to the map that are not yet reflected in
+   * the index.
+   */
+  public long lag() {
+    return queuedCount.get() - appliedCount.get();
+  }
+
+  /**
+   * @return failure that most recently prevented a change being applied to
+   * the index, such as the view function throwing, or empty if none has.
+   */
+  public Optional<RuntimeException> lastFailure() {
+    return Optional.ofNullable(failure);
+  }
+
+  /**
+   * Wait for the index to reflect all changes made to the map before the call,
+   * such as to read your own writes.
+   *
+   * @param timeout maximum time to wait.
+   * @return true if the index caught up, or false if the timeout elapsed.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitCatchUp(Duration timeout) throws InterruptedException {
+    long target = queuedCount.get();
+    long deadline = System.nanoTime() + timeout.toNanos();
+    synchronized (caughtUp) {
+      while (appliedCount.get() < target) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(caughtUp, remaining);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Map<K, V> apply(I key) {
+    return index.apply(key);
+  }
+
+  @Override
+  public int count(I key) {
+    return index.count(key);
+  }
+
+  @Override
+  public boolean contains(I key) {
+    return index.contains(key);
+  }
+
+  @Override
+  public boolean containsAll(Iterable<? extends I> keys) {
+    return index.containsAll(keys);
+  }
+
+  @Override
+  public boolean containsAny(Iterable<? extends I> keys) {
+    return index.containsAny(keys);
+  }
+
+  @Override
+  public Set<I> distinctKeys() {
+    return index.distinctKeys();
+  }
+
+  @Override
+  public void forEach(I key, BiConsumer<? super K, ? super V> action) {
+    index.forEach(key, action);
+  }
+
+  @Override
+  public void parallelForEach(I key, BiConsumer<? super K, ? super V> action) {
+    index.parallelForEach(key, action);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream(I key) {
+    return index.stream(key);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream(I key) {
+    return index.parallelStream(key);
+  }
+
+  @Override
+  public Stream<K> keys(I key) {
+    return index.keys(key);
+  }
+
+  @Override
+  public Stream<V> values(I key) {
+    return index.values(key);
+  }
+
+  @Override
+  public Optional<V> findAny(I key) {
+    return index.findAny(key);
+  }
+
+  @Override
+  public IndexStatistics statistics() {
+    return index.statistics();
+  }
+
+  /**
+   * Changes are delivered once they have been applied to the index, so the
+   * index already reflects them when the listener is called.
+   */
+  @Override
+  public Subscription subscribe(I key, ChangeListener<K, V> listener, Executor executor) {
+    return index.subscribe(key, listener, executor);
+  }
+
+  @Override
+  public <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator) {
+    return index.aggregate(aggregator);
+  }
+
+  @Override
+  public void drop() {
+    index.drop();
+    subscription.cancel();
+    queue.cancel(this);
+    applied.clear();
+  }
+
+}
@@ -0,0 +1,59 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Asynchronous access to an {@link IndexedMap}, where map operations are
+ * scheduled to be performed elsewhere, and the calling thread never blocks,
+ * either waiting for a lock or for capacity. This suits callers that run many
+ * more concurrent requests than there are threads, such as those composing
+ * {@link CompletionStage}s, which should not tie up a thread waiting.
+ * <p/>
+ * Where an operation cannot be accepted, the returned stage completes
+ * exceptionally rather than the method throwing.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public interface AsyncIndexedMap<K, V> {
+
+  /**
+   * @see IndexedMap#select(Object)
+   */
+  CompletionStage<Optional<V>> selectAsync(K key);
+
+  /**
+   * @see IndexedMap#insert(Object, Object)
+   */
+  CompletionStage<Optional<V>> insertAsync(K key, V value);
+
+  /**
+   * @see IndexedMap#delete(Object)
+   */
+  CompletionStage<Optional<V>> deleteAsync(K key);
+
+  /**
+   * Apply changes to the map as one operation, such as a read-modify-write
+   * using {@link IndexedMap#merge} or {@link IndexedMap#compute}, which
+   * cannot be composed from the operations above without another write
+   * coming in between. The result must not retain the map or any view of it.
+   *
+   * @param work work to perform on the map.
+   * @return stage completed with the result of the work.
+   */
+  <R> CompletionStage<R> updateAsync(Function<? super IndexedMap<K, V>, ? extends R> work);
+
+  /**
+   * Query a read-only view of the map, where the result must not retain the
+   * view or any view of the map.
+   *
+   * @param query query to perform on a read-only view of the map.
+   * @return stage completed with the result of the query.
+   */
+  <R> CompletionStage<R> queryAsync(Function<? super IndexedMap<K, V>, ? extends R> query);
+
+}
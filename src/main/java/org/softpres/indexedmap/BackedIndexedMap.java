@@ -0,0 +1,295 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.softpres.indexedmap.Change.Origin;
+
+/**
+ * An {@link IndexedMap} backed by a store, which values missing from the map
+ * are loaded from when read, and/or which changes made to the map are written
+ * to asynchronously.
+ * <p/>
+ * Reads of a missing key through {@link #select}, {@link #get},
+ * {@link #getOrDefault} or {@link #containsKey} load it, where concurrent
+ * reads of the same key wait for a single load. A loaded value is only
+ * inserted if the key is still missing, so never replaces a value written in
+ * the meantime, and is not written back to the store. Writes that depend on
+ * the current value of a key, such as {@link #compute}, {@link #merge},
+ * {@link #putIfAbsent} and {@link #replace}, load it first too, so they see
+ * the value held by the store, whereas other writes do not, so return no
+ * previous value for a key only held by the store.
+ * <p/>
+ * Writes made to the map are recorded as pending while the map is still
+ * locked for the write, and written to the store in batches on the executor,
+ * with only the latest change to each key written. Deletes are written even
+ * where the key is not in the map, as the store may still hold it. Loads see
+ * pending writes rather than going to the store, so an entry evicted from the
+ * map before its write reaches the store is not loaded stale. Entries removed
+ * by eviction or expiry are not deleted from the store.
+ */
+class BackedIndexedMap<K, V> extends DispatchedIndexedMap<K, V> {
+
+  private final IndexedMap<K, V> map;
+  private final Loader<K, V> loader;
+  private final BackingStore<K, V> store;
+
+  private final ConcurrentMap<Object, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+  /** Latest write to each key not yet written to the store, empty for a delete. */
+  private final ConcurrentMap<K, Optional<V>> pending = new ConcurrentHashMap<>();
+  private final ChangePublisher<K, V> writes = new ChangePublisher<>();
+
+  /**
+   * @param loader used to load missing values, or null for none.
+   * @param store store to write changes to, or null for none.
+   * @param executor used to write to the store.
+   */
+  BackedIndexedMap(IndexedMap<K, V> map, Loader<K, V> loader, BackingStore<K, V> store, Executor executor) {
+    super(map);
+    this.map = map;
+    this.loader = loader;
+    this.store = store;
+    if (store != null) {
+      writes.subscribe(this, change -> true, this::writeBatch, executor);
+      // Changes are recorded while the write is made, so concurrent writes to
+      // the same key are recorded in the order they are made to the map, and
+      // only need serialising for each key, not across partitions
+      map.subscribe((ConcurrentChangeListener<K, V>)this::changed, Runnable::run);
+    }
+  }
+
+
+  // Read-through
+
+  @Override
+  public Optional<V> select(K key) {
+    return Optional.ofNullable(get(key));
+  }
+
+  @Override
+  public V get(Object key) {
+    V value = map.get(key);
+    if (value == null && loader != null) {
+      value = load(key);
+    }
+    return value;
+  }
+
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    V value = get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Load a missing key, or wait for it to be loaded by another thread.
+   */
+  private V load(Object key) {
+    CompletableFuture<V> load = new CompletableFuture<>();
+    CompletableFuture<V> existing = loading.putIfAbsent(key, load);
+    if (existing != null) {
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : e;
+      }
+    }
+
+    try {
+      V value = loadAbsent(key);
+      load.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(key, load);
+    }
+  }
+
+  private V loadAbsent(Object key) {
+    // Another load may have completed since the key was found missing
+    V current = map.get(key);
+    if (current != null) {
+      return current;
+    }
+
+    // Unavoidable cast because of get() interface signature
+    @SuppressWarnings("unchecked")
+    K k = (K)key;
+
+    Optional<V> write = pending.get(k);
+    V value = write != null ? write.orElse(null) : loader.load(k);
+    if (value == null) {
+      return null;
+    }
+    current = Change.originating(Origin.LOADED, () -> map.putIfAbsent(k, value));
+    return current == null ? value : current;
+  }
+
+
+  // Writes depending on the current value
+
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    loaded(key);
+    return map.compute(key, remappingFunction);
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    loaded(key);
+    return map.computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    loaded(key);
+    return map.computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    loaded(key);
+    return map.merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    loaded(key);
+    return map.putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    loaded(key);
+    return map.replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    loaded(key);
+    return map.replace(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    loaded(key);
+    return map.remove(key, value);
+  }
+
+  /**
+   * Load the key should it be missing, so a write depending on its current
+   * value sees the value held by the store.
+   */
+  private void loaded(Object key) {
+    if (loader != null) {
+      get(key);
+    }
+  }
+
+
+  // Write-behind
+
+  /**
+   * Called on the writing thread, under any lock of the underlying map. Only
+   * changes made on behalf of callers are written, not those made by a load
+   * or by eviction, which are told apart by the origin of each change, as
+   * another writer may deliver a batch of changes that includes them.
+   */
+  private void changed(List<Change<K, V>> changes) {
+    for (Change<K, V> change : changes) {
+      if (change.origin() == Origin.WRITTEN) {
+        written(change.key(), change.valueOrNull());
+      }
+    }
+  }
+
+  private void written(K key, V value) {
+    pending.put(key, Optional.ofNullable(value));
+    writes.publish(key, null, value);
+  }
+
+  /**
+   * Write the latest pending change of each key in the batch, and only then
+   * remove them from those pending, unless changed again in the meantime.
+   */
+  private void writeBatch(List<Change<K, V>> changes) {
+    Map<K, Optional<V>> batch = new LinkedHashMap<>();
+    for (Change<K, V> change : changes) {
+      Optional<V> write = pending.get(change.key());
+      if (write != null) {
+        batch.put(change.key(), write);
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    Map<K, V> inserts = new LinkedHashMap<>();
+    Set<K> deletes = new LinkedHashSet<>();
+    batch.forEach((key, write) -> {
+      if (write.isPresent()) {
+        inserts.put(key, write.get());
+      } else {
+        deletes.add(key);
+      }
+    });
+    try {
+      store.write(Collections.unmodifiableMap(inserts), Collections.unmodifiableSet(deletes));
+    } finally {
+      batch.forEach(pending::remove);
+    }
+  }
+
+  /**
+   * The key may be held by the store without having been loaded, or since
+   * being evicted, so the delete is written to the store even where the key is
+   * not in the map. It is recorded within the write to the map, so that a
+   * concurrent write to the same key is recorded either before or after it.
+   */
+  @Override
+  public Optional<V> delete(K key) {
+    return Optional.ofNullable(remove(key));
+  }
+
+  @Override
+  public V remove(Object key) {
+    if (store == null) {
+      return map.remove(key);
+    }
+    // Unavoidable cast because of remove() interface signature
+    @SuppressWarnings("unchecked")
+    K k = (K)key;
+
+    Previous<V> previous = new Previous<>();
+    map.compute(k, (ignored, current) -> {
+      previous.value = current;
+      if (current == null) {
+        written(k, null);
+      }
+      return null;
+    });
+    return previous.value;
+  }
+
+  /** Value found within a remapping function. */
+  private static class Previous<V> {
+    private V value;
+  }
+
+}
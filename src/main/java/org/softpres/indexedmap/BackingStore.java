@@ -0,0 +1,28 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Store that changes made to a map are written to asynchronously, see
+ * {@link IndexedMapBuilder#writeBehind(BackingStore, java.util.concurrent.Executor)}.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+@FunctionalInterface
+public interface BackingStore<K, V> {
+
+  /**
+   * Write a batch of changes, holding only the latest change to each key.
+   * Batches are never written concurrently. Should this throw, the batch is
+   * lost, and the exception is left to the executor to handle.
+   *
+   * @param inserts entries to insert or replace.
+   * @param deletes keys to delete.
+   */
+  void write(Map<K, V> inserts, Set<K> deletes);
+
+}
@@ -0,0 +1,579 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, such as the ordinals of the entries
+ * of a {@link BitmapIndex} bucket, laid out in the style of a Roaring bitmap.
+ * Each int is split into its high and low 16 bits, and the low bits for each
+ * distinct high bits are held in a container, which is a sorted array where
+ * there are at most {@value #ARRAY_MAX} of them, or a bitmap of 1024 longs
+ * where there are more. A sparse set then takes two bytes per int, and a
+ * dense set one bit per int.
+ * <p/>
+ * The results of {@link #and}, {@link #or} and {@link #andNot} are new
+ * bitmaps, which work on whole words where both containers are bitmaps.
+ */
+public final class Bitmap {
+
+  private static final int ARRAY_MAX = 4096;
+  private static final int WORDS = 1024;
+
+  /** High bits of each container, in ascending order. */
+  private char[] keys;
+  private Container[] containers;
+  private int size;
+
+  public Bitmap() {
+    this(4);
+  }
+
+  private Bitmap(int capacity) {
+    keys = new char[capacity];
+    containers = new Container[capacity];
+  }
+
+  /**
+   * @return bitmap holding the supplied ints.
+   */
+  public static Bitmap of(int... values) {
+    Bitmap bitmap = new Bitmap();
+    for (int value : values) {
+      bitmap.add(value);
+    }
+    return bitmap;
+  }
+
+  private static char high(int value) {
+    return (char)(value >>> 16);
+  }
+
+  private static char low(int value) {
+    return (char)value;
+  }
+
+  private int find(char key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  public boolean contains(int value) {
+    int i = find(high(value));
+    return i >= 0 && containers[i].contains(low(value));
+  }
+
+  /**
+   * @return whether the value was added, rather than already present.
+   */
+  boolean add(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value: " + value);
+    }
+    int i = find(high(value));
+    if (i < 0) {
+      i = -i - 1;
+      insert(i, high(value), new ArrayContainer());
+    }
+    int before = containers[i].cardinality();
+    containers[i] = containers[i].add(low(value));
+    return containers[i].cardinality() > before;
+  }
+
+  /**
+   * @return whether the value was removed, rather than already absent.
+   */
+  boolean remove(int value) {
+    int i = find(high(value));
+    if (i < 0) {
+      return false;
+    }
+    int before = containers[i].cardinality();
+    Container container = containers[i].remove(low(value));
+    if (container.cardinality() == 0) {
+      System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+      System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+      containers[--size] = null;
+    } else {
+      containers[i] = container;
+    }
+    return container.cardinality() < before;
+  }
+
+  private void insert(int i, char key, Container container) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      containers = Arrays.copyOf(containers, size * 2);
+    }
+    System.arraycopy(keys, i, keys, i + 1, size - i);
+    System.arraycopy(containers, i, containers, i + 1, size - i);
+    keys[i] = key;
+    containers[i] = container;
+    size++;
+  }
+
+  private void append(char key, Container container) {
+    if (container != null) {
+      insert(size, key, container);
+    }
+  }
+
+  public int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Visit each int in ascending order.
+   */
+  public void forEach(IntConsumer action) {
+    for (int i = 0; i < size; i++) {
+      containers[i].forEach(keys[i] << 16, action);
+    }
+  }
+
+  /**
+   * @return iterator of the ints in ascending order, which must not be used
+   * once the bitmap has changed.
+   */
+  public PrimitiveIterator.OfInt iterator() {
+    return new PrimitiveIterator.OfInt() {
+      private int container = 0;
+      private int next = size == 0 ? -1 : containers[0].next(0);
+
+      @Override
+      public boolean hasNext() {
+        while (next < 0 && container < size - 1) {
+          next = containers[++container].next(0);
+        }
+        return next >= 0;
+      }
+
+      @Override
+      public int nextInt() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int value = keys[container] << 16 | next;
+        next = next == 0xFFFF ? -1 : containers[container].next(next + 1);
+        return value;
+      }
+    };
+  }
+
+  /**
+   * @return ints in ascending order.
+   */
+  public int[] toArray() {
+    int[] result = new int[cardinality()];
+    int[] next = new int[1];
+    forEach(value -> result[next[0]++] = value);
+    return result;
+  }
+
+  /**
+   * @return bitmap of the ints in both this bitmap and the other.
+   */
+  public Bitmap and(Bitmap other) {
+    Bitmap result = new Bitmap(Math.max(1, Math.min(size, other.size)));
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        result.append(keys[i], Container.and(containers[i++], other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return bitmap of the ints in either this bitmap or the other.
+   */
+  public Bitmap or(Bitmap other) {
+    Bitmap result = new Bitmap(Math.max(1, size + other.size));
+    int i = 0;
+    int j = 0;
+    while (i < size || j < other.size) {
+      if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+        result.append(keys[i], containers[i++].copy());
+      } else if (i == size || keys[i] > other.keys[j]) {
+        result.append(other.keys[j], other.containers[j++].copy());
+      } else {
+        result.append(keys[i], Container.or(containers[i++], other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return bitmap of the ints in this bitmap that are not in the other.
+   */
+  public Bitmap andNot(Bitmap other) {
+    Bitmap result = new Bitmap(Math.max(1, size));
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      if (j < other.size && other.keys[j] == keys[i]) {
+        result.append(keys[i], Container.andNot(containers[i], other.containers[j]));
+      } else {
+        result.append(keys[i], containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  Bitmap copy() {
+    Bitmap copy = new Bitmap(Math.max(1, size));
+    for (int i = 0; i < size; i++) {
+      copy.append(keys[i], containers[i].copy());
+    }
+    return copy;
+  }
+
+  /**
+   * @return number of bytes used by the containers, for comparison with other
+   * representations.
+   */
+  long bytes() {
+    long bytes = 0;
+    for (int i = 0; i < size; i++) {
+      bytes += containers[i] instanceof ArrayContainer
+            ? 2L * containers[i].cardinality()
+            : 8L * WORDS;
+    }
+    return bytes;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Bitmap && Arrays.equals(toArray(), ((Bitmap)o).toArray());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(toArray());
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+
+  /**
+   * The low 16 bits of the ints sharing the same high bits.
+   */
+  private static abstract class Container {
+
+    abstract boolean contains(char value);
+
+    /** @return this container, or its replacement where it became too big. */
+    abstract Container add(char value);
+
+    /** @return this container, or its replacement where it became small. */
+    abstract Container remove(char value);
+
+    abstract int cardinality();
+
+    abstract void forEach(int high, IntConsumer action);
+
+    /** @return least value at or after the given one, or -1 if none. */
+    abstract int next(int from);
+
+    abstract Container copy();
+
+    /** @return words of a bitmap of the values, which the caller may modify. */
+    abstract long[] words();
+
+    /**
+     * The smaller side is filtered where either is an array, and otherwise
+     * the words are combined.
+     */
+    static Container and(Container a, Container b) {
+      if (a instanceof BitmapContainer && b instanceof BitmapContainer) {
+        long[] words = a.words();
+        long[] other = ((BitmapContainer)b).words;
+        for (int w = 0; w < WORDS; w++) {
+          words[w] &= other[w];
+        }
+        return BitmapContainer.of(words);
+      }
+      if (a.cardinality() > b.cardinality() || a instanceof BitmapContainer) {
+        Container swap = a;
+        a = b;
+        b = swap;
+      }
+      ArrayContainer array = (ArrayContainer)a;
+      ArrayContainer result = new ArrayContainer(array.cardinality);
+      for (int k = 0; k < array.cardinality; k++) {
+        if (b.contains(array.values[k])) {
+          result.values[result.cardinality++] = array.values[k];
+        }
+      }
+      return result.cardinality == 0 ? null : result;
+    }
+
+    static Container or(Container a, Container b) {
+      if (a instanceof ArrayContainer && b instanceof ArrayContainer
+            && a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+        ArrayContainer x = (ArrayContainer)a;
+        ArrayContainer y = (ArrayContainer)b;
+        ArrayContainer result = new ArrayContainer(x.cardinality + y.cardinality);
+        int i = 0;
+        int j = 0;
+        while (i < x.cardinality || j < y.cardinality) {
+          char next;
+          if (j == y.cardinality || (i < x.cardinality && x.values[i] < y.values[j])) {
+            next = x.values[i++];
+          } else if (i == x.cardinality || x.values[i] > y.values[j]) {
+            next = y.values[j++];
+          } else {
+            next = x.values[i++];
+            j++;
+          }
+          result.values[result.cardinality++] = next;
+        }
+        return result;
+      }
+      if (a instanceof ArrayContainer) {
+        Container swap = a;
+        a = b;
+        b = swap;
+      }
+      long[] words = a.words();
+      if (b instanceof BitmapContainer) {
+        long[] other = ((BitmapContainer)b).words;
+        for (int w = 0; w < WORDS; w++) {
+          words[w] |= other[w];
+        }
+      } else {
+        ArrayContainer array = (ArrayContainer)b;
+        for (int k = 0; k < array.cardinality; k++) {
+          words[array.values[k] >>> 6] |= 1L << array.values[k];
+        }
+      }
+      return BitmapContainer.of(words);
+    }
+
+    static Container andNot(Container a, Container b) {
+      if (a instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer)a;
+        ArrayContainer result = new ArrayContainer(array.cardinality);
+        for (int k = 0; k < array.cardinality; k++) {
+          if (!b.contains(array.values[k])) {
+            result.values[result.cardinality++] = array.values[k];
+          }
+        }
+        return result.cardinality == 0 ? null : result;
+      }
+      long[] words = a.words();
+      if (b instanceof BitmapContainer) {
+        long[] other = ((BitmapContainer)b).words;
+        for (int w = 0; w < WORDS; w++) {
+          words[w] &= ~other[w];
+        }
+      } else {
+        ArrayContainer array = (ArrayContainer)b;
+        for (int k = 0; k < array.cardinality; k++) {
+          words[array.values[k] >>> 6] &= ~(1L << array.values[k]);
+        }
+      }
+      return BitmapContainer.of(words);
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer() {
+      this(4);
+    }
+
+    ArrayContainer(int capacity) {
+      values = new char[Math.max(1, capacity)];
+    }
+
+    private int find(char value) {
+      return Arrays.binarySearch(values, 0, cardinality, value);
+    }
+
+    @Override
+    boolean contains(char value) {
+      return find(value) >= 0;
+    }
+
+    @Override
+    Container add(char value) {
+      int i = find(value);
+      if (i >= 0) {
+        return this;
+      }
+      if (cardinality == ARRAY_MAX) {
+        return new BitmapContainer(words()).add(value);
+      }
+      i = -i - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+      }
+      System.arraycopy(values, i, values, i + 1, cardinality - i);
+      values[i] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      int i = find(value);
+      if (i >= 0) {
+        System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer action) {
+      for (int k = 0; k < cardinality; k++) {
+        action.accept(high | values[k]);
+      }
+    }
+
+    @Override
+    int next(int from) {
+      int i = find((char)from);
+      if (i < 0) {
+        i = -i - 1;
+      }
+      return i < cardinality ? values[i] : -1;
+    }
+
+    @Override
+    Container copy() {
+      ArrayContainer copy = new ArrayContainer(cardinality);
+      System.arraycopy(values, 0, copy.values, 0, cardinality);
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    long[] words() {
+      long[] words = new long[WORDS];
+      for (int k = 0; k < cardinality; k++) {
+        words[values[k] >>> 6] |= 1L << values[k];
+      }
+      return words;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words) {
+      this.words = words;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+      }
+    }
+
+    /**
+     * @return container of the words, which is an array where there are few
+     * enough values, or null where there are none.
+     */
+    static Container of(long[] words) {
+      BitmapContainer bitmap = new BitmapContainer(words);
+      if (bitmap.cardinality == 0) {
+        return null;
+      }
+      return bitmap.cardinality > ARRAY_MAX ? bitmap : bitmap.toArray();
+    }
+
+    private ArrayContainer toArray() {
+      ArrayContainer array = new ArrayContainer(cardinality);
+      forEach(0, value -> array.values[array.cardinality++] = (char)value);
+      return array;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value) {
+      if (!contains(value)) {
+        words[value >>> 6] |= 1L << value;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      if (contains(value)) {
+        words[value >>> 6] &= ~(1L << value);
+        cardinality--;
+      }
+      return cardinality > ARRAY_MAX ? this : toArray();
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer action) {
+      for (int w = 0; w < WORDS; w++) {
+        for (long word = words[w]; word != 0; word &= word - 1) {
+          action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+    }
+
+    @Override
+    int next(int from) {
+      int w = from >>> 6;
+      long word = words[w] & (-1L << from);
+      while (word == 0) {
+        if (++w == WORDS) {
+          return -1;
+        }
+        word = words[w];
+      }
+      return (w << 6) | Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(words.clone());
+    }
+
+    @Override
+    long[] words() {
+      return words.clone();
+    }
+  }
+
+}
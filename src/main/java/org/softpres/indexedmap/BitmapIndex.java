@@ -0,0 +1,136 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A secondary index whose buckets are compressed {@link Bitmap}s of the
+ * ordinals of their entries, added using
+ * {@link BitmapIndices#addIndex(BiFunction)}.
+ *
+ * @param <I> type of index keys for lookup.
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class BitmapIndex<I, K, V> {
+
+  private static final Bitmap EMPTY = new Bitmap();
+
+  private final BitmapIndices<K, V> owner;
+  private final BiFunction<K, V, Iterable<I>> view;
+  private final Map<I, Bitmap> buckets = new HashMap<>();
+  private boolean dropped = false;
+
+  BitmapIndex(BitmapIndices<K, V> owner, BiFunction<K, V, Iterable<I>> view) {
+    this.owner = owner;
+    this.view = view;
+  }
+
+  /**
+   * @return ordinals of the entries associated with the secondary key, to be
+   * combined with others and looked up within
+   * {@link BitmapIndices#query(Supplier)}, where this is a read-only view of
+   * the bucket, and a copy otherwise.
+   */
+  public Bitmap bitmap(I key) {
+    boolean querying = owner.isReading();
+    return read(() -> {
+      Bitmap bucket = buckets.getOrDefault(key, EMPTY);
+      return querying ? bucket : bucket.copy();
+    });
+  }
+
+  /**
+   * @return copy of the entries associated with the secondary key.
+   */
+  public Map<K, V> apply(I key) {
+    return owner.query(() -> bitmap(key));
+  }
+
+  /**
+   * @return number of entries associated with the secondary key.
+   */
+  public int count(I key) {
+    return read(() -> {
+      Bitmap bucket = buckets.get(key);
+      return bucket == null ? 0 : bucket.cardinality();
+    });
+  }
+
+  /**
+   * @return copy of the secondary keys that have entries.
+   */
+  public Set<I> distinctKeys() {
+    return read(() -> new HashSet<>(buckets.keySet()));
+  }
+
+  /**
+   * Stop maintaining the index, and release the memory it holds.
+   */
+  public void drop() {
+    owner.drop(this);
+  }
+
+  private <R> R read(Supplier<R> reader) {
+    return owner.read(() -> {
+      if (dropped) {
+        throw new IllegalStateException("Index has been dropped");
+      }
+      return reader.get();
+    });
+  }
+
+  /**
+   * Mark the index as dropped, while the write lock of the owner is held.
+   */
+  void dropped() {
+    if (dropped) {
+      throw new IllegalStateException("Index has been dropped");
+    }
+    buckets.clear();
+    dropped = true;
+  }
+
+  void add(int ordinal, K key, V value) {
+    for (I i : view.apply(key, value)) {
+      buckets.computeIfAbsent(i, k -> new Bitmap()).add(ordinal);
+    }
+  }
+
+  void remove(int ordinal, K key, V value) {
+    for (I i : view.apply(key, value)) {
+      dissociate(i, ordinal);
+    }
+  }
+
+  /**
+   * Replace the value of an entry, only removing its ordinal from buckets the
+   * entry no longer appears in.
+   */
+  void update(int ordinal, K key, V previous, V value) {
+    Set<I> after = new HashSet<>();
+    view.apply(key, value).forEach(after::add);
+    for (I i : view.apply(key, previous)) {
+      if (!after.contains(i)) {
+        dissociate(i, ordinal);
+      }
+    }
+    for (I i : after) {
+      buckets.computeIfAbsent(i, k -> new Bitmap()).add(ordinal);
+    }
+  }
+
+  private void dissociate(I i, int ordinal) {
+    Bitmap bucket = buckets.get(i);
+    if (bucket != null) {
+      bucket.remove(ordinal);
+      if (bucket.isEmpty()) {
+        buckets.remove(i);
+      }
+    }
+  }
+
+}
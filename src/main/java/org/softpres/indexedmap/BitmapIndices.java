@@ -0,0 +1,175 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Secondary indices of a map whose buckets are compressed {@link Bitmap}s of
+ * entry ordinals, rather than maps of the entries, see
+ * {@link IndexedMap#addBitmapIndices()}. This suits indices with few distinct
+ * keys over many entries, such as flags or countries, where each bucket would
+ * otherwise hold a map node for every entry.
+ * <p/>
+ * Each entry of the map is given a dense ordinal, which is shared by all of
+ * the indices added here, so the bitmaps of different indices can be combined
+ * with {@link Bitmap#and}, {@link Bitmap#or} and {@link Bitmap#andNot}, and
+ * the result looked up using {@link #query(Supplier)}. The ordinals of
+ * removed entries are reused, so a bitmap is only meaningful until the map
+ * next changes, and should be obtained within the query that looks it up.
+ * <p/>
+ * The indices are kept up-to-date as part of each write to the map, under a
+ * lock of their own that is shared by all the indices added here. Lookups
+ * made by a {@link QueryCache} are tracked as reads of all the indices, so a
+ * cached result is invalidated by any change to the map.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class BitmapIndices<K, V> extends SubscribedIndex<K, V> {
+
+  private final List<BitmapIndex<?, K, V>> indices = new ArrayList<>();
+
+  private final Map<K, Integer> ordinals = new HashMap<>();
+  private final List<K> keys = new ArrayList<>();
+  private final List<V> values = new ArrayList<>();
+  private Bitmap live = new Bitmap();
+  private int[] free = new int[8];
+  private int freeCount = 0;
+
+  BitmapIndices(IndexedMap<K, V> map) {
+    follow(map);
+  }
+
+  /**
+   * Add a bitmap index, as per {@link IndexedMap#addIndex(BiFunction)}.
+   *
+   * @param view view function from key-value entry to secondary index keys.
+   * @param <I> type of index keys for lookup.
+   * @return index, which reflects the existing entries of the map.
+   */
+  public <I> BitmapIndex<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
+    Objects.requireNonNull(view);
+    return withWriteLock(() -> {
+      checkNotDropped();
+      BitmapIndex<I, K, V> index = new BitmapIndex<>(this, view);
+      live.forEach(ordinal -> index.add(ordinal, keys.get(ordinal), values.get(ordinal)));
+      indices.add(index);
+      return index;
+    });
+  }
+
+  /**
+   * @return bitmap of the ordinals of every entry, such as to negate another
+   * bitmap using {@link Bitmap#andNot(Bitmap)}, which is a read-only view
+   * within {@link #query(Supplier)}, and a copy otherwise.
+   */
+  public Bitmap all() {
+    boolean querying = isReading();
+    return read(() -> querying ? live : live.copy());
+  }
+
+  /**
+   * Lookup of the entries with the ordinals of a bitmap, such as one combining
+   * the bitmaps of several indices. The bitmap is obtained and looked up under
+   * a single read lock, so no ordinal it holds can be reused for another entry
+   * in between.
+   *
+   * @param query obtains the bitmap of ordinals from these indices, which must
+   *              not write to the map.
+   * @return copy of the entries, in ordinal order.
+   */
+  public Map<K, V> query(Supplier<Bitmap> query) {
+    Objects.requireNonNull(query);
+    return read(() -> {
+      Map<K, V> result = new LinkedHashMap<>();
+      query.get().forEach(ordinal -> {
+        if (live.contains(ordinal)) {
+          result.put(keys.get(ordinal), values.get(ordinal));
+        }
+      });
+      return result;
+    });
+  }
+
+  /**
+   * Stop maintaining all of the indices, and release the memory they hold.
+   */
+  @Override
+  public void drop() {
+    super.drop();
+  }
+
+  @Override
+  void clear() {
+    indices.forEach(BitmapIndex::dropped);
+    indices.clear();
+    ordinals.clear();
+    keys.clear();
+    values.clear();
+    live = new Bitmap();
+    free = new int[8];
+    freeCount = 0;
+  }
+
+  void drop(BitmapIndex<?, K, V> index) {
+    withWriteLock(() -> {
+      index.dropped();
+      indices.remove(index);
+      return null;
+    });
+  }
+
+  /**
+   * An entry keeps its ordinal until it is removed.
+   */
+  @Override
+  void write(K key, V value) {
+    Integer ordinal = ordinals.get(key);
+    if (ordinal == null) {
+      if (value != null) {
+        int added = allocate(key, value);
+        indices.forEach(index -> index.add(added, key, value));
+      }
+    } else {
+      V previous = values.get(ordinal);
+      if (value == null) {
+        indices.forEach(index -> index.remove(ordinal, key, previous));
+        release(key, ordinal);
+      } else {
+        values.set(ordinal, value);
+        indices.forEach(index -> index.update(ordinal, key, previous, value));
+      }
+    }
+  }
+
+  private int allocate(K key, V value) {
+    int ordinal;
+    if (freeCount > 0) {
+      ordinal = free[--freeCount];
+      keys.set(ordinal, key);
+      values.set(ordinal, value);
+    } else {
+      ordinal = keys.size();
+      keys.add(key);
+      values.add(value);
+    }
+    ordinals.put(key, ordinal);
+    live.add(ordinal);
+    return ordinal;
+  }
+
+  private void release(K key, int ordinal) {
+    ordinals.remove(key);
+    live.remove(ordinal);
+    keys.set(ordinal, null);
+    values.set(ordinal, null);
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, freeCount * 2);
+    }
+    free[freeCount++] = ordinal;
+  }
+
+}
@@ -0,0 +1,124 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A change to a single entry of an {@link IndexedMap}, as delivered to a
+ * {@link ChangeListener}. An entry being added has no previous value, and an
+ * entry being removed has no new value.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public final class Change<K, V> {
+
+  /**
+   * Why a change was made, for decorators of a map that need to tell apart
+   * their own writes to the underlying map from those made by callers.
+   */
+  enum Origin {
+    /** Written on behalf of the caller. */
+    WRITTEN,
+    /** Inserted by a load of a missing key. */
+    LOADED,
+    /** Deleted by eviction or expiry. */
+    EVICTED
+  }
+
+  /** Origin of changes made by the current thread. */
+  private static final ThreadLocal<Origin> ORIGIN = ThreadLocal.withInitial(() -> Origin.WRITTEN);
+
+  private final K key;
+  private final V previous;
+  private final V value;
+  private final Origin origin;
+
+  /**
+   * Must be created on the thread making the change, which is where changes
+   * are published, so that it is given the origin of that thread.
+   */
+  Change(K key, V previous, V value) {
+    this.key = key;
+    this.previous = previous;
+    this.value = value;
+    this.origin = ORIGIN.get();
+  }
+
+  /**
+   * Make a write, where changes it makes are given the origin.
+   */
+  static <R> R originating(Origin origin, Supplier<R> write) {
+    Origin outer = ORIGIN.get();
+    ORIGIN.set(origin);
+    try {
+      return write.get();
+    } finally {
+      ORIGIN.set(outer);
+    }
+  }
+
+  /**
+   * @return key of the entry that was changed.
+   */
+  public K key() {
+    return key;
+  }
+
+  /**
+   * @return value before the change, if the entry existed.
+   */
+  public Optional<V> previous() {
+    return Optional.ofNullable(previous);
+  }
+
+  /**
+   * @return value after the change, if the entry still exists.
+   */
+  public Optional<V> value() {
+    return Optional.ofNullable(value);
+  }
+
+  /** Previous value, or null if the entry was added. */
+  V previousOrNull() {
+    return previous;
+  }
+
+  /** New value, or null if the entry was removed. */
+  V valueOrNull() {
+    return value;
+  }
+
+  /** Why the change was made, which is not considered for equality. */
+  Origin origin() {
+    return origin;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Change)) {
+      return false;
+    }
+    Change<?, ?> other = (Change<?, ?>)o;
+    return key.equals(other.key) &&
+          Objects.equals(previous, other.previous) &&
+          Objects.equals(value, other.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(key, previous, value);
+  }
+
+  @Override
+  public String toString() {
+    return "Change(" + key + ": " + previous + " -> " + value + ")";
+  }
+
+}
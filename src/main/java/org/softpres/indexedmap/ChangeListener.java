@@ -0,0 +1,26 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.List;
+
+/**
+ * Receives changes made to an {@link IndexedMap}, subscribed using
+ * {@link IndexedMap#subscribe(ChangeListener, java.util.concurrent.Executor)}
+ * or {@link Index#subscribe(Object, ChangeListener, java.util.concurrent.Executor)}.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+@FunctionalInterface
+public interface ChangeListener<K, V> {
+
+  /**
+   * Called with the changes made since the last call, in the order they were
+   * made. Calls for the same subscription are never concurrent.
+   *
+   * @param changes read-only list of changes, never empty.
+   */
+  void changed(List<Change<K, V>> changes);
+
+}
@@ -0,0 +1,67 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Binary format of the frames shipped from a {@link ReplicationLeader} to a
+ * {@link ReplicationFollower}. Each frame has a header of:
+ * <pre>
+ *   byte type, long sequence, long timestamp, int count
+ * </pre>
+ * followed by {@code count} changes, each an operation byte and the key, with
+ * the value following the key for an insert. The first frame is a snapshot,
+ * with sequence zero, holding an insert for every entry of the map. Later
+ * frames hold the changes made since, numbered consecutively.
+ */
+final class ChangeLog {
+
+  static final byte SNAPSHOT = 0;
+  static final byte CHANGES = 1;
+
+  static final byte INSERT = 0;
+  static final byte DELETE = 1;
+
+  private ChangeLog() { }
+
+  static <K, V> byte[] snapshot(Map<K, V> entries, Codec<K> keys, Codec<V> values) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, SNAPSHOT, 0, entries.size());
+    for (Entry<K, V> entry : entries.entrySet()) {
+      out.writeByte(INSERT);
+      keys.write(entry.getKey(), out);
+      values.write(entry.getValue(), out);
+    }
+    return bytes.toByteArray();
+  }
+
+  static <K, V> byte[] changes(
+        long sequence, Collection<Change<K, V>> changes, Codec<K> keys, Codec<V> values) throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    header(out, CHANGES, sequence, changes.size());
+    for (Change<K, V> change : changes) {
+      V value = change.valueOrNull();
+      out.writeByte(value == null ? DELETE : INSERT);
+      keys.write(change.key(), out);
+      if (value != null) {
+        values.write(value, out);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void header(DataOutputStream out, byte type, long sequence, int count) throws IOException {
+    out.writeByte(type);
+    out.writeLong(sequence);
+    out.writeLong(System.currentTimeMillis());
+    out.writeInt(count);
+  }
+
+}
@@ -0,0 +1,133 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Publishes changes made to a map to subscribed listeners. Changes are queued
+ * on the writing thread, which is cheap, and delivered to each listener in
+ * batches by a task run on the executor given for the subscription. At most
+ * one delivery task is outstanding for a subscription at any time, so changes
+ * made while a batch is being delivered are gathered into the next batch, and
+ * the listener is never called concurrently.
+ */
+class ChangePublisher<K, V> {
+
+  private final List<BatchingSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  /**
+   * @param owner used to identify subscriptions for {@link #cancel(Object)}.
+   * @param filter which changes the listener is interested in.
+   */
+  Subscription subscribe(
+        Object owner,
+        Predicate<Change<K, V>> filter,
+        ChangeListener<K, V> listener,
+        Executor executor) {
+
+    BatchingSubscription subscription = new BatchingSubscription(owner, filter, listener, executor);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Cancel all subscriptions made by the owner.
+   */
+  void cancel(Object owner) {
+    for (BatchingSubscription subscription : subscriptions) {
+      if (subscription.owner == owner) {
+        subscription.cancel();
+      }
+    }
+  }
+
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+
+  /**
+   * Publish a change, where a null previous value or new value indicates
+   * absence. Nothing is allocated when there are no subscribers.
+   */
+  void publish(K key, V previous, V value) {
+    if (subscriptions.isEmpty()) {
+      return;
+    }
+    Change<K, V> change = new Change<>(key, previous, value);
+    for (BatchingSubscription subscription : subscriptions) {
+      subscription.offer(change);
+    }
+  }
+
+  private class BatchingSubscription implements Subscription {
+
+    private final Object owner;
+    private final Predicate<Change<K, V>> filter;
+    private final ChangeListener<K, V> listener;
+    private final Executor executor;
+    private final Queue<Change<K, V>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled = false;
+
+    BatchingSubscription(
+          Object owner,
+          Predicate<Change<K, V>> filter,
+          ChangeListener<K, V> listener,
+          Executor executor) {
+
+      this.owner = owner;
+      this.filter = filter;
+      this.listener = listener;
+      this.executor = executor;
+    }
+
+    void offer(Change<K, V> change) {
+      if (!cancelled && filter.test(change)) {
+        pending.add(change);
+        schedule();
+      }
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this::deliver);
+      }
+    }
+
+    private void deliver() {
+      List<Change<K, V>> batch = new ArrayList<>();
+      for (Change<K, V> change; (change = pending.poll()) != null; ) {
+        batch.add(change);
+      }
+      try {
+        if (!cancelled && !batch.isEmpty()) {
+          listener.changed(Collections.unmodifiableList(batch));
+        }
+      } finally {
+        // Changes queued after draining but before this point could not have
+        // scheduled another delivery, so must be picked up here
+        scheduled.set(false);
+        if (!cancelled && !pending.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      pending.clear();
+    }
+  }
+
+}
@@ -0,0 +1,28 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of keys or values, such as for shipping changes from a
+ * {@link ReplicationLeader} to a {@link ReplicationFollower}. See
+ * {@link Codecs} for common implementations.
+ *
+ * @param <T> type encoded.
+ */
+public interface Codec<T> {
+
+  /**
+   * @param value value to encode, never null.
+   */
+  void write(T value, DataOutput out) throws IOException;
+
+  /**
+   * @return value decoded from what was written by {@link #write}.
+   */
+  T read(DataInput in) throws IOException;
+
+}
@@ -0,0 +1,92 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Factory methods for common {@link Codec} implementations.
+ */
+public final class Codecs {
+
+  private Codecs() { }
+
+  /**
+   * @return codec of integers as four bytes.
+   */
+  public static Codec<Integer> integers() {
+    return new Codec<Integer>() {
+      @Override
+      public void write(Integer value, DataOutput out) throws IOException {
+        out.writeInt(value);
+      }
+
+      @Override
+      public Integer read(DataInput in) throws IOException {
+        return in.readInt();
+      }
+    };
+  }
+
+  /**
+   * @return codec of longs as eight bytes.
+   */
+  public static Codec<Long> longs() {
+    return new Codec<Long>() {
+      @Override
+      public void write(Long value, DataOutput out) throws IOException {
+        out.writeLong(value);
+      }
+
+      @Override
+      public Long read(DataInput in) throws IOException {
+        return in.readLong();
+      }
+    };
+  }
+
+  /**
+   * @return codec of doubles as eight bytes.
+   */
+  public static Codec<Double> doubles() {
+    return new Codec<Double>() {
+      @Override
+      public void write(Double value, DataOutput out) throws IOException {
+        out.writeDouble(value);
+      }
+
+      @Override
+      public Double read(DataInput in) throws IOException {
+        return in.readDouble();
+      }
+    };
+  }
+
+  /**
+   * Unlike {@link DataOutput#writeUTF(String)}, strings are not limited in
+   * length.
+   *
+   * @return codec of strings as their length followed by their UTF-8 bytes.
+   */
+  public static Codec<String> strings() {
+    return new Codec<String>() {
+      @Override
+      public void write(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+}
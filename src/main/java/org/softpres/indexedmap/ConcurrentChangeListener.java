@@ -0,0 +1,17 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * A {@link ChangeListener} that is safe to call concurrently, such as one
+ * that takes a lock of its own. A partitioned map delivers changes to it from
+ * each partition as they are made, rather than serialising calls to it, so
+ * writes to different partitions never contend on the listener. The changes
+ * of a key are still delivered in order, as each key belongs to one partition.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+@FunctionalInterface
+interface ConcurrentChangeListener<K, V> extends ChangeListener<K, V> {
+}
@@ -6,9 +6,11 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Dispatches all methods to an underlying map so subclasses can just override
@@ -23,10 +25,20 @@ abstract class DispatchedIndexedMap<K, V> implements IndexedMap<K, V> {
   }
 
   @Override
-  public <I> Function<I, Map<K, V>> addIndex(BiFunction<K, V, Iterable<I>> view) {
+  public <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
     return map.addIndex(view);
   }
 
+  @Override
+  public <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping) {
+    return map.materialize(mapping);
+  }
+
+  @Override
+  public Subscription subscribe(ChangeListener<K, V> listener, Executor executor) {
+    return map.subscribe(listener, executor);
+  }
+
   @Override
   public Optional<V> select(K key) {
     return map.select(key);
@@ -82,6 +94,11 @@ abstract class DispatchedIndexedMap<K, V> implements IndexedMap<K, V> {
     map.putAll(m);
   }
 
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    map.putAll(m, parallel);
+  }
+
   @Override
   public void clear() {
     map.clear();
@@ -125,6 +142,21 @@ abstract class DispatchedIndexedMap<K, V> implements IndexedMap<K, V> {
     map.forEach(action);
   }
 
+  @Override
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    map.parallelForEach(action);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream() {
+    return map.stream();
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream() {
+    return map.parallelStream();
+  }
+
   @Override
   public V getOrDefault(Object key, V defaultValue) {
     return map.getOrDefault(key, defaultValue);
@@ -160,4 +192,9 @@ abstract class DispatchedIndexedMap<K, V> implements IndexedMap<K, V> {
     map.replaceAll(function);
   }
 
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    map.replaceAll(function, parallel);
+  }
+
 }
@@ -0,0 +1,396 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.softpres.indexedmap.Change.Origin;
+import org.softpres.indexedmap.TimerWheel.Timer;
+
+/**
+ * An {@link IndexedMap} whose entries expire after a time to live, and/or are
+ * evicted once the map grows beyond a maximum size. Expired and evicted
+ * entries are deleted from the underlying map as normal, so are removed from
+ * every secondary index, and published to subscribers, like any other delete,
+ * though with an origin of {@link Origin#EVICTED}.
+ * <p/>
+ * Changes are tracked using a subscription to the underlying map delivered on
+ * the writing thread, so every kind of write is seen. Reads of a key through
+ * {@link #select}, {@link #get}, {@link #getOrDefault} and {@link #containsKey}
+ * count as uses of it for eviction, and never see an expired entry. Reads do
+ * not lock, but are recorded in a lossy {@link ReadBuffer}, which is drained
+ * into the policy on the next write, or by a reader once the buffer fills.
+ * Writes of a key delete its entry first should it have expired, so neither
+ * return nor act on an expired value, and writes of many keys first delete
+ * every expired entry.
+ * <p/>
+ * Expiry uses a {@link TimerWheel}, so the map is never scanned. The wheel is
+ * advanced on each write, and whenever reads drain the buffer, so expired
+ * entries may still be seen through views, streams and index lookups until
+ * then, which on a map that is neither written nor read by key is
+ * indefinitely.
+ */
+class EvictingIndexedMap<K, V> extends DispatchedIndexedMap<K, V> {
+
+  private final IndexedMap<K, V> map;
+  private final int maximumSize;
+  private final EvictionPolicy<K> policy;
+  private final BiFunction<? super K, ? super V, Duration> expiry;
+  private final LongSupplier ticker;
+
+  /** Guards the policy and wheel, only ever taken last. */
+  private final Lock tracking = new ReentrantLock();
+  /** Serialises eviction so each victim is deleted before the next is chosen. */
+  private final Lock evicting = new ReentrantLock();
+
+  /** Written under the tracking lock, but read without it. */
+  private final Map<K, Timer<K>> timers = new ConcurrentHashMap<>();
+  private final TimerWheel<K> wheel;
+  private final ReadBuffer<K> reads = new ReadBuffer<>();
+
+  /**
+   * @param maximumSize maximum number of entries, or -1 if unbounded.
+   * @param eviction policy for choosing entries to evict when bounded.
+   * @param expiry time to live of an entry after it is written, where null
+   *               means it never expires, or null for no expiry at all.
+   * @param ticker source of the current time in nanoseconds.
+   */
+  EvictingIndexedMap(
+        IndexedMap<K, V> map,
+        int maximumSize,
+        Eviction eviction,
+        BiFunction<? super K, ? super V, Duration> expiry,
+        LongSupplier ticker) {
+
+    super(map);
+    this.map = map;
+    this.maximumSize = maximumSize;
+    this.policy = maximumSize < 0 ? null : eviction.policy(maximumSize);
+    this.expiry = expiry;
+    this.ticker = ticker;
+    this.wheel = new TimerWheel<>(ticker.getAsLong());
+
+    // Changes made to different partitions are tracked under the tracking lock
+    map.subscribe((ConcurrentChangeListener<K, V>)this::changed, Runnable::run);
+    map.forEach(this::added);
+    maintain();
+  }
+
+  private void added(K key, V value) {
+    tracking.lock();
+    try {
+      if (policy != null) {
+        policy.add(key);
+      }
+      schedule(key, value);
+    } finally {
+      tracking.unlock();
+    }
+  }
+
+  /**
+   * Called on the writing thread, under any lock of the underlying map.
+   */
+  private void changed(List<Change<K, V>> changes) {
+    tracking.lock();
+    try {
+      // Reads made before the write are applied first
+      drainReads();
+      for (Change<K, V> change : changes) {
+        K key = change.key();
+        V value = change.valueOrNull();
+        if (value == null) {
+          if (policy != null) {
+            policy.remove(key);
+          }
+          Timer<K> timer = timers.remove(key);
+          if (timer != null) {
+            wheel.cancel(timer);
+          }
+        } else {
+          if (policy != null) {
+            if (change.previousOrNull() == null) {
+              policy.add(key);
+            } else {
+              policy.access(key);
+            }
+          }
+          schedule(key, value);
+        }
+      }
+    } finally {
+      tracking.unlock();
+    }
+  }
+
+  /**
+   * Must be called under the tracking lock.
+   */
+  private void drainReads() {
+    reads.drain(key -> {
+      if (policy != null) {
+        policy.access(key);
+      }
+    });
+  }
+
+  private void schedule(K key, V value) {
+    if (expiry == null) {
+      return;
+    }
+    Timer<K> previous = timers.remove(key);
+    if (previous != null) {
+      wheel.cancel(previous);
+    }
+    Duration ttl = expiry.apply(key, value);
+    if (ttl != null) {
+      Timer<K> timer = new Timer<>(key, ticker.getAsLong() + ttl.toNanos());
+      timers.put(key, timer);
+      wheel.schedule(timer);
+    }
+  }
+
+  private boolean isExpired(Object key) {
+    if (expiry == null) {
+      return false;
+    }
+    Timer<K> timer = timers.get(key);
+    return timer != null && timer.time - ticker.getAsLong() <= 0;
+  }
+
+  /**
+   * Record a read of the key without locking, and drain the reads recorded
+   * once the buffer fills, unless another thread is already doing so.
+   */
+  private void accessed(K key) {
+    if (reads.record(key)) {
+      maintain(false);
+    }
+  }
+
+  /**
+   * Delete the entry if it is still expired when the underlying map is locked,
+   * as it may have been written again since. Returning the current value
+   * unchanged leaves the map untouched.
+   */
+  private void expire(K key) {
+    Change.originating(Origin.EVICTED, () ->
+          map.computeIfPresent(key, (k, current) -> isExpired(k) ? null : current));
+  }
+
+  private void maintain() {
+    maintain(true);
+  }
+
+  /**
+   * Drain the reads recorded, delete expired entries, and evict entries while
+   * the map is over its maximum size.
+   *
+   * @param wait whether to wait for the tracking lock, or else give up should
+   *             another thread hold it.
+   */
+  private void maintain(boolean wait) {
+    List<Timer<K>> expired = Collections.emptyList();
+    if (wait) {
+      tracking.lock();
+    } else if (!tracking.tryLock()) {
+      return;
+    }
+    try {
+      drainReads();
+      if (expiry != null) {
+        // Timers are left in place until the entry is deleted, being needed to
+        // check the entry is still expired at the time
+        expired = wheel.advance(ticker.getAsLong());
+      }
+    } finally {
+      tracking.unlock();
+    }
+    for (Timer<K> timer : expired) {
+      expire(timer.key);
+    }
+    if (policy != null && map.size() > maximumSize) {
+      evict();
+    }
+  }
+
+  private void evict() {
+    evicting.lock();
+    try {
+      while (map.size() > maximumSize) {
+        K victim;
+        tracking.lock();
+        try {
+          victim = policy.victim();
+        } finally {
+          tracking.unlock();
+        }
+        if (victim == null) {
+          return;
+        }
+        if (!Change.originating(Origin.EVICTED, () -> map.delete(victim)).isPresent()) {
+          // Already deleted, but not yet seen, so stop it being chosen again
+          tracking.lock();
+          try {
+            policy.remove(victim);
+          } finally {
+            tracking.unlock();
+          }
+        }
+      }
+    } finally {
+      evicting.unlock();
+    }
+  }
+
+  /**
+   * Make a write of a single key, having first deleted its entry should it
+   * have expired, so the write never sees an expired value, and then maintain
+   * the map.
+   */
+  @SuppressWarnings("unchecked")
+  private <R> R written(Object key, Supplier<R> write) {
+    if (isExpired(key)) {
+      expire((K)key);
+    }
+    R result = write.get();
+    maintain();
+    return result;
+  }
+
+  /**
+   * Make a write of any number of keys, having first deleted expired entries,
+   * and then maintain the map.
+   */
+  private void writtenAll(Runnable write) {
+    maintain();
+    write.run();
+    maintain();
+  }
+
+
+  // Reads
+
+  @Override
+  public Optional<V> select(K key) {
+    return Optional.ofNullable(get(key));
+  }
+
+  @Override
+  public V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(Object key, V defaultValue) {
+    V value = map.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (isExpired(key)) {
+      expire((K)key);
+      maintain();
+      return defaultValue;
+    }
+    accessed((K)key);
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+
+  // Writes
+
+  @Override
+  public Optional<V> insert(K key, V value) {
+    return written(key, () -> map.insert(key, value));
+  }
+
+  @Override
+  public Optional<V> delete(K key) {
+    return written(key, () -> map.delete(key));
+  }
+
+  @Override
+  public V put(K key, V value) {
+    return written(key, () -> map.put(key, value));
+  }
+
+  @Override
+  public V remove(Object key) {
+    return written(key, () -> map.remove(key));
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return written(key, () -> map.remove(key, value));
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    writtenAll(() -> map.putAll(m));
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    writtenAll(() -> map.putAll(m, parallel));
+  }
+
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return written(key, () -> map.compute(key, remappingFunction));
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    return written(key, () -> map.computeIfAbsent(key, mappingFunction));
+  }
+
+  @Override
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return written(key, () -> map.computeIfPresent(key, remappingFunction));
+  }
+
+  @Override
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    return written(key, () -> map.merge(key, value, remappingFunction));
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    return written(key, () -> map.putIfAbsent(key, value));
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    return written(key, () -> map.replace(key, oldValue, newValue));
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    return written(key, () -> map.replace(key, value));
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+    writtenAll(() -> map.replaceAll(function));
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    writtenAll(() -> map.replaceAll(function, parallel));
+  }
+
+}
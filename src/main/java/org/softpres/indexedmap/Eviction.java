@@ -0,0 +1,49 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * Policy for choosing which entries to evict from a map bounded in size, see
+ * {@link IndexedMapBuilder#maximumSize(int, Eviction)}.
+ */
+public enum Eviction {
+
+  /**
+   * Evict the least recently used entry.
+   */
+  LRU {
+    @Override
+    <K> EvictionPolicy<K> policy(int maximumSize) {
+      return new LruPolicy<>();
+    }
+  },
+
+  /**
+   * Evict the least frequently used entry, and of those the least recently
+   * used. Frequencies are never aged, so entries that were popular once can
+   * remain long after they stop being used.
+   */
+  LFU {
+    @Override
+    <K> EvictionPolicy<K> policy(int maximumSize) {
+      return new LfuPolicy<>();
+    }
+  },
+
+  /**
+   * Window TinyLFU, which admits new entries into a small LRU window, and only
+   * admits entries leaving the window into the main space if they are used
+   * more often than the entry that would be evicted for them. Frequencies are
+   * estimated with a compact sketch that is periodically aged, and the main
+   * space is a segmented LRU.
+   */
+  TINY_LFU {
+    @Override
+    <K> EvictionPolicy<K> policy(int maximumSize) {
+      return new TinyLfuPolicy<>(maximumSize);
+    }
+  };
+
+  abstract <K> EvictionPolicy<K> policy(int maximumSize);
+
+}
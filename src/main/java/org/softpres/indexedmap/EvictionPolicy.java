@@ -0,0 +1,27 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * Tracks use of the keys of a map to choose which to evict when the map grows
+ * beyond its maximum size. Implementations are not thread-safe.
+ */
+interface EvictionPolicy<K> {
+
+  /** A key has been added to the map. */
+  void add(K key);
+
+  /** An existing key has been read or written. */
+  void access(K key);
+
+  /** A key has been removed from the map, whether evicted or not. */
+  void remove(K key);
+
+  /**
+   * Choose the key to evict, which remains tracked until it is removed.
+   *
+   * @return key to evict, or null if no keys are tracked.
+   */
+  K victim();
+
+}
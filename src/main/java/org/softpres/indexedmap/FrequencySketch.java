@@ -0,0 +1,73 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * Estimates how often keys have been used recently, using a count-min sketch
+ * of four rows of 4-bit counters. Once the number of uses recorded reaches ten
+ * times the width of the sketch, every counter is halved, so that the
+ * estimates favour recent use.
+ */
+class FrequencySketch {
+
+  private static final long[] seeds = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final int maximumCount = 15;
+
+  private final byte[][] rows = new byte[seeds.length][];
+  private final int mask;
+  private final int sampleSize;
+  private int samples = 0;
+
+  /**
+   * @param maximumSize number of keys expected to be tracked.
+   */
+  FrequencySketch(int maximumSize) {
+    int width = Integer.highestOneBit(Math.max(16, maximumSize - 1) << 1);
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new byte[width];
+    }
+    mask = width - 1;
+    sampleSize = 10 * width;
+  }
+
+  void increment(Object key) {
+    int hash = key.hashCode();
+    boolean added = false;
+    for (int i = 0; i < rows.length; i++) {
+      int index = index(hash, i);
+      if (rows[i][index] < maximumCount) {
+        rows[i][index]++;
+        added = true;
+      }
+    }
+    if (added && ++samples >= sampleSize) {
+      age();
+    }
+  }
+
+  int frequency(Object key) {
+    int hash = key.hashCode();
+    int frequency = maximumCount;
+    for (int i = 0; i < rows.length; i++) {
+      frequency = Math.min(frequency, rows[i][index(hash, i)]);
+    }
+    return frequency;
+  }
+
+  private int index(int hash, int row) {
+    long h = (hash + seeds[row]) * seeds[row];
+    return (int)(h ^ (h >>> 32)) & mask;
+  }
+
+  private void age() {
+    for (byte[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] >>= 1;
+      }
+    }
+    samples /= 2;
+  }
+
+}
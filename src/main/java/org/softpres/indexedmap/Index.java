@@ -0,0 +1,164 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A secondary index on an {@link IndexedMap}, as returned from
+ * {@link IndexedMap#addIndex(java.util.function.BiFunction)}. As a function, an
+ * index can lookup all entries for the supplied secondary key, but where only
+ * the number or existence of entries is needed, the other methods here answer
+ * directly from the index without needing to access the entries. Similarly,
+ * entries can be visited or streamed without needing a map of them.
+ * <p/>
+ * Once an index has been dropped with {@link #drop()}, it is no longer
+ * maintained, and all other methods throw {@link IllegalStateException}.
+ *
+ * @param <I> type of secondary index keys.
+ * @param <K> type of key in the primary index.
+ * @param <V> type of value.
+ */
+public interface Index<I, K, V> extends Function<I, Map<K, V>> {
+
+  /**
+   * Lookup all entries associated with the secondary index key.
+   *
+   * @param key secondary index key.
+   * @return read-only map of entries, empty if there are none.
+   */
+  @Override
+  Map<K, V> apply(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return the number of entries associated with the secondary index key.
+   */
+  int count(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return whether any entries are associated with the secondary index key.
+   */
+  boolean contains(I key);
+
+  /**
+   * @param keys secondary index keys.
+   * @return whether every one of the secondary index keys has entries
+   * associated with it, which is true if there are no keys.
+   */
+  boolean containsAll(Iterable<? extends I> keys);
+
+  /**
+   * @param keys secondary index keys.
+   * @return whether any of the secondary index keys have entries associated
+   * with it, which is false if there are no keys.
+   */
+  boolean containsAny(Iterable<? extends I> keys);
+
+  /**
+   * @return read-only view of all secondary index keys that currently have
+   * entries associated with them.
+   */
+  Set<I> distinctKeys();
+
+  /**
+   * Perform the action for each entry associated with the secondary index key,
+   * which is performed under lock if a locking strategy is used.
+   *
+   * @param key secondary index key.
+   * @param action action to perform for each entry.
+   */
+  void forEach(I key, BiConsumer<? super K, ? super V> action);
+
+  /**
+   * Perform the action for each entry associated with the secondary index key
+   * in parallel, as per {@link IndexedMap#parallelForEach(BiConsumer)}.
+   *
+   * @param key secondary index key.
+   * @param action action to perform for each entry, which must be safe to call
+   *               from multiple threads.
+   */
+  void parallelForEach(I key, BiConsumer<? super K, ? super V> action);
+
+  /**
+   * @param key secondary index key.
+   * @return a stream of the entries associated with the secondary index key,
+   * as per {@link IndexedMap#stream()}.
+   */
+  Stream<Entry<K, V>> stream(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return a parallel stream of the entries associated with the secondary
+   * index key, as per {@link IndexedMap#parallelStream()}.
+   */
+  Stream<Entry<K, V>> parallelStream(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return a stream of just the primary keys of the entries associated with
+   * the secondary index key.
+   */
+  Stream<K> keys(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return a stream of just the values associated with the secondary index key.
+   */
+  Stream<V> values(I key);
+
+  /**
+   * @param key secondary index key.
+   * @return any one of the values associated with the secondary index key, if
+   * there are any.
+   */
+  Optional<V> findAny(I key);
+
+  /**
+   * @return statistics describing the current shape of the index.
+   */
+  IndexStatistics statistics();
+
+  /**
+   * Subscribe to changes to entries associated with the secondary index key,
+   * either before or after the change, as per
+   * {@link IndexedMap#subscribe(ChangeListener, Executor)}. This allows the
+   * result of a lookup to be kept up-to-date without repeating the lookup.
+   *
+   * @param key secondary index key.
+   * @param listener listener to deliver changes to.
+   * @param executor executor used to deliver changes to the listener.
+   * @return subscription, which can be used to stop delivery.
+   */
+  Subscription subscribe(I key, ChangeListener<K, V> listener, Executor executor);
+
+  /**
+   * Add an aggregate of the values associated with each secondary index key,
+   * such as a count, sum or minimum. The aggregate is calculated for existing
+   * entries, and then maintained incrementally as entries are added to and
+   * removed from the index, so that looking up the aggregate for a secondary
+   * index key does not need to visit its entries.
+   *
+   * @param aggregator defines how values are aggregated, see {@link Aggregators}.
+   * @param <A> type of aggregate value.
+   * @return aggregate, allowing lookup of the aggregate value for the supplied
+   * secondary index key.
+   */
+  <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator);
+
+  /**
+   * Remove this index from the map, so it no longer needs to be maintained
+   * when the map is changed, and release the memory it used. Any subscriptions
+   * made through this index are cancelled.
+   */
+  void drop();
+
+}
@@ -0,0 +1,57 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * A description of the shape of a secondary {@link Index} at a point in time,
+ * which can be used to judge how selective it is.
+ */
+public final class IndexStatistics {
+
+  private final int distinctKeys;
+  private final long entries;
+  private final int maxCount;
+
+  IndexStatistics(int distinctKeys, long entries, int maxCount) {
+    this.distinctKeys = distinctKeys;
+    this.entries = entries;
+    this.maxCount = maxCount;
+  }
+
+  /**
+   * @return number of secondary index keys with entries associated.
+   */
+  public int distinctKeys() {
+    return distinctKeys;
+  }
+
+  /**
+   * @return total number of associations between secondary index keys and
+   * entries, which may be more than the number of entries in the map if the
+   * index associates entries with multiple secondary keys.
+   */
+  public long entries() {
+    return entries;
+  }
+
+  /**
+   * @return the largest number of entries associated with one secondary key.
+   */
+  public int maxCount() {
+    return maxCount;
+  }
+
+  /**
+   * @return the average number of entries associated with a secondary key.
+   */
+  public double averageCount() {
+    return distinctKeys == 0 ? 0 : (double)entries / distinctKeys;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("IndexStatistics(distinctKeys=%d, entries=%d, maxCount=%d, averageCount=%.2f)",
+          distinctKeys, entries, maxCount, averageCount());
+  }
+
+}
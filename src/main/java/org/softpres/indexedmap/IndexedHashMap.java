@@ -3,7 +3,10 @@
 package org.softpres.indexedmap;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.*;
+import java.util.stream.Stream;
 
 /**
  * An {@link IndexedMap} backed by {@link HashMap} instances.
@@ -11,14 +14,27 @@ import java.util.function.*;
 public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
 
   private final Map<K, V> primary;
-  private final List<Index<?>> indices = new LinkedList<>();
+  private final List<HashIndex<?>> indices = new LinkedList<>();
+  private final List<HashView<?>> views = new ArrayList<>();
+  private final ChangePublisher<K, V> changes = new ChangePublisher<>();
+  private final Supplier<Bucket<K, V>> buckets;
 
   IndexedHashMap() {
     this(new HashMap<>());
   }
 
+  /**
+   * Where the primary map is an {@link OrdinalMap}, the secondary index
+   * buckets hold the ordinals of their entries rather than the entries.
+   */
   IndexedHashMap(Map<K, V> primary) {
     this.primary = primary;
+    if (primary instanceof OrdinalMap) {
+      OrdinalMap<K, V> ordinals = (OrdinalMap<K, V>)primary;
+      buckets = () -> new OrdinalBucket<>(ordinals);
+    } else {
+      buckets = HashBucket::new;
+    }
   }
 
   @Override
@@ -44,12 +60,35 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
     Objects.requireNonNull(value);
 
     V previous = primary.put(key, value);
-    if (previous != null) {
+    changed(key, previous, value);
+
+    return previous;
+  }
+
+  /**
+   * Bring the secondary indices in line with a change to the primary index,
+   * where a null previous value or replacement value indicates absence, and
+   * bring any materialized views in line and publish the change to any
+   * subscribers, unless the value was replaced with the same instance.
+   */
+  private void changed(K key, V previous, V value) {
+    if (previous != null && value != null) {
+      updateIndex(key, previous, value);
+    } else if (previous != null) {
       removeFromIndex(key, previous);
+    } else if (value != null) {
+      addToIndex(key, value);
     }
-    addToIndex(key, value);
+    for (HashView<?> view : views) {
+      view.update(key, value);
+    }
+    if (previous != value) {
+      changes.publish(key, previous, value);
+    }
+  }
 
-    return previous;
+  private void updateIndex(K key, V previous, V value) {
+    indices.forEach(i -> i.update(key, previous, value));
   }
 
   private void removeFromIndex(K key, V value) {
@@ -66,7 +105,7 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
 
     Optional<V> previous = Optional.ofNullable(primary.remove(key));
     if (previous.isPresent()) {
-      removeFromIndex(key, previous.get());
+      changed(key, previous.get(), null);
     }
     return previous;
   }
@@ -83,10 +122,10 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
   }
 
   @Override
-  public <I> Function<I, Map<K, V>> addIndex(BiFunction<K, V, Iterable<I>> view) {
+  public <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
     Objects.requireNonNull(view);
 
-    Index<I> index = new Index<>(view);
+    HashIndex<I> index = new HashIndex<>(view);
 
     for (java.util.Map.Entry<K, V> entry : primary.entrySet()) {
       index.add(entry.getKey(), entry.getValue());
@@ -96,50 +135,251 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
     return index;
   }
 
+  @Override
+  public <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping) {
+    Objects.requireNonNull(mapping);
+
+    HashView<R> view = new HashView<>(mapping);
+    primary.forEach(view::update);
+    views.add(view);
+
+    return view;
+  }
+
+  @Override
+  public Subscription subscribe(ChangeListener<K, V> listener, Executor executor) {
+    Objects.requireNonNull(listener);
+    Objects.requireNonNull(executor);
+
+    return changes.subscribe(this, change -> true, listener, executor);
+  }
+
 
-  private class Index<I> implements Function<I, Map<K, V>> {
+  private class HashIndex<I> implements Index<I, K, V>, QueryCache.Watched {
 
     private final BiFunction<K, V, Iterable<I>> view;
-    private final Map<I, Map<K, V>> mapping = new HashMap<>();
+    private final Map<I, Bucket<K, V>> mapping = new HashMap<>();
+    private final Set<I> distinctKeys = Collections.unmodifiableSet(mapping.keySet());
+    private final List<HashAggregate<?>> aggregates = new ArrayList<>();
+    private final Set<QueryCache<?, ?>> caches = ConcurrentHashMap.newKeySet();
+    private boolean dropped = false;
 
-    Index(BiFunction<K, V, Iterable<I>> view) {
+    HashIndex(BiFunction<K, V, Iterable<I>> view) {
       this.view = view;
     }
 
-    public Map<K, V> applyMutable(I derived) {
-      return mapping.getOrDefault(derived, Collections.emptyMap());
+    private Bucket<K, V> bucket(I derived) {
+      checkNotDropped();
+      QueryCache.read(this, derived);
+      return mapping.get(derived);
     }
 
+    private void checkNotDropped() {
+      if (dropped) {
+        throw new IllegalStateException("Index has been dropped");
+      }
+    }
+
+    /**
+     * Lookup of entries for a secondary key, which returns the read-only view
+     * cached in the bucket, so does not allocate.
+     */
+    @Override
     public Map<K, V> apply(I derived) {
-      Map<K, V> result = applyMutable(derived);
-      if (isUninitialised(result)) {
-        return result;
-      } else {
-        return Collections.unmodifiableMap(result);
+      Bucket<K, V> bucket = bucket(derived);
+      return bucket == null ? Collections.emptyMap() : bucket.view();
+    }
+
+    @Override
+    public int count(I derived) {
+      Bucket<K, V> bucket = bucket(derived);
+      return bucket == null ? 0 : bucket.size();
+    }
+
+    @Override
+    public boolean contains(I derived) {
+      return bucket(derived) != null;
+    }
+
+    @Override
+    public boolean containsAll(Iterable<? extends I> derived) {
+      for (I i : derived) {
+        if (bucket(i) == null) {
+          return false;
+        }
       }
+      return true;
     }
 
-    void add(K key, V value) {
-      for (I i : view.apply(key, value)) {
-        associate(i).put(key, value);
+    @Override
+    public boolean containsAny(Iterable<? extends I> derived) {
+      for (I i : derived) {
+        if (bucket(i) != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Set<I> distinctKeys() {
+      checkNotDropped();
+      QueryCache.read(this, null);
+      return distinctKeys;
+    }
+
+    @Override
+    public void forEach(I derived, BiConsumer<? super K, ? super V> action) {
+      Bucket<K, V> bucket = bucket(derived);
+      if (bucket != null) {
+        bucket.forEach(action);
+      }
+    }
+
+    @Override
+    public void parallelForEach(I derived, BiConsumer<? super K, ? super V> action) {
+      Bucket<K, V> bucket = bucket(derived);
+      if (bucket != null) {
+        bucket.entrySet().parallelStream().forEach(e -> action.accept(e.getKey(), e.getValue()));
+      }
+    }
+
+    @Override
+    public Stream<Entry<K, V>> stream(I derived) {
+      return apply(derived).entrySet().stream();
+    }
+
+    @Override
+    public Stream<Entry<K, V>> parallelStream(I derived) {
+      return apply(derived).entrySet().parallelStream();
+    }
+
+    @Override
+    public Stream<K> keys(I derived) {
+      return apply(derived).keySet().stream();
+    }
+
+    @Override
+    public Stream<V> values(I derived) {
+      return apply(derived).values().stream();
+    }
+
+    @Override
+    public Optional<V> findAny(I derived) {
+      Bucket<K, V> bucket = bucket(derived);
+      if (bucket == null) {
+        return Optional.empty();
       }
+      // Buckets are removed when emptied, so there is always a first value
+      return Optional.of(bucket.values().iterator().next());
+    }
+
+    @Override
+    public IndexStatistics statistics() {
+      checkNotDropped();
+      QueryCache.read(this, null);
+
+      long entries = 0;
+      int maxCount = 0;
+      for (Bucket<K, V> bucket : mapping.values()) {
+        entries += bucket.size();
+        maxCount = Math.max(maxCount, bucket.size());
+      }
+      return new IndexStatistics(mapping.size(), entries, maxCount);
+    }
+
+    /**
+     * Subscriptions are filtered here rather than from the buckets, so the
+     * index function is applied again to each changed entry, but only while
+     * there are subscriptions.
+     */
+    @Override
+    public Subscription subscribe(I derived, ChangeListener<K, V> listener, Executor executor) {
+      checkNotDropped();
+      Objects.requireNonNull(listener);
+      Objects.requireNonNull(executor);
+
+      return changes.subscribe(this, change -> indexes(change.key(), change.previousOrNull(), derived) ||
+            indexes(change.key(), change.valueOrNull(), derived), listener, executor);
+    }
+
+    private boolean indexes(K key, V value, I derived) {
+      if (value != null) {
+        for (I i : view.apply(key, value)) {
+          if (i.equals(derived)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator) {
+      checkNotDropped();
+      Objects.requireNonNull(aggregator);
+
+      HashAggregate<A> aggregate = new HashAggregate<>(aggregator);
+      aggregates.add(aggregate);
+      return aggregate;
+    }
+
+    @Override
+    public void drop() {
+      checkNotDropped();
+
+      indices.remove(this);
+      clear();
+      changes.cancel(this);
+      caches.clear();
+      dropped = true;
+    }
+
+    void clear() {
+      mapping.clear();
+      aggregates.forEach(a -> a.values.clear());
+      caches.forEach(cache -> cache.invalidate(this));
+    }
+
+    @Override
+    public void watch(QueryCache<?, ?> cache) {
+      caches.add(cache);
     }
 
     /**
-     * Get values for secondary index value, or associate a fresh mutable map if
-     * we were using the placeholder empty one.
+     * Invalidate cached query results that looked up the secondary key, which
+     * is skipped entirely unless a cached query has read from this index.
      */
-    private Map<K, V> associate(I i) {
-      Map<K, V> result = applyMutable(i);
-      if (isUninitialised(result)) {
-        result = new HashMap<>();
-        mapping.put(i, result);
+    private void invalidate(I i) {
+      if (!caches.isEmpty()) {
+        for (QueryCache<?, ?> cache : caches) {
+          cache.invalidate(this, i);
+        }
+      }
+    }
+
+    void add(K key, V value) {
+      for (I i : view.apply(key, value)) {
+        associate(i, key, null, value);
       }
-      return result;
     }
 
-    private boolean isUninitialised(Map<K, V> result) {
-      return result == Collections.EMPTY_MAP;
+    /**
+     * Associate the entry with the secondary index value, creating a fresh
+     * bucket if there are currently none, and bring any aggregates in line,
+     * where the previous value of the entry, if any, may already be held.
+     */
+    private void associate(I i, K key, V replacing, V value) {
+      Bucket<K, V> bucket = mapping.get(i);
+      if (bucket == null) {
+        bucket = buckets.get();
+        mapping.put(i, bucket);
+      }
+      V previous = bucket.associate(key, replacing, value);
+      for (HashAggregate<?> aggregate : aggregates) {
+        aggregate.replace(i, bucket, previous, value);
+      }
+      invalidate(i);
     }
 
     /**
@@ -148,14 +388,131 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
      */
     void remove(K key, V value) {
       for (I i : view.apply(key, value)) {
-        Map<K, V> indexed = mapping.get(i);
-        indexed.remove(key);
-        if (indexed.isEmpty()) {
-          mapping.remove(i);
+        dissociate(i, key, value);
+      }
+    }
+
+    /**
+     * Replace the value of an entry, only removing it from index values it no
+     * longer appears in. Where the secondary keys are unchanged, which is often
+     * the case, the entry is replaced in place.
+     */
+    void update(K key, V previous, V value) {
+      Set<I> after = toSet(view.apply(key, value));
+      for (I i : view.apply(key, previous)) {
+        if (!after.contains(i)) {
+          dissociate(i, key, previous);
+        }
+      }
+      for (I i : after) {
+        associate(i, key, previous, value);
+      }
+    }
+
+    /**
+     * Bring the index in line with a write to an entry, where a null previous
+     * value indicates the entry was added.
+     */
+    void put(K key, V previous, V value) {
+      if (previous == null) {
+        add(key, value);
+      } else {
+        update(key, previous, value);
+      }
+    }
+
+    private void dissociate(I i, K key, V previous) {
+      Bucket<K, V> indexed = mapping.get(i);
+      V removed = indexed.dissociate(key, previous);
+      if (indexed.isEmpty()) {
+        mapping.remove(i);
+        aggregates.forEach(a -> a.values.remove(i));
+      } else {
+        for (HashAggregate<?> aggregate : aggregates) {
+          aggregate.replace(i, indexed, removed, null);
+        }
+      }
+      invalidate(i);
+    }
+
+    /**
+     * Aggregate values for each secondary index value, kept alongside the
+     * buckets and updated along with them. Secondary index values without
+     * entries have no aggregate value stored.
+     */
+    private class HashAggregate<A> implements Aggregate<I, A> {
+      private final Aggregator<? super V, A> aggregator;
+      private final Map<I, A> values = new HashMap<>();
+      private final Map<I, A> view = Collections.unmodifiableMap(values);
+
+      HashAggregate(Aggregator<? super V, A> aggregator) {
+        this.aggregator = aggregator;
+        mapping.forEach((i, bucket) -> values.put(i, recalculate(bucket)));
+      }
+
+      @Override
+      public A get(I derived) {
+        checkNotDropped();
+        QueryCache.read(HashIndex.this, derived);
+        A value = values.get(derived);
+        return value == null ? aggregator.identity() : value;
+      }
+
+      @Override
+      public Map<I, A> asMap() {
+        checkNotDropped();
+        QueryCache.read(HashIndex.this, null);
+        return view;
+      }
+
+      /**
+       * Bring the aggregate in line with a change to a bucket, which has
+       * already been made, where a null previous or replacement value
+       * indicates absence.
+       */
+      void replace(I i, Bucket<K, V> bucket, V previous, V value) {
+        A aggregate = values.get(i);
+        if (aggregate == null) {
+          aggregate = aggregator.identity();
+        }
+        if (previous != null) {
+          Optional<A> removed = aggregator.remove(aggregate, previous);
+          if (!removed.isPresent()) {
+            // The bucket already reflects the whole change
+            values.put(i, recalculate(bucket));
+            return;
+          }
+          aggregate = removed.get();
         }
+        if (value != null) {
+          aggregate = aggregator.add(aggregate, value);
+        }
+        values.put(i, aggregate);
+      }
+
+      private A recalculate(Bucket<K, V> bucket) {
+        A aggregate = aggregator.identity();
+        for (V value : bucket.values()) {
+          aggregate = aggregator.add(aggregate, value);
+        }
+        return aggregate;
       }
     }
 
+    /**
+     * The secondary keys of the replacement value are looked up once for each
+     * of the previous ones, so are copied into a set unless already one, which
+     * also means an Iterable that can only be iterated once is fine.
+     */
+    private Set<I> toSet(Iterable<I> derived) {
+      if (derived instanceof Set) {
+        return (Set<I>)derived;
+      }
+      Set<I> set = new HashSet<>();
+      derived.forEach(set::add);
+      return set;
+    }
+
   }
 
   @Override
@@ -200,37 +557,87 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
     }
   }
 
+  /**
+   * Entries are checked for nulls before the map is changed, so the primary
+   * map is never left ahead of the secondary indices.
+   */
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    m.forEach((key, value) -> {
+      Objects.requireNonNull(key);
+      Objects.requireNonNull(value);
+    });
+
+    Writes<K, V> writes = new Writes<>();
+    m.forEach((key, value) -> writes.add(key, primary.put(key, value), value));
+
+    changed(writes, parallel);
+  }
+
   @Override
   public void clear() {
+    if (changes.hasSubscribers()) {
+      primary.forEach((key, value) -> changes.publish(key, value, null));
+    }
     primary.clear();
-    for (Index<?> index : indices) {
-      index.mapping.clear();
+    for (HashIndex<?> index : indices) {
+      index.clear();
     }
+    views.forEach(v -> v.values.clear());
   }
 
 
-  // Default methods are delegated to the default implementations in {@link Map}
-  // in some cases, which is likely not as efficient as the {@link HashMap}
-  // versions, but ensure indexes are updated. Improvement can be done on an
-  // as-needed basis.
+  // Default methods are implemented natively using the equivalent primary map
+  // operation, so only one lookup is needed on the primary index (when backed
+  // by a HashMap). The previous value is captured from within the remapping
+  // function so that the secondary indices can be updated afterwards. Where a
+  // remapping function returns the same instance it was given, the indices are
+  // already correct and are left alone.
+
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(remappingFunction);
+
+    Previous<V> previous = new Previous<>();
+    V value = primary.compute(key, (k, current) -> {
+      previous.value = current;
+      return remappingFunction.apply(k, current);
+    });
+    if (previous.value != value) {
+      changed(key, previous.value, value);
+    }
+    return value;
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(mappingFunction);
 
-  //todo
-//  @Override
-//  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-//    return primary.compute(key, remappingFunction);
-//  }
+    Previous<V> computed = new Previous<>();
+    V value = primary.computeIfAbsent(key, k -> computed.value = mappingFunction.apply(k));
+    if (computed.value != null) {
+      changed(key, null, computed.value);
+    }
+    return value;
+  }
 
-  //todo
-//  @Override
-//  public V computeIfAbsent(K key, Function<? super K, ? extends V> remappingFunction) {
-//    return primary.computeIfAbsent(key, remappingFunction);
-//  }
+  @Override
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(remappingFunction);
 
-  //todo
-//  @Override
-//  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-//    return primary.computeIfPresent(key, remappingFunction);
-//  }
+    Previous<V> previous = new Previous<>();
+    V value = primary.computeIfPresent(key, (k, current) -> {
+      previous.value = current;
+      return remappingFunction.apply(k, current);
+    });
+    if (previous.value != value) {
+      changed(key, previous.value, value);
+    }
+    return value;
+  }
 
   @Override
   public V getOrDefault(Object key, V defaultValue) {
@@ -242,34 +649,409 @@ public class IndexedHashMap<K, V> implements IndexedMap<K, V> {
     primary.forEach(action);
   }
 
+  @Override
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+
+    primary.entrySet().parallelStream().forEach(e -> action.accept(e.getKey(), e.getValue()));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream() {
+    return entrySet().stream();
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream() {
+    return entrySet().parallelStream();
+  }
+
   @Override
   public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-    return IndexedMap.super.merge(key, value, remappingFunction);
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(remappingFunction);
+
+    Previous<V> previous = new Previous<>();
+    V merged = primary.merge(key, value, (current, given) -> {
+      previous.value = current;
+      return remappingFunction.apply(current, given);
+    });
+    if (previous.value != merged) {
+      changed(key, previous.value, merged);
+    }
+    return merged;
   }
 
   @Override
   public V putIfAbsent(K key, V value) {
-    return IndexedMap.super.putIfAbsent(key, value);
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+
+    V existing = primary.putIfAbsent(key, value);
+    if (existing == null) {
+      changed(key, null, value);
+    }
+    return existing;
   }
 
   @Override
   public boolean remove(Object key, Object value) {
-    return IndexedMap.super.remove(key, value);
+    Objects.requireNonNull(key);
+
+    // Unavoidable cast because of remove() interface signature, see remove(Object)
+    @SuppressWarnings("unchecked")
+    K k = (K)key;
+
+    // Use the instance from the map rather than the (equal) supplied one to
+    // remove from the indices, as that is the one that was indexed
+    Previous<V> removed = new Previous<>();
+    primary.computeIfPresent(k, (ignored, current) -> {
+      if (current.equals(value)) {
+        removed.value = current;
+        return null;
+      }
+      return current;
+    });
+    if (removed.value != null) {
+      changed(k, removed.value, null);
+      return true;
+    }
+    return false;
   }
 
   @Override
   public V replace(K key, V value) {
-    return IndexedMap.super.replace(key, value);
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+
+    V previous = primary.replace(key, value);
+    if (previous != null && previous != value) {
+      changed(key, previous, value);
+    }
+    return previous;
   }
 
   @Override
   public boolean replace(K key, V oldValue, V newValue) {
-    return IndexedMap.super.replace(key, oldValue, newValue);
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(oldValue);
+    Objects.requireNonNull(newValue);
+
+    Previous<V> replaced = new Previous<>();
+    primary.computeIfPresent(key, (k, current) -> {
+      if (current.equals(oldValue)) {
+        replaced.value = current;
+        return newValue;
+      }
+      return current;
+    });
+    if (replaced.value == null) {
+      return false;
+    }
+    if (replaced.value != newValue) {
+      changed(key, replaced.value, newValue);
+    }
+    return true;
   }
 
   @Override
   public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-    MapSupport.replaceAll(this, function);
+    replaceAll(function, false);
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    Objects.requireNonNull(function);
+
+    Set<Entry<K, V>> entries = primary.entrySet();
+    Replacements<K, V> replacements = (parallel ? entries.parallelStream() : entries.stream())
+          .collect(
+                Replacements::new,
+                (r, entry) -> r.add(entry, function),
+                Replacements::addAll);
+
+    replacements.apply();
+
+    changed(replacements, parallel);
+  }
+
+  /**
+   * Bring the secondary indices and materialized views in line with a batch of
+   * writes already made to the primary map, and publish them. Each index is
+   * updated with the whole batch in turn, and as the indices are independent
+   * of each other, they can be updated concurrently. Only one thread updates
+   * any given index, and readers are excluded by the lock on the map, if any,
+   * so the indices need no locking of their own.
+   */
+  private void changed(Writes<K, V> writes, boolean parallel) {
+    Consumer<HashIndex<?>> reindex = writes::reindex;
+    if (parallel && indices.size() > 1) {
+      indices.parallelStream().forEach(reindex);
+    } else {
+      indices.forEach(reindex);
+    }
+    views.forEach(writes::rematerialize);
+    writes.publish(changes);
+  }
+
+  /**
+   * Writes made to entries of the primary map, along with the values being
+   * replaced, kept as parallel lists to avoid a holder per entry. A null
+   * previous value indicates the entry was added.
+   */
+  private static class Writes<K, V> {
+    final List<K> keys = new ArrayList<>();
+    final List<V> values = new ArrayList<>();
+    final List<V> previous = new ArrayList<>();
+
+    void add(K key, V previous, V value) {
+      this.keys.add(key);
+      this.values.add(value);
+      this.previous.add(previous);
+    }
+
+    void addAll(Writes<K, V> other) {
+      keys.addAll(other.keys);
+      values.addAll(other.values);
+      previous.addAll(other.previous);
+    }
+
+    void reindex(IndexedHashMap<K, V>.HashIndex<?> index) {
+      for (int i = 0; i < keys.size(); i++) {
+        index.put(keys.get(i), previous.get(i), values.get(i));
+      }
+    }
+
+    void rematerialize(IndexedHashMap<K, V>.HashView<?> view) {
+      for (int i = 0; i < keys.size(); i++) {
+        view.update(keys.get(i), values.get(i));
+      }
+    }
+
+    void publish(ChangePublisher<K, V> changes) {
+      for (int i = 0; i < keys.size() && changes.hasSubscribers(); i++) {
+        if (previous.get(i) != values.get(i)) {
+          changes.publish(keys.get(i), previous.get(i), values.get(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Entries of the primary map whose values are being replaced, which are
+   * gathered before any are changed, and then updated in place.
+   */
+  private static class Replacements<K, V> extends Writes<K, V> {
+    private final List<Entry<K, V>> entries = new ArrayList<>();
+
+    void add(Entry<K, V> entry, BiFunction<? super K, ? super V, ? extends V> function) {
+      V current = entry.getValue();
+      V value = function.apply(entry.getKey(), current);
+      Objects.requireNonNull(value);
+
+      if (value != current) {
+        entries.add(entry);
+        add(entry.getKey(), current, value);
+      }
+    }
+
+    void addAll(Replacements<K, V> other) {
+      super.addAll(other);
+      entries.addAll(other.entries);
+    }
+
+    /** Update the values of the primary map entries in place. */
+    void apply() {
+      for (int i = 0; i < entries.size(); i++) {
+        entries.get(i).setValue(values.get(i));
+      }
+    }
+  }
+
+  /**
+   * Entries associated with a secondary index value, which caches a read-only
+   * view of itself to be returned by lookups.
+   */
+  private interface Bucket<K, V> extends Map<K, V> {
+
+    /**
+     * Add or replace the entry, where the previous value of the entry in the
+     * map is given, in case the bucket does not hold values itself.
+     *
+     * @return value the bucket held for the entry, or null if none.
+     */
+    V associate(K key, V previous, V value);
+
+    /**
+     * Remove the entry, where the previous value of the entry in the map is
+     * given, in case the bucket does not hold values itself.
+     *
+     * @return value the bucket held for the entry, or null if none.
+     */
+    V dissociate(K key, V previous);
+
+    Map<K, V> view();
+  }
+
+  private static class HashBucket<K, V> extends HashMap<K, V> implements Bucket<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<K, V> view = Collections.unmodifiableMap(this);
+
+    @Override
+    public V associate(K key, V previous, V value) {
+      return put(key, value);
+    }
+
+    @Override
+    public V dissociate(K key, V previous) {
+      return remove(key);
+    }
+
+    @Override
+    public Map<K, V> view() {
+      return view;
+    }
+  }
+
+  /**
+   * Bucket of the ordinals of its entries in an {@link OrdinalMap}, which are
+   * looked up in the map when read, so the bucket only holds a compressed
+   * {@link Bitmap}. The map already holds the new value of an entry when the
+   * bucket is brought in line, so the value the bucket held is taken to be the
+   * previous value of the entry where its ordinal was already present.
+   */
+  private static class OrdinalBucket<K, V> extends AbstractMap<K, V> implements Bucket<K, V> {
+    private final OrdinalMap<K, V> primary;
+    private final Bitmap ordinals = new Bitmap();
+    private final Map<K, V> view = Collections.unmodifiableMap(this);
+
+    OrdinalBucket(OrdinalMap<K, V> primary) {
+      this.primary = primary;
+    }
+
+    @Override
+    public V associate(K key, V previous, V value) {
+      return ordinals.add(primary.ordinalOf(key)) ? null : previous;
+    }
+
+    @Override
+    public V dissociate(K key, V previous) {
+      return ordinals.remove(primary.ordinalOf(key)) ? previous : null;
+    }
+
+    @Override
+    public Map<K, V> view() {
+      return view;
+    }
+
+    @Override
+    public V get(Object key) {
+      int ordinal = primary.ordinal(key);
+      return ordinal >= 0 && ordinals.contains(ordinal) ? primary.valueAt(ordinal) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      int ordinal = primary.ordinal(key);
+      return ordinal >= 0 && ordinals.contains(ordinal);
+    }
+
+    @Override
+    public int size() {
+      return ordinals.cardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return ordinals.isEmpty();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      ordinals.forEach(ordinal -> action.accept(primary.keyAt(ordinal), primary.valueAt(ordinal)));
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      return new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          PrimitiveIterator.OfInt iterator = ordinals.iterator();
+          return new Iterator<Entry<K, V>>() {
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public Entry<K, V> next() {
+              int ordinal = iterator.nextInt();
+              return new AbstractMap.SimpleImmutableEntry<>(primary.keyAt(ordinal), primary.valueAt(ordinal));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return ordinals.cardinality();
+        }
+      };
+    }
+  }
+
+  /**
+   * Values derived from each entry of the primary map, kept up-to-date as the
+   * entries change. Entries the mapping returns null for are left out.
+   */
+  private class HashView<R> implements MaterializedView<K, R> {
+    private final BiFunction<? super K, ? super V, ? extends R> mapping;
+    private final Map<K, R> values = new HashMap<>();
+    private final Map<K, R> view = Collections.unmodifiableMap(values);
+    private boolean dropped = false;
+
+    HashView(BiFunction<? super K, ? super V, ? extends R> mapping) {
+      this.mapping = mapping;
+    }
+
+    @Override
+    public Map<K, R> asMap() {
+      checkNotDropped();
+      return view;
+    }
+
+    @Override
+    public void drop() {
+      checkNotDropped();
+
+      views.remove(this);
+      values.clear();
+      dropped = true;
+    }
+
+    private void checkNotDropped() {
+      if (dropped) {
+        throw new IllegalStateException("View has been dropped");
+      }
+    }
+
+    /** Update the derived value for a key, where a null value indicates absence. */
+    void update(K key, V value) {
+      R derived = value == null ? null : mapping.apply(key, value);
+      if (derived == null) {
+        values.remove(key);
+      } else {
+        values.put(key, derived);
+      }
+    }
+  }
+
+  /**
+   * Holder for a value captured from within a primary map remapping function.
+   */
+  private static class Previous<V> {
+    V value;
   }
 
 }
@@ -2,10 +2,17 @@
 
 package org.softpres.indexedmap;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+import java.util.stream.Stream;
 
 /**
  * A Map-like class, which allows addition of custom indices that are always
@@ -21,10 +28,14 @@ import java.util.function.Function;
  * strategy is configured from the builder (is by default). However, this
  * support is a rudimentary read-uncommitted isolation capability.
  * Views through the map, meaning {@link #entrySet()}, {@link #keySet()} and
- * {@link #values()} are also thread-safe, but the price the price paid for
- * that is that we make a copy under lock when a locking strategy is used
+ * {@link #values()} are also thread-safe when a locking strategy is used
  * {@link IndexedMapBuilder#lockStrategy(java.util.concurrent.locks.ReadWriteLock)}.
- * To avoid the copying, using {@link Map#forEach(java.util.function.BiConsumer)}.
+ * They do not copy the map, but lock for each operation, and fail with a
+ * {@link java.util.ConcurrentModificationException} if the map is changed while
+ * they are being iterated. Copying them under lock can instead be configured
+ * with {@link IndexedMapBuilder#copyViews(boolean)}. To avoid locking for each
+ * entry, use {@link Map#forEach(java.util.function.BiConsumer)},
+ * {@link #parallelForEach(BiConsumer)} or {@link #stream()}.
  * <p/>
  * This class should not be used with mutable objects. If required, some sort
  * of copy-on-write strategy should be used on top.
@@ -66,15 +77,243 @@ public interface IndexedMap<K, V> extends Map<K, V> {
   /**
    * Add a secondary index to this map. The secondary index is creating using
    * the supplied function, from entries (key and value) to the secondary key.
-   * The returning function can then be used to allow lookup using the secondary
-   * key of type {@link I}. Any existing values in the map will be indexed by
+   * The returned index can then be used as a function to allow lookup using
+   * the secondary key of type {@link I}, or to count or check for entries
+   * without accessing them. Any existing values in the map will be indexed by
    * this function ready for lookup.
    *
    * @param view view function from key-value entry to secondary index keys.
    * @param <I> type of index keys for lookup.
-   * @return index function, allowing lookup of all entries for the supplied
-   * secondary index key.
+   * @return index, allowing lookup of all entries for the supplied secondary
+   * index key.
    */
-  <I> Function<I, Map<K, V>> addIndex(BiFunction<K, V, Iterable<I>> view);
+  <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view);
+
+  /**
+   * Add a secondary index to this map that is only built when first used, as
+   * per {@link #addIndex(BiFunction)}, so that writes do not pay to maintain it
+   * until then. The first use of the index indexes all existing values, after
+   * which it is maintained as normal.
+   *
+   * @param view view function from key-value entry to secondary index keys.
+   * @param <I> type of index keys for lookup.
+   * @return index, which is built on first use.
+   */
+  default <I> Index<I, K, V> addLazyIndex(BiFunction<K, V, Iterable<I>> view) {
+    Objects.requireNonNull(view);
+    return new LazyIndex<>(this, view, null, null, System::nanoTime);
+  }
+
+  /**
+   * Add a secondary index to this map that is only built when first used, as
+   * per {@link #addLazyIndex(BiFunction)}, and is dropped from the map again
+   * once it has not been used for the idle timeout, to be built again on its
+   * next use. Results of lookups such as streams and lazy views must not be
+   * used after the index has been idle for so long. Indices with aggregates or
+   * subscriptions are never dropped for being idle.
+   *
+   * @param view view function from key-value entry to secondary index keys.
+   * @param idleTimeout time without lookups after which the index is dropped.
+   * @param scheduler used to check whether the index is idle.
+   * @param <I> type of index keys for lookup.
+   * @return index, which is built on first use.
+   */
+  default <I> Index<I, K, V> addLazyIndex(
+        BiFunction<K, V, Iterable<I>> view,
+        Duration idleTimeout,
+        ScheduledExecutorService scheduler) {
+
+    Objects.requireNonNull(view);
+    Objects.requireNonNull(idleTimeout);
+    Objects.requireNonNull(scheduler);
+    return new LazyIndex<>(this, view, idleTimeout, scheduler, System::nanoTime);
+  }
+
+  /**
+   * Add a secondary index to this map that is maintained asynchronously, for
+   * indices where lookups can tolerate being a little behind the map. Changes
+   * are queued by writers and applied to the index in batches by a task run on
+   * the executor, so writes do not wait on the view function, and the index is
+   * eventually consistent with the map. Use {@link AsyncIndex#lag()} and
+   * {@link AsyncIndex#awaitCatchUp(Duration)} where lookups need to see
+   * recent writes.
+   * <p/>
+   * The index is kept over a copy of the entries of this map, so each async
+   * index holds a reference to every key and value in addition to its buckets,
+   * although densely in arrays rather than as a hash map node per entry. The
+   * keys and values themselves are shared with this map, not copied.
+   *
+   * @param view view function from key-value entry to secondary index keys.
+   * @param executor used to apply changes to the index.
+   * @param <I> type of index keys for lookup.
+   * @return index, which reflects the existing entries of the map.
+   */
+  default <I> AsyncIndex<I, K, V> addAsyncIndex(BiFunction<K, V, Iterable<I>> view, Executor executor) {
+    Objects.requireNonNull(view);
+    Objects.requireNonNull(executor);
+    return new AsyncIndex<>(this, view, executor);
+  }
+
+  /**
+   * Add a full-text index of this map, which looks up entries by the words of
+   * the text derived from each entry, as split by {@link TextIndex#words}.
+   * The index is maintained as part of each write, as per
+   * {@link #addIndex(BiFunction)}.
+   *
+   * @param text function from key-value entry to the text to index, where
+   *             null is treated as empty.
+   * @return index, which reflects the existing entries of the map.
+   */
+  default TextIndex<K, V> addTextIndex(BiFunction<K, V, String> text) {
+    return addTextIndex(text, TextIndex::words);
+  }
+
+  /**
+   * Add a full-text index of this map, as per
+   * {@link #addTextIndex(BiFunction)}, which splits the text into terms using
+   * the supplied tokenizer, such as to also stem words or drop stop words.
+   * Queries are split into terms using the same tokenizer.
+   *
+   * @param text function from key-value entry to the text to index, where
+   *             null is treated as empty.
+   * @param tokenizer function from text to the terms it contains.
+   * @return index, which reflects the existing entries of the map.
+   */
+  default TextIndex<K, V> addTextIndex(
+        BiFunction<K, V, String> text,
+        Function<String, ? extends Iterable<String>> tokenizer) {
+
+    Objects.requireNonNull(text);
+    Objects.requireNonNull(tokenizer);
+    return new TextIndex<>(this, text, tokenizer);
+  }
+
+  /**
+   * Add a set of secondary indices to this map whose buckets are compressed
+   * bitmaps of entry ordinals, which are far smaller than the buckets of
+   * {@link #addIndex(BiFunction)} for indices with few distinct keys over many
+   * entries. The bitmaps of indices in the same set can be combined, and then
+   * looked up, see {@link BitmapIndices}.
+   *
+   * @return set of bitmap indices, to which indices can then be added.
+   */
+  default BitmapIndices<K, V> addBitmapIndices() {
+    return new BitmapIndices<>(this);
+  }
+
+  /**
+   * Add a spatial index of this map, which looks up entries by the point
+   * derived from each entry, such as within a bounding box or radius, or
+   * nearest to a point. The index is maintained as part of each write, as per
+   * {@link #addIndex(BiFunction)}.
+   *
+   * @param x function from key-value entry to the x coordinate, or longitude,
+   *          of its point, where NaN leaves the entry out of the index.
+   * @param y function from key-value entry to the y coordinate, or latitude,
+   *          of its point, where NaN leaves the entry out of the index.
+   * @return index, which reflects the existing entries of the map.
+   */
+  default SpatialIndex<K, V> addSpatialIndex(ToDoubleBiFunction<K, V> x, ToDoubleBiFunction<K, V> y) {
+    Objects.requireNonNull(x);
+    Objects.requireNonNull(y);
+    return new SpatialIndex<>(this, x, y);
+  }
+
+  /**
+   * Add a materialized view of this map, holding a value derived from each
+   * entry using the supplied function, such as a projection of each value or
+   * a join with some other immutable data. The derived values are calculated
+   * for existing entries, and then kept up-to-date as the map is changed in the
+   * same way as the secondary indices, so reading the view does not apply the
+   * function. To group entries instead, use {@link Index#aggregate(Aggregator)}
+   * along with {@link Aggregate#asMap()}.
+   *
+   * @param mapping function from key-value entry to derived value, where null
+   *                leaves the entry out of the view.
+   * @param <R> type of derived value.
+   * @return view, allowing the derived values to be read as a map, and the
+   * view to be dropped once no longer needed.
+   */
+  <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping);
+
+  /**
+   * Subscribe to all changes made to this map from now on, including those made
+   * by the default methods and {@link #clear()}. Changes are queued as they are
+   * made, and delivered to the listener in batches using the executor, so that
+   * the listener is called outside of any lock and does not hold up writers.
+   * Replacing a value with the same instance is not considered a change.
+   * <p/>
+   * If the executor runs tasks on the calling thread, the listener is instead
+   * called as part of each write, and where a locking strategy is used, while
+   * the write lock is held, so must not then access the map.
+   *
+   * @param listener listener to deliver changes to.
+   * @param executor executor used to deliver changes to the listener.
+   * @return subscription, which can be used to stop delivery.
+   */
+  Subscription subscribe(ChangeListener<K, V> listener, Executor executor);
+
+  /**
+   * Replace the value of every entry with the result of the supplied function,
+   * as per {@link #replaceAll(BiFunction)}. Values are updated in place, and
+   * secondary indices are only updated for entries where the function returned
+   * a different instance. All replacement values are calculated before the map
+   * is changed, so a function that throws leaves the map untouched.
+   *
+   * @param function function to calculate the replacement value for an entry,
+   *                 which must not return null.
+   * @param parallel whether the function can be applied to entries in parallel,
+   *                 in which case it must be safe to call from multiple threads.
+   */
+  void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel);
+
+  /**
+   * Copy all of the entries from the supplied map into this map, as per
+   * {@link #putAll(Map)}, but bringing each secondary index in line with the
+   * whole batch in turn. As the indices are independent of each other, they
+   * can then be updated concurrently, which helps large batches where there
+   * are several indices with expensive view functions.
+   *
+   * @param m entries to be stored in this map, which must not contain nulls.
+   * @param parallel whether the secondary indices can be updated in parallel,
+   *                 in which case the view functions must be safe to call from
+   *                 multiple threads.
+   */
+  void putAll(Map<? extends K, ? extends V> m, boolean parallel);
+
+  /**
+   * Perform the action for each entry in the map, as per
+   * {@link #forEach(BiConsumer)}, but in parallel using the common fork-join
+   * pool. Where a locking strategy is used, each worker thread acquires the
+   * read lock for the chunk of entries it performs the action on, so the
+   * action may itself read the map. Writers are not blocked between chunks, so
+   * as for {@link #parallelStream()}, the operation fails with a
+   * {@link java.util.ConcurrentModificationException} if the map is changed
+   * part way through.
+   *
+   * @param action action to perform for each entry, which must be safe to call
+   *               from multiple threads.
+   */
+  void parallelForEach(BiConsumer<? super K, ? super V> action);
+
+  /**
+   * A sequential stream of the entries in this map, which cannot be modified.
+   * The entries are not copied. Where a locking strategy is used, the lock is
+   * acquired for each chunk of entries rather than for the whole stream, and
+   * the stream fails with a {@link java.util.ConcurrentModificationException}
+   * if the map is changed part way through.
+   *
+   * @return stream of entries.
+   */
+  Stream<Entry<K, V>> stream();
+
+  /**
+   * A parallel stream of the entries in this map, as per {@link #stream()}.
+   * The entries for a secondary index key can be streamed in parallel in the
+   * same way, using {@link Index#parallelStream(Object)}.
+   *
+   * @return possibly parallel stream of entries.
+   */
+  Stream<Entry<K, V>> parallelStream();
 
 }
@@ -2,10 +2,17 @@
 
 package org.softpres.indexedmap;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
 
 /**
  * Builder utility for index maps.
@@ -14,6 +21,16 @@ public class IndexedMapBuilder<K, V> {
 
   private Map<K, V> primary = new HashMap<>();
   private ReadWriteLock lockStrategy = new ReentrantReadWriteLock();
+  private boolean copyViews = false;
+  private int partitions = 1;
+  private int maximumSize = -1;
+  private Eviction eviction = Eviction.TINY_LFU;
+  private BiFunction<? super K, ? super V, Duration> expiry = null;
+  private LongSupplier ticker = System::nanoTime;
+  private Loader<K, V> loader = null;
+  private BackingStore<K, V> store = null;
+  private Executor storeExecutor = null;
+  private boolean ordinalStorage = false;
 
   /**
    * Map used for the primary index. This is intended to allow application code
@@ -25,6 +42,20 @@ public class IndexedMapBuilder<K, V> {
     return this;
   }
 
+  /**
+   * Store the entries in arrays indexed by a dense ordinal given to each
+   * entry, rather than in hash map nodes, with secondary index buckets holding
+   * compressed bitmaps of the ordinals of their entries rather than maps of
+   * the entries. This takes far less memory for large maps, and scans the
+   * entries in order through memory, but looking up a key or reading the
+   * entries of a bucket does a little more work. Any primary map is only used
+   * to seed the map.
+   */
+  public IndexedMapBuilder<K, V> ordinalStorage() {
+    this.ordinalStorage = true;
+    return this;
+  }
+
   /**
    * The locking strategy used to protect reads and writes (including index
    * updates). Note that any locking strategy allows only a "read uncommitted"
@@ -40,19 +71,182 @@ public class IndexedMapBuilder<K, V> {
     return this;
   }
 
+  /**
+   * Whether {@link IndexedMap#entrySet()}, {@link IndexedMap#keySet()} and
+   * {@link IndexedMap#values()} should take a copy of the map under the read
+   * lock when a locking strategy is used. By default they are lazy views that
+   * do not copy, but fail with a {@link java.util.ConcurrentModificationException}
+   * if the map is changed while they are being iterated. A copy can be iterated
+   * regardless of changes, but blocks writers while it is taken.
+   */
+  public IndexedMapBuilder<K, V> copyViews(boolean copyViews) {
+    this.copyViews = copyViews;
+    return this;
+  }
+
+  /**
+   * The number of partitions to hash partition keys over, where each partition
+   * is an independent map with its own lock, so that writes to different
+   * partitions can proceed in parallel. Secondary index lookups are scattered
+   * to every partition and gathered. Each partition uses a
+   * {@link java.util.concurrent.locks.ReentrantReadWriteLock}, unless
+   * {@link NoReadWriteLock} is configured, and the primary map is only used to
+   * seed the partitions. By default, there is a single partition.
+   */
+  public IndexedMapBuilder<K, V> partitions(int partitions) {
+    if (partitions < 1) {
+      throw new IllegalArgumentException("At least one partition is required: " + partitions);
+    }
+    this.partitions = partitions;
+    return this;
+  }
+
+  /**
+   * Bound the map to a maximum number of entries, evicting entries chosen
+   * using {@link Eviction#TINY_LFU} once it grows beyond it.
+   */
+  public IndexedMapBuilder<K, V> maximumSize(int maximumSize) {
+    return maximumSize(maximumSize, Eviction.TINY_LFU);
+  }
+
+  /**
+   * Bound the map to a maximum number of entries, evicting entries chosen by
+   * the eviction policy once it grows beyond it. Evicted entries are deleted
+   * from the map and every secondary index, as for any other delete.
+   */
+  public IndexedMapBuilder<K, V> maximumSize(int maximumSize, Eviction eviction) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("Maximum size cannot be negative: " + maximumSize);
+    }
+    this.maximumSize = maximumSize;
+    this.eviction = Objects.requireNonNull(eviction);
+    return this;
+  }
+
+  /**
+   * Expire every entry once the given time has passed since it was last
+   * written.
+   */
+  public IndexedMapBuilder<K, V> expireAfterWrite(Duration ttl) {
+    Objects.requireNonNull(ttl);
+    return expireAfter((k, v) -> ttl);
+  }
+
+  /**
+   * Expire each entry once its own time to live has passed since it was last
+   * written, where the function gives the time to live of an entry, or null if
+   * it should never expire. Expired entries are deleted from the map and every
+   * secondary index, as for any other delete, and are never returned by reads
+   * of a key. Expired entries are only deleted as the map is written, or read
+   * by key, so may still be seen through views or index lookups until then,
+   * which is indefinitely for a map left idle.
+   */
+  public IndexedMapBuilder<K, V> expireAfter(BiFunction<? super K, ? super V, Duration> expiry) {
+    this.expiry = Objects.requireNonNull(expiry);
+    return this;
+  }
+
+  /**
+   * Source of the time in nanoseconds used for expiry, intended for tests.
+   */
+  IndexedMapBuilder<K, V> ticker(LongSupplier ticker) {
+    this.ticker = Objects.requireNonNull(ticker);
+    return this;
+  }
+
+  /**
+   * Load values missing from the map when a key is read, where concurrent
+   * reads of the same missing key wait for a single load. Loaded values are
+   * inserted into the map and every secondary index, but only reads of a key
+   * load it, not lookups using an index.
+   */
+  public IndexedMapBuilder<K, V> readThrough(Loader<K, V> loader) {
+    this.loader = Objects.requireNonNull(loader);
+    return this;
+  }
+
+  /**
+   * Write changes made to the map to a backing store asynchronously, in
+   * batches on the executor, where only the latest change to each key in a
+   * batch is written. Entries removed by eviction or expiry are not deleted
+   * from the store, and values loaded using {@link #readThrough(Loader)} are
+   * not written back to it.
+   */
+  public IndexedMapBuilder<K, V> writeBehind(BackingStore<K, V> store, Executor executor) {
+    this.store = Objects.requireNonNull(store);
+    this.storeExecutor = Objects.requireNonNull(executor);
+    return this;
+  }
+
   /**
    * Build an indexed map with the currently configured values.
    *
    * @return fully built indexed map.
    */
   public IndexedMap<K, V> build() {
+    IndexedMap<K, V> map = buildUnbounded();
+    if (maximumSize >= 0 || expiry != null) {
+      map = new EvictingIndexedMap<>(map, maximumSize, eviction, expiry, ticker);
+    }
+    if (loader != null || store != null) {
+      map = new BackedIndexedMap<>(map, loader, store, storeExecutor);
+    }
+    return map;
+  }
+
+  private IndexedMap<K, V> buildUnbounded() {
+    if (partitions > 1) {
+      return buildPartitioned();
+    }
     if (isLockingEnabled()) {
-      return new LockedIndexedMap<>(new IndexedHashMap<>(primary), lockStrategy);
+      return new LockedIndexedMap<>(new IndexedHashMap<>(storage(primary)), lockStrategy, copyViews);
     } else {
-      return new IndexedHashMap<>(primary);
+      return new IndexedHashMap<>(storage(primary));
     }
   }
 
+  /**
+   * @return map to hold the entries of the primary index, seeded with the
+   * given entries.
+   */
+  private Map<K, V> storage(Map<K, V> seed) {
+    if (!ordinalStorage) {
+      return seed;
+    }
+    OrdinalMap<K, V> ordinals = new OrdinalMap<>();
+    ordinals.putAll(seed);
+    return ordinals;
+  }
+
+  /**
+   * Build an indexed map owned by a single writer thread, which callers submit
+   * operations to, either blocking when the queue of operations is full, or
+   * asynchronously without ever blocking, see {@link AsyncIndexedMap}. As only
+   * the writer thread accesses the map, the locking strategy is not used, and
+   * neither are partitions, maximum size, expiry nor a backing store.
+   *
+   * @param capacity maximum number of operations waiting to be applied.
+   * @return writer owning the fully built indexed map, which must be closed.
+   */
+  public SingleWriterMap<K, V> buildSingleWriter(int capacity) {
+    return new SingleWriterMap<>(new IndexedHashMap<>(storage(primary)), capacity);
+  }
+
+  private IndexedMap<K, V> buildPartitioned() {
+    List<IndexedMap<K, V>> maps = new ArrayList<>(partitions);
+    for (int i = 0; i < partitions; i++) {
+      IndexedMap<K, V> map = new IndexedHashMap<>(storage(new HashMap<>()));
+      if (isLockingEnabled()) {
+        map = new LockedIndexedMap<>(map, new ReentrantReadWriteLock(), copyViews);
+      }
+      maps.add(map);
+    }
+
+    IndexedMap<K, V> partitioned = new PartitionedIndexedMap<>(maps);
+    partitioned.putAll(primary);
+    return partitioned;
+  }
+
   private boolean isLockingEnabled() {
     return !(lockStrategy instanceof NoReadWriteLock);
   }
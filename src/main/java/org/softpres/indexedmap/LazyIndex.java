@@ -0,0 +1,240 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+import static org.softpres.indexedmap.MapSupport.withLock;
+
+/**
+ * An {@link Index} that is only added to the map when first used, so writes do
+ * not pay to maintain it until then, see
+ * {@link IndexedMap#addLazyIndex(BiFunction)}. Optionally, the index is dropped
+ * from the map again once it has not been used for a while, to be added again
+ * on its next use.
+ * <p/>
+ * An index with aggregates or subscriptions must be maintained for them to
+ * stay up-to-date, so is never dropped for being idle.
+ */
+class LazyIndex<I, K, V> implements Index<I, K, V> {
+
+  private final IndexedMap<K, V> map;
+  private final BiFunction<K, V, Iterable<I>> view;
+  private final long idleNanos;
+  private final ScheduledExecutorService scheduler;
+  private final LongSupplier ticker;
+
+  /** Lookups are made under the read lock, so the index is not dropped during them. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private Index<I, K, V> index = null;
+  private boolean pinned = false;
+  private boolean dropped = false;
+  private volatile long lastUsed;
+
+  /**
+   * @param idleTimeout how long the index must be unused for before it is
+   *                    dropped, or null to keep it once added.
+   * @param scheduler used to check whether the index is idle.
+   */
+  LazyIndex(
+        IndexedMap<K, V> map,
+        BiFunction<K, V, Iterable<I>> view,
+        Duration idleTimeout,
+        ScheduledExecutorService scheduler,
+        LongSupplier ticker) {
+
+    this.map = map;
+    this.view = view;
+    this.idleNanos = idleTimeout == null ? -1 : idleTimeout.toNanos();
+    this.scheduler = scheduler;
+    this.ticker = ticker;
+  }
+
+  /**
+   * @return whether the index is currently added to the map.
+   */
+  boolean isBuilt() {
+    return withLock(lock.readLock(), () -> index != null);
+  }
+
+  private <R> R use(Function<Index<I, K, V>, R> lookup) {
+    lastUsed = ticker.getAsLong();
+    Lock read = lock.readLock();
+    read.lock();
+    try {
+      checkNotDropped();
+      // The read lock cannot be upgraded, so is released while building
+      while (index == null) {
+        read.unlock();
+        try {
+          build();
+        } finally {
+          read.lock();
+        }
+        checkNotDropped();
+      }
+      return lookup.apply(index);
+    } finally {
+      read.unlock();
+    }
+  }
+
+  private void build() {
+    withLock(lock.writeLock(), () -> {
+      if (index == null && !dropped) {
+        index = map.addIndex(view);
+        scheduleIdleCheck(idleNanos);
+      }
+      return null;
+    });
+  }
+
+  private void checkNotDropped() {
+    if (dropped) {
+      throw new IllegalStateException("Index has been dropped");
+    }
+  }
+
+  private void scheduleIdleCheck(long delay) {
+    if (idleNanos >= 0) {
+      scheduler.schedule(this::checkIdle, delay, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void checkIdle() {
+    withLock(lock.writeLock(), () -> {
+      if (index == null || pinned || dropped) {
+        return null;
+      }
+      long idle = ticker.getAsLong() - lastUsed;
+      if (idle >= idleNanos) {
+        index.drop();
+        index = null;
+      } else {
+        scheduleIdleCheck(idleNanos - idle);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Map<K, V> apply(I key) {
+    return use(index -> index.apply(key));
+  }
+
+  @Override
+  public int count(I key) {
+    return use(index -> index.count(key));
+  }
+
+  @Override
+  public boolean contains(I key) {
+    return use(index -> index.contains(key));
+  }
+
+  @Override
+  public boolean containsAll(Iterable<? extends I> keys) {
+    return use(index -> index.containsAll(keys));
+  }
+
+  @Override
+  public boolean containsAny(Iterable<? extends I> keys) {
+    return use(index -> index.containsAny(keys));
+  }
+
+  @Override
+  public Set<I> distinctKeys() {
+    return use(Index::distinctKeys);
+  }
+
+  @Override
+  public void forEach(I key, BiConsumer<? super K, ? super V> action) {
+    use(index -> {
+      index.forEach(key, action);
+      return null;
+    });
+  }
+
+  @Override
+  public void parallelForEach(I key, BiConsumer<? super K, ? super V> action) {
+    use(index -> {
+      index.parallelForEach(key, action);
+      return null;
+    });
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream(I key) {
+    return use(index -> index.stream(key));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream(I key) {
+    return use(index -> index.parallelStream(key));
+  }
+
+  @Override
+  public Stream<K> keys(I key) {
+    return use(index -> index.keys(key));
+  }
+
+  @Override
+  public Stream<V> values(I key) {
+    return use(index -> index.values(key));
+  }
+
+  @Override
+  public Optional<V> findAny(I key) {
+    return use(index -> index.findAny(key));
+  }
+
+  @Override
+  public IndexStatistics statistics() {
+    return use(Index::statistics);
+  }
+
+  @Override
+  public Subscription subscribe(I key, ChangeListener<K, V> listener, Executor executor) {
+    pin();
+    return use(index -> index.subscribe(key, listener, executor));
+  }
+
+  @Override
+  public <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator) {
+    pin();
+    return use(index -> index.aggregate(aggregator));
+  }
+
+  private void pin() {
+    withLock(lock.writeLock(), () -> pinned = true);
+  }
+
+  @Override
+  public void drop() {
+    withLock(lock.writeLock(), () -> {
+      checkNotDropped();
+      if (index != null) {
+        index.drop();
+        index = null;
+      }
+      dropped = true;
+      return null;
+    });
+  }
+
+}
@@ -0,0 +1,90 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+
+/**
+ * Evicts the least frequently used key. Keys are held in a list for each use
+ * count, in the order they reached that count, so that adding, accessing and
+ * evicting keys are all constant time. The most recently added key is kept
+ * aside until the next is added, as with the lowest count, it would otherwise
+ * always be evicted before it could be used.
+ */
+class LfuPolicy<K> implements EvictionPolicy<K> {
+
+  private final Map<K, Long> counts = new HashMap<>();
+  private final Map<Long, Set<K>> byCount = new HashMap<>();
+  private long minimum = 1;
+
+  private K newest = null;
+  private long newestCount = 0;
+
+  @Override
+  public void add(K key) {
+    if (newest != null) {
+      link(newest, newestCount);
+    }
+    newest = key;
+    newestCount = 1;
+  }
+
+  @Override
+  public void access(K key) {
+    if (key.equals(newest)) {
+      newestCount++;
+      return;
+    }
+    Long count = counts.get(key);
+    if (count == null) {
+      return;
+    }
+    unlink(key, count);
+    link(key, count + 1);
+    if (count == minimum && !byCount.containsKey(count)) {
+      minimum = count + 1;
+    }
+  }
+
+  @Override
+  public void remove(K key) {
+    if (key.equals(newest)) {
+      newest = null;
+      return;
+    }
+    Long count = counts.remove(key);
+    if (count != null) {
+      unlink(key, count);
+    }
+  }
+
+  private void link(K key, long count) {
+    counts.put(key, count);
+    byCount.computeIfAbsent(count, c -> new LinkedHashSet<>()).add(key);
+    minimum = Math.min(minimum, count);
+  }
+
+  private void unlink(K key, long count) {
+    Set<K> keys = byCount.get(count);
+    keys.remove(key);
+    if (keys.isEmpty()) {
+      byCount.remove(count);
+    }
+  }
+
+  /**
+   * Removing the only keys with the minimum count leaves the minimum unknown,
+   * in which case it is found again from the remaining counts.
+   */
+  @Override
+  public K victim() {
+    if (counts.isEmpty()) {
+      return newest;
+    }
+    if (!byCount.containsKey(minimum)) {
+      minimum = Collections.min(byCount.keySet());
+    }
+    return byCount.get(minimum).iterator().next();
+  }
+
+}
@@ -0,0 +1,24 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * Loads values missing from a map from a backing store, see
+ * {@link IndexedMapBuilder#readThrough(Loader)}.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+@FunctionalInterface
+public interface Loader<K, V> {
+
+  /**
+   * Called at most once at a time for each key, with other reads of the same
+   * key waiting for the result. Any exception is thrown to every reader
+   * waiting for the key, and the key is loaded again on the next read.
+   *
+   * @return value of the key, or null if the store has no value for it.
+   */
+  V load(K key);
+
+}
@@ -0,0 +1,223 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An {@link Index} of a {@link LockedIndexedMap}, which performs lookups under
+ * the map's read lock, and drops the index under the write lock.
+ */
+class LockedIndex<I, K, V> implements Index<I, K, V> {
+
+  private final Index<I, K, V> index;
+  private final Lock readLock;
+  private final Lock writeLock;
+  private final LongSupplier version;
+  private volatile boolean dropped = false;
+
+  LockedIndex(Index<I, K, V> index, Lock readLock, Lock writeLock, LongSupplier version) {
+    this.index = index;
+    this.readLock = readLock;
+    this.writeLock = writeLock;
+    this.version = version;
+  }
+
+  /**
+   * A lazy view of the entries, which looks up the entries under lock each
+   * time it is used.
+   */
+  @Override
+  public Map<K, V> apply(I key) {
+    checkNotDropped();
+    return new LockedMapView<>(readLock, version, () -> index.apply(key));
+  }
+
+  @Override
+  public int count(I key) {
+    readLock.lock();
+    try {
+      return index.count(key);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(I key) {
+    readLock.lock();
+    try {
+      return index.contains(key);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsAll(Iterable<? extends I> keys) {
+    readLock.lock();
+    try {
+      return index.containsAll(keys);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsAny(Iterable<? extends I> keys) {
+    readLock.lock();
+    try {
+      return index.containsAny(keys);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Set<I> distinctKeys() {
+    checkNotDropped();
+    return Collections.unmodifiableSet(
+          new LockedSetView<>(readLock, version, index::distinctKeys));
+  }
+
+  @Override
+  public void forEach(I key, BiConsumer<? super K, ? super V> action) {
+    readLock.lock();
+    try {
+      index.forEach(key, action);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public void parallelForEach(I key, BiConsumer<? super K, ? super V> action) {
+    // As per LockedIndexedMap, each worker thread locks for its own chunk
+    Objects.requireNonNull(action);
+    parallelStream(key).forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream(I key) {
+    checkNotDropped();
+    return StreamSupport.stream(spliterator(() -> index.apply(key).entrySet().spliterator()), false);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream(I key) {
+    checkNotDropped();
+    return StreamSupport.stream(spliterator(() -> index.apply(key).entrySet().spliterator()), true);
+  }
+
+  @Override
+  public Stream<K> keys(I key) {
+    checkNotDropped();
+    return StreamSupport.stream(spliterator(() -> index.apply(key).keySet().spliterator()), false);
+  }
+
+  @Override
+  public Stream<V> values(I key) {
+    checkNotDropped();
+    return StreamSupport.stream(spliterator(() -> index.apply(key).values().spliterator()), false);
+  }
+
+  /**
+   * Views and streams only use the index lazily, so fail fast here instead.
+   */
+  private void checkNotDropped() {
+    if (dropped) {
+      throw new IllegalStateException("Index has been dropped");
+    }
+  }
+
+  private <T> Spliterator<T> spliterator(Supplier<Spliterator<T>> source) {
+    return new LockedSpliterator<>(readLock, version, source);
+  }
+
+  @Override
+  public Optional<V> findAny(I key) {
+    readLock.lock();
+    try {
+      return index.findAny(key);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public IndexStatistics statistics() {
+    readLock.lock();
+    try {
+      return index.statistics();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Subscription subscribe(I key, ChangeListener<K, V> listener, Executor executor) {
+    readLock.lock();
+    try {
+      return index.subscribe(key, listener, executor);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * The aggregate is created under the write lock, as it must be calculated
+   * and start being maintained without any writes in between.
+   */
+  @Override
+  public <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator) {
+    Aggregate<I, A> aggregate;
+    writeLock.lock();
+    try {
+      aggregate = index.aggregate(aggregator);
+    } finally {
+      writeLock.unlock();
+    }
+
+    return new Aggregate<I, A>() {
+      @Override
+      public A get(I key) {
+        readLock.lock();
+        try {
+          return aggregate.get(key);
+        } finally {
+          readLock.unlock();
+        }
+      }
+
+      @Override
+      public Map<I, A> asMap() {
+        return new LockedMapView<>(readLock, version, aggregate::asMap);
+      }
+    };
+  }
+
+  @Override
+  public void drop() {
+    writeLock.lock();
+    try {
+      index.drop();
+      dropped = true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+}
@@ -3,26 +3,49 @@
 package org.softpres.indexedmap;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An {@link IndexedMap} configured with a particular lock.
+ * <p/>
+ * The key, value and entry views are lazy views over the underlying map, which
+ * lock for each operation rather than copying the map, and fail fast if the map
+ * is changed while they are being iterated. Copying the views instead can be
+ * configured using {@link IndexedMapBuilder#copyViews(boolean)}.
  */
 class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
 
   private final IndexedMap<K, V> map;
   private final Lock readLock;
   private final Lock writeLock;
+  private final boolean copyViews;
+  private final LockedMapView<K, V> view;
+
+  /** Incremented on every write, for views to detect concurrent modification. */
+  private long version;
 
   LockedIndexedMap(IndexedMap<K, V> map, ReadWriteLock lockStrategy) {
+    this(map, lockStrategy, false);
+  }
+
+  /**
+   * @param copyViews whether the key, value and entry views should be copied
+   *                  under the read lock when requested, rather than being lazy.
+   */
+  LockedIndexedMap(IndexedMap<K, V> map, ReadWriteLock lockStrategy, boolean copyViews) {
     this.map = map;
     this.readLock = lockStrategy.readLock();
     this.writeLock = lockStrategy.writeLock();
+    this.copyViews = copyViews;
+    this.view = new LockedMapView<>(readLock, this::version, () -> map);
   }
 
   @Override
@@ -37,27 +60,66 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
 
   @Override
   public Optional<V> insert(K key, V value) {
-    return withLock(writeLock, () -> map.insert(key, value));
+    return withWriteLock(() -> map.insert(key, value));
   }
 
   @Override
   public V put(K key, V value) {
-    return withLock(writeLock, () -> map.put(key, value));
+    return withWriteLock(() -> map.put(key, value));
   }
 
   @Override
   public Optional<V> delete(K key) {
-    return withLock(writeLock, () -> map.delete(key));
+    return withWriteLock(() -> map.delete(key));
   }
 
   @Override
   public V remove(Object key) {
-    return withLock(writeLock, () -> map.remove(key));
+    return withWriteLock(() -> map.remove(key));
   }
 
   @Override
-  public <I> Function<I, Map<K, V>> addIndex(BiFunction<K, V, Iterable<I>> view) {
-    return withLock(writeLock, () -> map.addIndex(view));
+  public <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
+    Index<I, K, V> index = withWriteLock(() -> map.addIndex(view));
+    return new LockedIndex<>(index, readLock, writeLock, this::version);
+  }
+
+  @Override
+  public <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping) {
+    MaterializedView<K, R> materialized = withWriteLock(() -> map.materialize(mapping));
+    return new MaterializedView<K, R>() {
+      private volatile boolean dropped = false;
+
+      @Override
+      public Map<K, R> asMap() {
+        if (dropped) {
+          throw new IllegalStateException("View has been dropped");
+        }
+        return new LockedMapView<>(readLock, LockedIndexedMap.this::version, materialized::asMap);
+      }
+
+      @Override
+      public void drop() {
+        withWriteLock(() -> {
+          materialized.drop();
+          dropped = true;
+          return null;
+        });
+      }
+    };
+  }
+
+  private long version() {
+    return version;
+  }
+
+  /**
+   * Subscribes under the read lock, so that the subscription starts between
+   * writes rather than part way through one.
+   */
+  @Override
+  public Subscription subscribe(ChangeListener<K, V> listener, Executor executor) {
+    return withLock(readLock, () -> map.subscribe(listener, executor));
   }
 
   @Override
@@ -106,16 +168,29 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
   public void putAll(Map<? extends K, ? extends V> m) {
     writeLock.lock();
     try {
+      version++;
       map.putAll(m);
     } finally {
       writeLock.unlock();
     }
   }
 
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    writeLock.lock();
+    try {
+      version++;
+      map.putAll(m, parallel);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
   @Override
   public void clear() {
     writeLock.lock();
     try {
+      version++;
       map.clear();
     } finally {
       writeLock.unlock();
@@ -124,20 +199,32 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
 
   @Override
   public Set<K> keySet() {
-    return Collections.unmodifiableSet(
-          withLock(readLock, () -> new HashSet<>(map.keySet())));
+    if (copyViews) {
+      return Collections.unmodifiableSet(
+            withLock(readLock, () -> new HashSet<>(map.keySet())));
+    }
+    return view.keySet();
   }
 
   @Override
   public Collection<V> values() {
-    return Collections.unmodifiableCollection(
-          withLock(readLock, () -> new ArrayList<>(map.values())));
+    if (copyViews) {
+      return Collections.unmodifiableCollection(
+            withLock(readLock, () -> new ArrayList<>(map.values())));
+    }
+    return view.values();
   }
 
   @Override
   public Set<Entry<K, V>> entrySet() {
-    return Collections.unmodifiableSet(
-          withLock(readLock, () -> new HashSet<>(map.entrySet())));
+    if (copyViews) {
+      return Collections.unmodifiableSet(withLock(readLock, () -> {
+        Set<Entry<K, V>> copy = new HashSet<>();
+        map.forEach((k, v) -> copy.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+        return copy;
+      }));
+    }
+    return view.entrySet();
   }
 
   private <T> T withLock(Lock lock, Supplier<T> work) {
@@ -149,22 +236,32 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
     }
   }
 
+  private <T> T withWriteLock(Supplier<T> work) {
+    writeLock.lock();
+    try {
+      version++;
+      return work.get();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
 
   // Default methods
 
   @Override
   public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-    return withLock(writeLock, () -> map.compute(key, remappingFunction));
+    return withWriteLock(() -> map.compute(key, remappingFunction));
   }
 
   @Override
   public V computeIfAbsent(K key, Function<? super K, ? extends V> remappingFunction) {
-    return withLock(writeLock, () -> map.computeIfAbsent(key, remappingFunction));
+    return withWriteLock(() -> map.computeIfAbsent(key, remappingFunction));
   }
 
   @Override
   public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-    return withLock(writeLock, () -> map.computeIfPresent(key, remappingFunction));
+    return withWriteLock(() -> map.computeIfPresent(key, remappingFunction));
   }
 
   @Override
@@ -180,20 +277,44 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
     });
   }
 
+  @Override
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    // Each worker thread locks for the chunk of entries it traverses, rather
+    // than this thread holding the lock while waiting for them, so an action
+    // that reads the map cannot deadlock with a waiting writer
+    Objects.requireNonNull(action);
+    parallelStream().forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream() {
+    return StreamSupport.stream(entrySpliterator(), false);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream() {
+    return StreamSupport.stream(entrySpliterator(), true);
+  }
+
+  private Spliterator<Entry<K, V>> entrySpliterator() {
+    return new LockedSpliterator<>(readLock, this::version, () -> map.entrySet().spliterator());
+  }
+
   @Override
   public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-    return withLock(writeLock, () -> map.merge(key, value, remappingFunction));
+    return withWriteLock(() -> map.merge(key, value, remappingFunction));
   }
 
   @Override
   public V putIfAbsent(K key, V value) {
-    return withLock(writeLock, () -> map.putIfAbsent(key, value));
+    return withWriteLock(() -> map.putIfAbsent(key, value));
   }
 
   @Override
   public boolean remove(Object key, Object value) {
     writeLock.lock();
     try {
+      version++;
       return map.remove(key, value);
     } finally {
       writeLock.unlock();
@@ -204,6 +325,7 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
   public boolean replace(K key, V oldValue, V newValue) {
     writeLock.lock();
     try {
+      version++;
       return map.replace(key, oldValue, newValue);
     } finally {
       writeLock.unlock();
@@ -214,6 +336,7 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
   public V replace(K key, V value) {
     writeLock.lock();
     try {
+      version++;
       return map.replace(key, value);
     } finally {
       writeLock.unlock();
@@ -222,10 +345,21 @@ class LockedIndexedMap<K, V> implements IndexedMap<K, V> {
 
   @Override
   public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-    withLock(writeLock, () -> {
+    withWriteLock(() -> {
       map.replaceAll(function);
       return null;
     });
   }
 
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    writeLock.lock();
+    try {
+      version++;
+      map.replaceAll(function, parallel);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
 }
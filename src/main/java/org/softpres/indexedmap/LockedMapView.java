@@ -0,0 +1,144 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A read-only view of a map guarded by a lock, such as a {@link LockedIndexedMap}
+ * itself or one of its secondary index lookups. The underlying map is looked up
+ * under the lock on every call, so the view is never stale, and nothing is
+ * copied. Iteration of the view and its key, value and entry collections is
+ * performed using a {@link LockedSpliterator}, so fails fast if the map is
+ * changed part way through. Bulk operations such as forEach hold the lock for
+ * their duration instead.
+ */
+class LockedMapView<K, V> extends AbstractMap<K, V> {
+
+  private final Lock lock;
+  private final LongSupplier version;
+  private final Supplier<Map<K, V>> source;
+
+  LockedMapView(Lock lock, LongSupplier version, Supplier<Map<K, V>> source) {
+    this.lock = lock;
+    this.version = version;
+    this.source = source;
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return source.get().size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    lock.lock();
+    try {
+      return source.get().isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    lock.lock();
+    try {
+      return source.get().containsKey(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    lock.lock();
+    try {
+      return source.get().containsValue(value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public V get(Object key) {
+    lock.lock();
+    try {
+      return source.get().get(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    withLock(() -> source.get().forEach(action));
+  }
+
+  @Override
+  public Set<K> keySet() {
+    return Collections.unmodifiableSet(
+          new LockedSetView<>(lock, version, () -> source.get().keySet()));
+  }
+
+  @Override
+  public Collection<V> values() {
+    return Collections.unmodifiableCollection(new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        return Spliterators.iterator(spliterator());
+      }
+
+      @Override
+      public Spliterator<V> spliterator() {
+        return new LockedSpliterator<>(lock, version, () -> source.get().values().spliterator());
+      }
+
+      @Override
+      public void forEach(Consumer<? super V> action) {
+        withLock(() -> source.get().values().forEach(action));
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsValue(o);
+      }
+
+      @Override
+      public int size() {
+        return LockedMapView.this.size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return LockedMapView.this.isEmpty();
+      }
+    });
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return Collections.unmodifiableSet(
+          new LockedSetView<>(lock, version, () -> source.get().entrySet()));
+  }
+
+  private void withLock(Runnable work) {
+    lock.lock();
+    try {
+      work.run();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
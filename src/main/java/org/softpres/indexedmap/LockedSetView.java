@@ -0,0 +1,82 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A set view over a set guarded by a lock, following the same approach as
+ * {@link LockedMapView}. Modification is not prevented here, so the view should
+ * be wrapped using {@link java.util.Collections#unmodifiableSet(Set)}.
+ */
+class LockedSetView<E> extends AbstractSet<E> {
+
+  private final Lock lock;
+  private final LongSupplier version;
+  private final Supplier<Set<E>> source;
+
+  LockedSetView(Lock lock, LongSupplier version, Supplier<Set<E>> source) {
+    this.lock = lock;
+    this.version = version;
+    this.source = source;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  @Override
+  public Spliterator<E> spliterator() {
+    return new LockedSpliterator<>(lock, version, () -> source.get().spliterator());
+  }
+
+  @Override
+  public void forEach(Consumer<? super E> action) {
+    lock.lock();
+    try {
+      source.get().forEach(action);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    lock.lock();
+    try {
+      return source.get().contains(o);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return source.get().size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    lock.lock();
+    try {
+      return source.get().isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
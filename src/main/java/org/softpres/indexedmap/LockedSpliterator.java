@@ -0,0 +1,128 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Spliterator} over a structure guarded by a lock, which traverses
+ * the underlying spliterator without taking a copy. The lock is acquired for
+ * each call into the spliterator rather than for the lifetime of the traversal,
+ * so that a bulk traversal of a chunk holds the lock only once, and a split
+ * traversed in another thread locks from that thread.
+ * <p/>
+ * Writers are not blocked between calls, so the version of the guarded
+ * structure is checked on each call, failing with a
+ * {@link ConcurrentModificationException} if it has been changed since the
+ * traversal began.
+ */
+class LockedSpliterator<T> implements Spliterator<T> {
+
+  private final Lock lock;
+  private final LongSupplier version;
+  private Supplier<Spliterator<T>> source;
+  private Spliterator<T> spliterator;
+  private long expectedVersion;
+
+  /**
+   * @param lock lock guarding reads of the underlying structure.
+   * @param version version of the underlying structure, read under the lock.
+   * @param source supplies the underlying spliterator, called under the lock
+   *               on first use.
+   */
+  LockedSpliterator(Lock lock, LongSupplier version, Supplier<Spliterator<T>> source) {
+    this.lock = lock;
+    this.version = version;
+    this.source = source;
+  }
+
+  private LockedSpliterator(Lock lock, LongSupplier version, Spliterator<T> split, long expectedVersion) {
+    this.lock = lock;
+    this.version = version;
+    this.spliterator = split;
+    this.expectedVersion = expectedVersion;
+  }
+
+  /**
+   * Must be called under the lock. Binds to the underlying spliterator on
+   * first use, or checks the structure has not been changed since.
+   */
+  private Spliterator<T> spliterator() {
+    if (spliterator == null) {
+      spliterator = source.get();
+      expectedVersion = version.getAsLong();
+      source = null;
+    } else if (version.getAsLong() != expectedVersion) {
+      throw new ConcurrentModificationException();
+    }
+    return spliterator;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    lock.lock();
+    try {
+      return spliterator().tryAdvance(action);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super T> action) {
+    lock.lock();
+    try {
+      spliterator().forEachRemaining(action);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Spliterator<T> trySplit() {
+    lock.lock();
+    try {
+      Spliterator<T> split = spliterator().trySplit();
+      return split == null ? null : new LockedSpliterator<>(lock, version, split, expectedVersion);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long estimateSize() {
+    lock.lock();
+    try {
+      return spliterator().estimateSize();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int characteristics() {
+    lock.lock();
+    try {
+      return spliterator().characteristics();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Comparator<? super T> getComparator() {
+    lock.lock();
+    try {
+      return spliterator().getComparator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts the least recently used key, using the access order of a
+ * {@link LinkedHashMap}.
+ */
+class LruPolicy<K> implements EvictionPolicy<K> {
+
+  private final Map<K, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+  @Override
+  public void add(K key) {
+    keys.put(key, Boolean.TRUE);
+  }
+
+  @Override
+  public void access(K key) {
+    keys.get(key);
+  }
+
+  @Override
+  public void remove(K key) {
+    keys.remove(key);
+  }
+
+  @Override
+  public K victim() {
+    return eldest(keys);
+  }
+
+  /**
+   * @return least recently used key of an access ordered map, or null if empty.
+   */
+  static <K> K eldest(Map<K, ?> keys) {
+    Iterator<K> iterator = keys.keySet().iterator();
+    return iterator.hasNext() ? iterator.next() : null;
+  }
+
+}
@@ -0,0 +1,145 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Processes operations against the IndexedMap using optimistic concurrency, so
+ * that operations, which may include long-running application processing, are
+ * performed without holding any lock.
+ * <p/>
+ * An operation is given a read-only view of the map, which records the keys it
+ * reads, and it describes its changes in an {@link OperationResult}. The
+ * changes are then committed under a lock, but only if no other operation has
+ * committed a change to any of the keys read or changed since the operation
+ * started. Otherwise, the operation conflicts and is performed again. Once an
+ * operation has been committed, its side effect is run using the executor.
+ * <p/>
+ * Versions are kept for stripes of keys rather than for each key, so that they
+ * take a fixed amount of memory, which means changes to an unrelated key in the
+ * same stripe may occasionally cause a conflict. Reading the whole map, such as
+ * by iterating it, conflicts with any other change. Lookups through secondary
+ * indices are not recorded, so keys of interest should be read using
+ * {@link IndexedMap#select(Object)} to be protected.
+ * <p/>
+ * All changes to the map must be made through the processor, and where
+ * operations are performed from multiple threads, the map must be configured
+ * with a locking strategy.
+ */
+public class MapProcessor<K, V> {
+
+  private static final int stripes = 1024;
+  private static final int defaultMaxAttempts = 10;
+
+  private final IndexedMap<K, V> map;
+  private final Executor executor;
+  private final int maxAttempts;
+  private final Lock commitLock = new ReentrantLock();
+
+  /** The version of each stripe of keys, only accessed under the commit lock. */
+  private final long[] versions = new long[stripes];
+
+  /** The version of the most recent commit. */
+  private volatile long version;
+
+  public MapProcessor(IndexedMap<K, V> map, Executor executor) {
+    this(map, executor, defaultMaxAttempts);
+  }
+
+  /**
+   * @param maxAttempts number of times an operation is attempted before giving
+   *                    up on it when it continues to conflict.
+   */
+  public MapProcessor(IndexedMap<K, V> map, Executor executor, int maxAttempts) {
+    this.map = Objects.requireNonNull(map);
+    this.executor = Objects.requireNonNull(executor);
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+  }
+
+  public <R> R query(Query<K, V, R> query) {
+    return query.execute(new UnmodifiableIndexedMap<>(map));
+  }
+
+  /**
+   * Perform the operation, and commit its changes if it did not conflict with
+   * any other operation, retrying if it did. Any exception thrown by the
+   * operation is propagated, without any changes being made.
+   *
+   * @throws ConcurrentModificationException if the operation still conflicted
+   * after the maximum number of attempts.
+   */
+  public void execute(Operation<K, V> operation) {
+    for (int attempt = 0; attempt < maxAttempts; attempt++) {
+      long start = version;
+      ReadTrackingIndexedMap<K, V> reads = new ReadTrackingIndexedMap<>(map);
+      OperationResult<K, V> result = operation.operate(reads);
+
+      if (commit(start, reads, result)) {
+        runSideEffect(result);
+        return;
+      }
+    }
+    throw new ConcurrentModificationException(
+          "Operation conflicted on each of " + maxAttempts + " attempts");
+  }
+
+  private boolean commit(long start, ReadTrackingIndexedMap<K, V> reads, OperationResult<K, V> result) {
+    commitLock.lock();
+    try {
+      if (conflicts(start, reads, result)) {
+        return false;
+      }
+
+      result.update(map);
+
+      long next = version + 1;
+      for (K key : result.keys()) {
+        versions[stripe(key)] = next;
+      }
+      // Only published once the map has been changed, so any operation that
+      // starts part way through a commit will conflict with it
+      version = next;
+      return true;
+    } finally {
+      commitLock.unlock();
+    }
+  }
+
+  private boolean conflicts(long start, ReadTrackingIndexedMap<K, V> reads, OperationResult<K, V> result) {
+    if (version == start) {
+      return false;
+    }
+    if (reads.readAll()) {
+      return true;
+    }
+    for (Object key : reads.keys()) {
+      if (versions[stripe(key)] > start) {
+        return true;
+      }
+    }
+    for (K key : result.keys()) {
+      if (versions[stripe(key)] > start) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int stripe(Object key) {
+    int h = key.hashCode();
+    return (h ^ (h >>> 16)) & (stripes - 1);
+  }
+
+  private void runSideEffect(OperationResult<K, V> result) {
+    executor.execute(result.sideEffect());
+  }
+
+}
@@ -2,10 +2,12 @@
 
 package org.softpres.indexedmap;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * Functions used across map implementations.
@@ -19,13 +21,26 @@ class MapSupport {
         Map<K, V> map,
         BiFunction<? super K, ? super V, ? extends V> function) {
 
-    // Not exactly optimal, but good enough for now
-    Set<Map.Entry<K, V>> entries = new HashSet<>(map.entrySet());
-    for (Map.Entry<K, V> entry : entries) {
-      K key = entry.getKey();
-      V value = entry.getValue();
-      V newValue = function.apply(key, value);
-      map.put(key, newValue);
+    // The map cannot be changed while iterating, so collect the replacements
+    // first, avoiding the hashing a copy of the entries into a set would need
+    List<K> keys = new ArrayList<>(map.size());
+    List<V> values = new ArrayList<>(map.size());
+    map.forEach((key, value) -> {
+      keys.add(key);
+      values.add(function.apply(key, value));
+    });
+
+    for (int i = 0; i < keys.size(); i++) {
+      map.put(keys.get(i), values.get(i));
+    }
+  }
+
+  static <R> R withLock(Lock lock, Supplier<R> supplier) {
+    lock.lock();
+    try {
+      return supplier.get();
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -0,0 +1,33 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Map;
+
+/**
+ * A materialized view of an {@link IndexedMap}, as returned from
+ * {@link IndexedMap#materialize(java.util.function.BiFunction)}, holding a
+ * value derived from each entry, which is kept up-to-date as the map changes.
+ * <p/>
+ * Once a view has been dropped with {@link #drop()}, it is no longer
+ * maintained, and {@link #asMap()} throws {@link IllegalStateException}.
+ *
+ * @param <K> type of key.
+ * @param <R> type of derived value.
+ */
+public interface MaterializedView<K, R> {
+
+  /**
+   * @return read-only map of keys to derived values, which reflects later
+   * changes to the map until the view is dropped.
+   */
+  Map<K, R> asMap();
+
+  /**
+   * Remove this view from the map, so it no longer needs to be maintained
+   * when the map is changed, and release the memory it used. Maps previously
+   * returned by {@link #asMap()} should no longer be used.
+   */
+  void drop();
+
+}
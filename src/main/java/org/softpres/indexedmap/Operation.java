@@ -0,0 +1,20 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * An operation to be performed on an IndexedMap by a {@link MapProcessor}.
+ * Changes to the map should be described by calling operations on
+ * OperationResult rather than by changing the map directly, which is read-only.
+ * Any indices required by an operation implementation should be injected in
+ * via the constructor.
+ * <p/>
+ * An operation may be performed more than once if it conflicts with another,
+ * so should not have effects of its own other than through the result.
+ */
+@FunctionalInterface
+public interface Operation<K, V> {
+
+  OperationResult<K, V> operate(IndexedMap<K, V> map);
+
+}
@@ -0,0 +1,65 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of an operation on an IndexedMap, recording the changes to be
+ * made to the map in order, and a side effect to be run once they have been.
+ */
+public class OperationResult<K, V> {
+
+  private final List<K> keys = new ArrayList<>();
+  private final List<V> values = new ArrayList<>();
+  private Runnable sideEffect = () -> {};
+
+  public static <K, V> OperationResult<K, V> empty() {
+    return new OperationResult<>();
+  }
+
+  public OperationResult<K, V> inserted(K key, V value) {
+    keys.add(Objects.requireNonNull(key));
+    values.add(Objects.requireNonNull(value));
+    return this;
+  }
+
+  public OperationResult<K, V> deleted(K key) {
+    keys.add(Objects.requireNonNull(key));
+    values.add(null);
+    return this;
+  }
+
+  public OperationResult<K, V> withSideEffect(Runnable runnable) {
+    sideEffect = Objects.requireNonNull(runnable);
+    return this;
+  }
+
+  /**
+   * @return keys of all changes, in order, possibly with repeats.
+   */
+  List<K> keys() {
+    return keys;
+  }
+
+  /**
+   * Play changes (in order) back on the map.
+   */
+  void update(IndexedMap<K, V> map) {
+    for (int i = 0; i < keys.size(); i++) {
+      V value = values.get(i);
+      if (value == null) {
+        map.delete(keys.get(i));
+      } else {
+        map.insert(keys.get(i), value);
+      }
+    }
+  }
+
+  public Runnable sideEffect() {
+    return sideEffect;
+  }
+
+}
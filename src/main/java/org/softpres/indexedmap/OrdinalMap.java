@@ -0,0 +1,330 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * A map that gives each entry a dense int ordinal, and holds the keys and
+ * values in arrays indexed by ordinal, for use as the primary map of an
+ * {@link IndexedHashMap}, see {@link IndexedMapBuilder#ordinalStorage()}.
+ * Keys are found using an open addressing table of ordinals with linear
+ * probing, so there is no node object per entry, and iterating the entries
+ * scans the arrays in ordinal order. The secondary indices then hold the
+ * ordinals of their entries in compressed {@link Bitmap}s, rather than maps of
+ * the entries.
+ * <p/>
+ * An entry keeps its ordinal until it is removed, after which the ordinal is
+ * reused. So that the indices can still find the ordinal of an entry after
+ * removing it from the map, the ordinal of the last removed key is only
+ * released on the next change to the map.
+ */
+class OrdinalMap<K, V> extends AbstractMap<K, V> {
+
+  private Object[] keys = new Object[16];
+  private Object[] values = new Object[16];
+  private int[] hashes = new int[16];
+
+  /** Ordinal plus one of the entry in each slot, or zero where empty. */
+  private int[] table = new int[32];
+  private int size = 0;
+
+  /** Number of ordinals handed out, including those since removed. */
+  private int limit = 0;
+  private int[] free = new int[8];
+  private int freeCount = 0;
+  private int retired = -1;
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return ordinal of the key, or -1 if absent.
+   */
+  int ordinal(Object key) {
+    if (key == null) {
+      return -1;
+    }
+    int h = hash(key);
+    int mask = table.length - 1;
+    for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      int ordinal = entry - 1;
+      if (hashes[ordinal] == h && keys[ordinal].equals(key)) {
+        return ordinal;
+      }
+    }
+  }
+
+  /**
+   * @return ordinal of the key, including a key that was the last to be
+   * removed, or -1 if absent.
+   */
+  int ordinalOf(Object key) {
+    int ordinal = ordinal(key);
+    if (ordinal < 0 && retired >= 0 && keys[retired].equals(key)) {
+      return retired;
+    }
+    return ordinal;
+  }
+
+  @SuppressWarnings("unchecked")
+  K keyAt(int ordinal) {
+    return (K)keys[ordinal];
+  }
+
+  @SuppressWarnings("unchecked")
+  V valueAt(int ordinal) {
+    return (V)values[ordinal];
+  }
+
+  @Override
+  public V get(Object key) {
+    int ordinal = ordinal(key);
+    return ordinal < 0 ? null : valueAt(ordinal);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return ordinal(key) >= 0;
+  }
+
+  @Override
+  public V put(K key, V value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    release();
+
+    int ordinal = ordinal(key);
+    if (ordinal >= 0) {
+      V previous = valueAt(ordinal);
+      values[ordinal] = value;
+      return previous;
+    }
+
+    ordinal = allocate();
+    keys[ordinal] = key;
+    values[ordinal] = value;
+    hashes[ordinal] = hash(key);
+    if (++size * 2 > table.length) {
+      resize(table.length * 2);
+    }
+    insert(ordinal);
+    return null;
+  }
+
+  private int allocate() {
+    if (freeCount > 0) {
+      return free[--freeCount];
+    }
+    if (limit == keys.length) {
+      int capacity = limit * 2;
+      keys = Arrays.copyOf(keys, capacity);
+      values = Arrays.copyOf(values, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+    }
+    return limit++;
+  }
+
+  private void insert(int ordinal) {
+    int mask = table.length - 1;
+    int slot = hashes[ordinal] & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = ordinal + 1;
+  }
+
+  private void resize(int capacity) {
+    int[] old = table;
+    table = new int[capacity];
+    for (int entry : old) {
+      if (entry != 0) {
+        insert(entry - 1);
+      }
+    }
+  }
+
+  @Override
+  public V remove(Object key) {
+    release();
+    if (key == null) {
+      return null;
+    }
+
+    int h = hash(key);
+    int mask = table.length - 1;
+    int slot = h & mask;
+    for (; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) {
+        return null;
+      }
+      int ordinal = entry - 1;
+      if (hashes[ordinal] == h && keys[ordinal].equals(key)) {
+        break;
+      }
+    }
+
+    int ordinal = table[slot] - 1;
+    V previous = valueAt(ordinal);
+    values[ordinal] = null;
+    size--;
+    retired = ordinal;
+
+    // Shift back later entries of the probe sequence that may now be unreachable
+    table[slot] = 0;
+    for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+      int ideal = hashes[table[next] - 1] & mask;
+      if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+        table[slot] = table[next];
+        table[next] = 0;
+        slot = next;
+      }
+    }
+    return previous;
+  }
+
+  /** Release the ordinal of the last removed key for reuse. */
+  private void release() {
+    if (retired >= 0) {
+      keys[retired] = null;
+      if (freeCount == free.length) {
+        free = Arrays.copyOf(free, freeCount * 2);
+      }
+      free[freeCount++] = retired;
+      retired = -1;
+    }
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(keys, 0, limit, null);
+    Arrays.fill(values, 0, limit, null);
+    Arrays.fill(table, 0);
+    size = 0;
+    limit = 0;
+    freeCount = 0;
+    retired = -1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    for (int ordinal = 0; ordinal < limit; ordinal++) {
+      if (values[ordinal] != null) {
+        action.accept(keyAt(ordinal), valueAt(ordinal));
+      }
+    }
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new Iterator<Entry<K, V>>() {
+          private int next = advance(0);
+          private int current = -1;
+
+          private int advance(int from) {
+            while (from < limit && values[from] == null) {
+              from++;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next < limit;
+          }
+
+          @Override
+          public Entry<K, V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new OrdinalEntry(current);
+          }
+
+          @Override
+          public void remove() {
+            if (current < 0) {
+              throw new IllegalStateException();
+            }
+            OrdinalMap.this.remove(keys[current]);
+            current = -1;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Entry of the map, which reads and writes the arrays directly, so stays
+   * valid while the entry is in the map.
+   */
+  private class OrdinalEntry implements Entry<K, V> {
+    private final int ordinal;
+
+    OrdinalEntry(int ordinal) {
+      this.ordinal = ordinal;
+    }
+
+    @Override
+    public K getKey() {
+      return keyAt(ordinal);
+    }
+
+    @Override
+    public V getValue() {
+      return valueAt(ordinal);
+    }
+
+    @Override
+    public V setValue(V value) {
+      Objects.requireNonNull(value);
+      V previous = valueAt(ordinal);
+      values[ordinal] = value;
+      return previous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> other = (Entry<?, ?>)o;
+      return getKey().equals(other.getKey()) && getValue().equals(other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return getKey().hashCode() ^ getValue().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+}
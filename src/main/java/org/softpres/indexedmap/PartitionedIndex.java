@@ -0,0 +1,293 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An {@link Index} of a {@link PartitionedIndexedMap}, made up of the same
+ * index on each partition. Queries are scattered to the index of every
+ * partition and the results gathered, where lookups of entries are gathered
+ * lazily into a {@link PartitionedMapView}.
+ */
+class PartitionedIndex<I, K, V> implements Index<I, K, V> {
+
+  private final List<Index<I, K, V>> indices;
+  private final ToIntFunction<Object> partition;
+
+  PartitionedIndex(List<Index<I, K, V>> indices, ToIntFunction<Object> partition) {
+    this.indices = indices;
+    this.partition = partition;
+  }
+
+  @Override
+  public Map<K, V> apply(I key) {
+    List<Map<K, V>> lookups = new ArrayList<>(indices.size());
+    for (Index<I, K, V> index : indices) {
+      lookups.add(index.apply(key));
+    }
+    return new PartitionedMapView<>(lookups, partition);
+  }
+
+  @Override
+  public int count(I key) {
+    int count = 0;
+    for (Index<I, K, V> index : indices) {
+      count += index.count(key);
+    }
+    return count;
+  }
+
+  @Override
+  public boolean contains(I key) {
+    for (Index<I, K, V> index : indices) {
+      if (index.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean containsAll(Iterable<? extends I> keys) {
+    for (I key : keys) {
+      if (!contains(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean containsAny(Iterable<? extends I> keys) {
+    for (Index<I, K, V> index : indices) {
+      if (index.containsAny(keys)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The same secondary key may have entries in several partitions, so the
+   * keys are gathered into a set when iterated.
+   */
+  @Override
+  public Set<I> distinctKeys() {
+    return Collections.unmodifiableSet(new AbstractSet<I>() {
+      @Override
+      public Iterator<I> iterator() {
+        return union().iterator();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        for (Index<I, K, V> index : indices) {
+          if (index.distinctKeys().contains(o)) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public int size() {
+        return union().size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        for (Index<I, K, V> index : indices) {
+          if (!index.distinctKeys().isEmpty()) {
+            return false;
+          }
+        }
+        return true;
+      }
+    });
+  }
+
+  private Set<I> union() {
+    Set<I> keys = new HashSet<>();
+    for (Index<I, K, V> index : indices) {
+      keys.addAll(index.distinctKeys());
+    }
+    return keys;
+  }
+
+  @Override
+  public void forEach(I key, BiConsumer<? super K, ? super V> action) {
+    for (Index<I, K, V> index : indices) {
+      index.forEach(key, action);
+    }
+  }
+
+  @Override
+  public void parallelForEach(I key, BiConsumer<? super K, ? super V> action) {
+    indices.parallelStream().forEach(index -> index.forEach(key, action));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream(I key) {
+    return indices.stream().flatMap(index -> index.stream(key));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream(I key) {
+    return indices.parallelStream().flatMap(index -> index.stream(key));
+  }
+
+  @Override
+  public Stream<K> keys(I key) {
+    return indices.stream().flatMap(index -> index.keys(key));
+  }
+
+  @Override
+  public Stream<V> values(I key) {
+    return indices.stream().flatMap(index -> index.values(key));
+  }
+
+  @Override
+  public Optional<V> findAny(I key) {
+    for (Index<I, K, V> index : indices) {
+      Optional<V> found = index.findAny(key);
+      if (found.isPresent()) {
+        return found;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Secondary keys may have entries in several partitions, so the counts are
+   * gathered for each distinct key, rather than combining the statistics of
+   * each partition.
+   */
+  @Override
+  public IndexStatistics statistics() {
+    Set<I> keys = union();
+    long entries = 0;
+    int maxCount = 0;
+    for (I key : keys) {
+      int count = count(key);
+      entries += count;
+      maxCount = Math.max(maxCount, count);
+    }
+    return new IndexStatistics(keys.size(), entries, maxCount);
+  }
+
+  /**
+   * Where the aggregator cannot combine aggregates, nothing is maintained for
+   * each partition, as only the entries of the key are used on lookup.
+   */
+  @Override
+  public <A> Aggregate<I, A> aggregate(Aggregator<? super V, A> aggregator) {
+    List<Aggregate<I, A>> aggregates = null;
+    if (aggregator.isCombinable()) {
+      aggregates = indices.stream()
+            .map(index -> index.aggregate(aggregator))
+            .collect(Collectors.toList());
+    }
+    return new PartitionedAggregate<>(aggregator, aggregates);
+  }
+
+  /**
+   * Changes are delivered separately for each partition, so calls to the
+   * listener are serialised here to keep to the contract of
+   * {@link ChangeListener}, unless it is a {@link ConcurrentChangeListener}.
+   * As each key belongs to one partition, the changes for a key are still
+   * delivered in order.
+   */
+  @Override
+  public Subscription subscribe(I key, ChangeListener<K, V> listener, Executor executor) {
+    ChangeListener<K, V> serialised = PartitionedIndexedMap.serialise(listener);
+    List<Subscription> subscriptions = new ArrayList<>(indices.size());
+    for (Index<I, K, V> index : indices) {
+      subscriptions.add(index.subscribe(key, serialised, executor));
+    }
+    return () -> subscriptions.forEach(Subscription::cancel);
+  }
+
+  @Override
+  public void drop() {
+    indices.forEach(Index::drop);
+  }
+
+  /**
+   * Each partition is aggregated separately, and the aggregates combined on
+   * lookup. Where the aggregator is not {@link Aggregator#isCombinable()},
+   * the entries of the key are instead aggregated from scratch on each lookup.
+   */
+  private class PartitionedAggregate<A> implements Aggregate<I, A> {
+    private final Aggregator<? super V, A> aggregator;
+    private final List<Aggregate<I, A>> aggregates;
+
+    /**
+     * @param aggregates aggregate of each partition, or null where they
+     * cannot be combined.
+     */
+    PartitionedAggregate(Aggregator<? super V, A> aggregator, List<Aggregate<I, A>> aggregates) {
+      this.aggregator = aggregator;
+      this.aggregates = aggregates;
+    }
+
+    @Override
+    public A get(I key) {
+      return aggregates == null ? recalculate(key) : combine(key);
+    }
+
+    private A combine(I key) {
+      A result = aggregator.identity();
+      for (Aggregate<I, A> aggregate : aggregates) {
+        result = aggregator.combine(result, aggregate.get(key));
+      }
+      return result;
+    }
+
+    private A recalculate(I key) {
+      A result = aggregator.identity();
+      for (Index<I, K, V> index : indices) {
+        for (V value : index.apply(key).values()) {
+          result = aggregator.add(result, value);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Only secondary keys with entries are included, as per the aggregates of
+     * each partition, and iteration combines the aggregates of every key.
+     */
+    @Override
+    public Map<I, A> asMap() {
+      return Collections.unmodifiableMap(new AbstractMap<I, A>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public A get(Object key) {
+          return containsKey(key) ? PartitionedAggregate.this.get((I)key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+          return distinctKeys().contains(key);
+        }
+
+        @Override
+        public Set<Entry<I, A>> entrySet() {
+          Map<I, A> combined = new HashMap<>();
+          for (I key : union()) {
+            combined.put(key, PartitionedAggregate.this.get(key));
+          }
+          return combined.entrySet();
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,298 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An {@link IndexedMap} that hash partitions its keys over a number of
+ * independent maps, each with its own lock, so that writes to different
+ * partitions do not contend with each other. Operations on a key go straight
+ * to its partition, and secondary indices are added to every partition, with
+ * lookups scattered to each and gathered lazily.
+ * <p/>
+ * Each partition is only consistent with itself, so operations spanning the
+ * whole map, such as {@link #replaceAll(BiFunction)} or {@link #clear()}, are
+ * applied to each partition in turn, and may be seen part way through.
+ */
+class PartitionedIndexedMap<K, V> implements IndexedMap<K, V> {
+
+  private final List<IndexedMap<K, V>> partitions;
+  private final PartitionedMapView<K, V> view;
+
+  PartitionedIndexedMap(List<IndexedMap<K, V>> partitions) {
+    this.partitions = partitions;
+    this.view = new PartitionedMapView<>(partitions, this::partition);
+  }
+
+  private int partition(Object key) {
+    int h = key.hashCode();
+    return Math.floorMod(h ^ (h >>> 16), partitions.size());
+  }
+
+  private IndexedMap<K, V> partitionOf(Object key) {
+    return partitions.get(partition(Objects.requireNonNull(key)));
+  }
+
+  /**
+   * Serialise calls to a listener that is subscribed to several partitions,
+   * which would otherwise be delivered to concurrently, unless it is a
+   * {@link ConcurrentChangeListener}, so writes to different partitions do not
+   * contend on it.
+   */
+  static <K, V> ChangeListener<K, V> serialise(ChangeListener<K, V> listener) {
+    Objects.requireNonNull(listener);
+    if (listener instanceof ConcurrentChangeListener) {
+      return listener;
+    }
+    return new ChangeListener<K, V>() {
+      @Override
+      public synchronized void changed(List<Change<K, V>> changes) {
+        listener.changed(changes);
+      }
+    };
+  }
+
+  @Override
+  public Optional<V> select(K key) {
+    return partitionOf(key).select(key);
+  }
+
+  @Override
+  public Optional<V> insert(K key, V value) {
+    return partitionOf(key).insert(key, value);
+  }
+
+  @Override
+  public Optional<V> delete(K key) {
+    return partitionOf(key).delete(key);
+  }
+
+  @Override
+  public <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
+    List<Index<I, K, V>> indices = partitions.stream()
+          .map(partition -> partition.addIndex(view))
+          .collect(Collectors.toList());
+    return new PartitionedIndex<>(indices, this::partition);
+  }
+
+  @Override
+  public <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping) {
+    List<MaterializedView<K, R>> views = partitions.stream()
+          .map(partition -> partition.<R>materialize(mapping))
+          .collect(Collectors.toList());
+    return new MaterializedView<K, R>() {
+      @Override
+      public Map<K, R> asMap() {
+        return new PartitionedMapView<>(views.stream()
+              .map(MaterializedView::asMap)
+              .collect(Collectors.toList()), PartitionedIndexedMap.this::partition);
+      }
+
+      @Override
+      public void drop() {
+        views.forEach(MaterializedView::drop);
+      }
+    };
+  }
+
+  /**
+   * Calls to the listener are serialised, as per
+   * {@link PartitionedIndex#subscribe(Object, ChangeListener, Executor)}.
+   */
+  @Override
+  public Subscription subscribe(ChangeListener<K, V> listener, Executor executor) {
+    ChangeListener<K, V> serialised = serialise(listener);
+    List<Subscription> subscriptions = partitions.stream()
+          .map(partition -> partition.subscribe(serialised, executor))
+          .collect(Collectors.toList());
+    return () -> subscriptions.forEach(Subscription::cancel);
+  }
+
+  @Override
+  public int size() {
+    return view.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return view.isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return partitionOf(key).containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (IndexedMap<K, V> partition : partitions) {
+      if (partition.containsValue(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public V get(Object key) {
+    return partitionOf(key).get(key);
+  }
+
+  @Override
+  public V put(K key, V value) {
+    return partitionOf(key).put(key, value);
+  }
+
+  @Override
+  public V remove(Object key) {
+    return partitionOf(key).remove(key);
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    m.forEach(this::put);
+  }
+
+  /**
+   * The entries are split by partition, and each partition is written as a
+   * batch under its own lock. When parallel, the partitions are also written
+   * in parallel. A batch containing a null value is still written to the
+   * partitions that do not hold it.
+   */
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    List<Map<K, V>> batches = new ArrayList<>(partitions.size());
+    for (int i = 0; i < partitions.size(); i++) {
+      batches.add(new HashMap<>());
+    }
+    m.forEach((key, value) -> batches.get(partition(Objects.requireNonNull(key))).put(key, value));
+
+    IntStream range = IntStream.range(0, partitions.size());
+    (parallel ? range.parallel() : range).forEach(i -> {
+      if (!batches.get(i).isEmpty()) {
+        partitions.get(i).putAll(batches.get(i), parallel);
+      }
+    });
+  }
+
+  @Override
+  public void clear() {
+    partitions.forEach(IndexedMap::clear);
+  }
+
+  @Override
+  public Set<K> keySet() {
+    return Collections.unmodifiableSet(view.keySet());
+  }
+
+  @Override
+  public Collection<V> values() {
+    return Collections.unmodifiableCollection(view.values());
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return Collections.unmodifiableSet(view.entrySet());
+  }
+
+
+  // Default methods
+
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return partitionOf(key).compute(key, remappingFunction);
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    return partitionOf(key).computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return partitionOf(key).computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    return partitionOf(key).getOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    partitions.forEach(partition -> partition.forEach(action));
+  }
+
+  /**
+   * Partitions are visited in parallel, each under its own lock.
+   */
+  @Override
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    partitions.parallelStream().forEach(partition -> partition.forEach(action));
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream() {
+    return partitions.stream().flatMap(IndexedMap::stream);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream() {
+    return partitions.parallelStream().flatMap(IndexedMap::stream);
+  }
+
+  @Override
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    return partitionOf(key).merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    return partitionOf(key).putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return partitionOf(key).remove(key, value);
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    return partitionOf(key).replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    return partitionOf(key).replace(key, value);
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+    replaceAll(function, false);
+  }
+
+  /**
+   * When parallel, partitions are replaced in parallel, each under its own
+   * lock. A function that throws leaves untouched only the partitions that had
+   * not yet been replaced.
+   */
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    Objects.requireNonNull(function);
+    if (parallel) {
+      partitions.parallelStream().forEach(partition -> partition.replaceAll(function, false));
+    } else {
+      partitions.forEach(partition -> partition.replaceAll(function, false));
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A read-only view over maps that each hold a distinct partition of the keys,
+ * such as the partitions of a {@link PartitionedIndexedMap}, or the secondary
+ * index lookups of each partition. Nothing is merged or copied up front: key
+ * lookups go straight to the partition the key belongs to, and iteration
+ * visits each partition in turn.
+ */
+class PartitionedMapView<K, V> extends AbstractMap<K, V> {
+
+  private final List<? extends Map<K, V>> partitions;
+  private final ToIntFunction<Object> partition;
+
+  /**
+   * @param partitions maps holding each partition of the keys.
+   * @param partition function from key to index of the partition it belongs to.
+   */
+  PartitionedMapView(List<? extends Map<K, V>> partitions, ToIntFunction<Object> partition) {
+    this.partitions = partitions;
+    this.partition = partition;
+  }
+
+  private Map<K, V> partitionOf(Object key) {
+    return partitions.get(partition.applyAsInt(key));
+  }
+
+  @Override
+  public V get(Object key) {
+    return partitionOf(key).get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return partitionOf(key).containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (Map<K, V> map : partitions) {
+      size += map.size();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Map<K, V> map : partitions) {
+      if (!map.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (Map<K, V> map : partitions) {
+      map.forEach(action);
+    }
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        Iterator<? extends Map<K, V>> maps = partitions.iterator();
+        return new Iterator<Entry<K, V>>() {
+          private Iterator<Entry<K, V>> current = Collections.emptyIterator();
+
+          @Override
+          public boolean hasNext() {
+            while (!current.hasNext() && maps.hasNext()) {
+              current = maps.next().entrySet().iterator();
+            }
+            return current.hasNext();
+          }
+
+          @Override
+          public Entry<K, V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return current.next();
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if (!(o instanceof Entry)) {
+          return false;
+        }
+        Object key = ((Entry<?, ?>)o).getKey();
+        return partitionOf(key).entrySet().contains(o);
+      }
+
+      @Override
+      public int size() {
+        return PartitionedMapView.this.size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return PartitionedMapView.this.isEmpty();
+      }
+    };
+  }
+
+}
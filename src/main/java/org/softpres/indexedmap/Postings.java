@@ -0,0 +1,163 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Arrays;
+
+/**
+ * A sorted list of ordinals, compressed by storing the gap from each ordinal
+ * to the one before as a variable-length integer, so that the small gaps of a
+ * common term take a single byte each. Ordinals can only be appended in
+ * ascending order.
+ * <p/>
+ * The ordinal before every block of {@value #SKIP} ordinals is kept along with
+ * the offset of the block, so a {@link Cursor} can skip straight to the block
+ * that may hold an ordinal, rather than decoding every ordinal before it,
+ * which keeps intersections with much shorter lists fast.
+ */
+class Postings {
+
+  static final int SKIP = 64;
+
+  private byte[] data = new byte[8];
+  private int length = 0;
+  private int size = 0;
+  private int last = -1;
+
+  private int[] skipOrdinals = new int[1];
+  private int[] skipOffsets = new int[1];
+  private int skips = 0;
+
+  /**
+   * @param ordinal ordinal greater than every ordinal already added.
+   */
+  void add(int ordinal) {
+    if (ordinal <= last) {
+      throw new IllegalArgumentException("Ordinal " + ordinal + " not after " + last);
+    }
+    if (size % SKIP == 0) {
+      if (skips == skipOrdinals.length) {
+        skipOrdinals = Arrays.copyOf(skipOrdinals, skips * 2);
+        skipOffsets = Arrays.copyOf(skipOffsets, skips * 2);
+      }
+      skipOrdinals[skips] = last;
+      skipOffsets[skips] = length;
+      skips++;
+    }
+    write(ordinal - last - 1);
+    last = ordinal;
+    size++;
+  }
+
+  private void write(int gap) {
+    if (length + 5 > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+    }
+    while ((gap & ~0x7F) != 0) {
+      data[length++] = (byte)((gap & 0x7F) | 0x80);
+      gap >>>= 7;
+    }
+    data[length++] = (byte)gap;
+  }
+
+  /**
+   * @return number of ordinals.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return greatest ordinal, or -1 if there are none.
+   */
+  int last() {
+    return last;
+  }
+
+  /**
+   * @return number of bytes used to hold the ordinals.
+   */
+  int bytes() {
+    return length;
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Iterates the ordinals in ascending order, starting before the first.
+   */
+  class Cursor {
+    private int index = 0;
+    private int offset = 0;
+    private int value = -1;
+
+    /**
+     * @return whether there was another ordinal to move to.
+     */
+    boolean next() {
+      if (index == size) {
+        return false;
+      }
+      int gap = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = data[offset++];
+        gap |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          break;
+        }
+      }
+      value += gap + 1;
+      index++;
+      return true;
+    }
+
+    /**
+     * @return current ordinal.
+     */
+    int value() {
+      return value;
+    }
+
+    /**
+     * Move to the first ordinal at or after the target, staying put if the
+     * current ordinal is already there.
+     *
+     * @return whether there was such an ordinal.
+     */
+    boolean advance(int target) {
+      if (index > 0 && value >= target) {
+        return true;
+      }
+      int block = skipBefore(target);
+      if (block * SKIP > index) {
+        index = block * SKIP;
+        offset = skipOffsets[block];
+        value = skipOrdinals[block];
+      }
+      while (next()) {
+        if (value >= target) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Find the last block that starts after an ordinal before the target. */
+    private int skipBefore(int target) {
+      int low = 0;
+      int high = skips - 1;
+      while (low < high) {
+        int mid = (low + high + 1) >>> 1;
+        if (skipOrdinals[mid] < target) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return low;
+    }
+  }
+
+}
@@ -0,0 +1,15 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * An query to be performed on an IndexedMap by a {@link MapProcessor}. Any
+ * indices required by an operation implementation should be injected in via
+ * the constructor.
+ */
+@FunctionalInterface
+public interface Query<K, V, R> {
+
+  R execute(IndexedMap<K, V> map);
+
+}
@@ -0,0 +1,215 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of a query made using {@link Index} lookups, keyed by the
+ * parameters of the query. While a query runs, the secondary keys it looks up
+ * in each index are recorded, and the result is invalidated as soon as a
+ * write adds, removes or replaces an entry for one of those keys, so a cached
+ * result is never stale, and results of queries that read other keys survive
+ * the write. Whole-index reads, such as {@link Index#distinctKeys()} or
+ * {@link Index#statistics()}, are invalidated by any change to the index.
+ * <p/>
+ * Only lookups using indices made while the query runs are tracked, not reads
+ * of the map itself, so a cached query must find everything it depends on
+ * through indices, and return a result computed from them rather than a lazy
+ * view of them. Results are shared between callers, so should not be
+ * modified, and null results are never cached.
+ *
+ * @param <P> type of query parameters.
+ * @param <R> type of query result.
+ */
+public class QueryCache<P, R> {
+
+  private static final ThreadLocal<Tracking> tracking = new ThreadLocal<>();
+  private static final AtomicInteger running = new AtomicInteger();
+
+  private final Function<? super P, ? extends R> query;
+  private final ConcurrentMap<P, R> results = new ConcurrentHashMap<>();
+  private final ConcurrentMap<P, Set<Dependency>> dependencies = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Dependency, Set<P>> dependents = new ConcurrentHashMap<>();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * @param query query to cache the results of, which must look up what it
+   *              depends on using indices.
+   */
+  public QueryCache(Function<? super P, ? extends R> query) {
+    this.query = Objects.requireNonNull(query);
+  }
+
+  /**
+   * @return cached result of the query for the parameters, or the result of
+   * running it if there is none.
+   */
+  public R get(P parameters) {
+    R result = results.get(parameters);
+    if (result != null) {
+      return result;
+    }
+
+    long before = invalidations.get();
+    Set<Dependency> read = new HashSet<>();
+    result = track(read, () -> query.apply(parameters));
+    if (result == null) {
+      return null;
+    }
+
+    dependencies.put(parameters, read);
+    for (Dependency dependency : read) {
+      dependents.computeIfAbsent(dependency, d -> ConcurrentHashMap.newKeySet()).add(parameters);
+    }
+
+    // Cached before checking for invalidations so that one made after the
+    // check always finds the result to remove. Each index was watched before
+    // it was read, so a write made since the read is counted in the check
+    results.put(parameters, result);
+    if (invalidations.get() != before) {
+      results.remove(parameters, result);
+    }
+    return result;
+  }
+
+  private <T> T track(Set<Dependency> read, Supplier<T> supplier) {
+    Tracking outer = tracking.get();
+    tracking.set(new Tracking(this, read, outer));
+    running.incrementAndGet();
+    try {
+      return supplier.get();
+    } finally {
+      running.decrementAndGet();
+      tracking.set(outer);
+    }
+  }
+
+  /**
+   * @return number of results cached.
+   */
+  public int size() {
+    return results.size();
+  }
+
+  /**
+   * Remove every cached result.
+   */
+  public void invalidateAll() {
+    invalidations.incrementAndGet();
+    results.clear();
+    dependencies.clear();
+    dependents.clear();
+  }
+
+  /**
+   * Record that the current thread is about to look up a secondary key of an
+   * index, if running a cached query, which must be called before the index
+   * is read so that a write made in the meantime invalidates the result. A
+   * cached query run from within another also depends on the same keys. This
+   * costs a single volatile read when no cached query is running.
+   *
+   * @param key secondary key, or null if the whole index was read.
+   */
+  static void read(Watched index, Object key) {
+    if (running.get() > 0) {
+      for (Tracking t = tracking.get(); t != null; t = t.outer) {
+        index.watch(t.cache);
+        t.read.add(new Dependency(index, key));
+      }
+    }
+  }
+
+  /**
+   * Invalidate results that looked up the secondary key, or that read the
+   * whole index.
+   */
+  void invalidate(Watched index, Object key) {
+    invalidations.incrementAndGet();
+    invalidate(new Dependency(index, key));
+    invalidate(new Dependency(index, null));
+  }
+
+  /**
+   * Invalidate all results that read anything from the index.
+   */
+  void invalidate(Watched index) {
+    invalidations.incrementAndGet();
+    for (Dependency dependency : dependents.keySet()) {
+      if (dependency.index == index) {
+        invalidate(dependency);
+      }
+    }
+  }
+
+  private void invalidate(Dependency dependency) {
+    Set<P> stale = dependents.remove(dependency);
+    if (stale == null) {
+      return;
+    }
+    for (P parameters : stale) {
+      results.remove(parameters);
+      Set<Dependency> others = dependencies.remove(parameters);
+      if (others != null) {
+        for (Dependency other : others) {
+          Set<P> shared = dependents.get(other);
+          if (shared != null) {
+            shared.remove(parameters);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * An index that notifies the query caches that have read from it of
+   * changes to its secondary keys.
+   */
+  interface Watched {
+    void watch(QueryCache<?, ?> cache);
+  }
+
+  /** The reads of a cached query running on the current thread. */
+  private static final class Tracking {
+    private final QueryCache<?, ?> cache;
+    private final Set<Dependency> read;
+    private final Tracking outer;
+
+    Tracking(QueryCache<?, ?> cache, Set<Dependency> read, Tracking outer) {
+      this.cache = cache;
+      this.read = read;
+      this.outer = outer;
+    }
+  }
+
+  private static final class Dependency {
+    private final Watched index;
+    private final Object key;
+
+    Dependency(Watched index, Object key) {
+      this.index = index;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Dependency)) {
+        return false;
+      }
+      Dependency other = (Dependency)o;
+      return index == other.index && Objects.equals(key, other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(index) * 31 + Objects.hashCode(key);
+    }
+  }
+
+}
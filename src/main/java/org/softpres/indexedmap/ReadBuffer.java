@@ -0,0 +1,93 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded buffer of events recorded by many threads without locking, such as
+ * reads of a key, and drained by one thread at a time. The buffer is striped
+ * by thread so that readers rarely contend, and is lossy: an event recorded
+ * while its stripe is full, or while racing another thread for the same slot,
+ * is dropped, which suits events that are only used as a sample.
+ */
+class ReadBuffer<E> {
+
+  private static final int STRIPE_SIZE = 16;
+  private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+  private final List<Stripe<E>> stripes;
+  private final int mask;
+
+  ReadBuffer() {
+    int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    stripes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      stripes.add(new Stripe<>());
+    }
+    mask = count - 1;
+  }
+
+  /**
+   * Record an event, unless the stripe of the current thread is full.
+   *
+   * @return whether the stripe is now full, so the buffer should be drained.
+   */
+  boolean record(E event) {
+    long id = Thread.currentThread().getId();
+    return stripes.get((int)(id ^ (id >>> 32)) & mask).offer(event);
+  }
+
+  /**
+   * Pass each recorded event to the consumer, which must only be called by
+   * one thread at a time.
+   */
+  void drain(Consumer<? super E> consumer) {
+    for (Stripe<E> stripe : stripes) {
+      stripe.drain(consumer);
+    }
+  }
+
+  private static class Stripe<E> {
+    private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    boolean offer(E event) {
+      long t = tail.get();
+      long size = t - head;
+      if (size >= STRIPE_SIZE) {
+        return true;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        slots.lazySet((int)(t & STRIPE_MASK), event);
+        return size + 1 >= STRIPE_SIZE;
+      }
+      return false;
+    }
+
+    /**
+     * Events are taken in order until reaching a slot that has been claimed
+     * but not yet written, which is left for the next drain.
+     */
+    void drain(Consumer<? super E> consumer) {
+      long h = head;
+      long t = tail.get();
+      for (; h < t; h++) {
+        int slot = (int)(h & STRIPE_MASK);
+        E event = slots.get(slot);
+        if (event == null) {
+          break;
+        }
+        slots.lazySet(slot, null);
+        consumer.accept(event);
+      }
+      head = h;
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A read-only view of an indexed map, which records the keys that are read
+ * for validation by a {@link MapProcessor}, or whether the whole map is read.
+ */
+class ReadTrackingIndexedMap<K, V> extends UnmodifiableIndexedMap<K, V> {
+
+  private final Set<Object> keys = new HashSet<>();
+  private boolean readAll = false;
+
+  ReadTrackingIndexedMap(IndexedMap<K, V> map) {
+    super(map);
+  }
+
+  Set<Object> keys() {
+    return keys;
+  }
+
+  boolean readAll() {
+    return readAll;
+  }
+
+  @Override
+  public Optional<V> select(K key) {
+    keys.add(key);
+    return super.select(key);
+  }
+
+  @Override
+  public V get(Object key) {
+    keys.add(key);
+    return super.get(key);
+  }
+
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    keys.add(key);
+    return super.getOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    keys.add(key);
+    return super.containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    readAll = true;
+    return super.containsValue(value);
+  }
+
+  @Override
+  public int size() {
+    readAll = true;
+    return super.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    readAll = true;
+    return super.isEmpty();
+  }
+
+  @Override
+  public Set<K> keySet() {
+    readAll = true;
+    return super.keySet();
+  }
+
+  @Override
+  public Collection<V> values() {
+    readAll = true;
+    return super.values();
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    readAll = true;
+    return super.entrySet();
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    readAll = true;
+    super.forEach(action);
+  }
+
+  @Override
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    readAll = true;
+    super.parallelForEach(action);
+  }
+
+  @Override
+  public Stream<Entry<K, V>> stream() {
+    readAll = true;
+    return super.stream();
+  }
+
+  @Override
+  public Stream<Entry<K, V>> parallelStream() {
+    readAll = true;
+    return super.parallelStream();
+  }
+
+}
@@ -0,0 +1,154 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Applies the change log shipped by a {@link ReplicationLeader} to a map of
+ * its own, which maintains its own secondary indices as normal. The map should
+ * only be read by other users, as any changes they make would be overwritten
+ * by the leader, or left in place where the leader makes no further change.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class ReplicationFollower<K, V> {
+
+  private final IndexedMap<K, V> map;
+  private final Codec<K> keys;
+  private final Codec<V> values;
+
+  private volatile long sequence = -1;
+  private volatile long lagMillis = 0;
+  private volatile long receivedNanos = System.nanoTime();
+
+  /**
+   * @param map map to apply the changes to.
+   * @param keys encoding of the keys, as used by the leader.
+   * @param values encoding of the values, as used by the leader.
+   */
+  public ReplicationFollower(IndexedMap<K, V> map, Codec<K> keys, Codec<V> values) {
+    this.map = Objects.requireNonNull(map);
+    this.keys = Objects.requireNonNull(keys);
+    this.values = Objects.requireNonNull(values);
+  }
+
+  /**
+   * @return map the changes are applied to.
+   */
+  public IndexedMap<K, V> map() {
+    return map;
+  }
+
+  /**
+   * Apply a frame shipped by the leader. A snapshot replaces the entries of
+   * the map, and the frames following it must then be received in order.
+   *
+   * @throws IOException if the frame is malformed.
+   * @throws IllegalStateException if a frame has been missed, in which case
+   * the follower must follow the leader again, starting with a new snapshot.
+   */
+  public synchronized void receive(byte[] frame) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+    byte type = in.readByte();
+    long frameSequence = in.readLong();
+    long timestamp = in.readLong();
+    int count = in.readInt();
+
+    if (type == ChangeLog.SNAPSHOT) {
+      applySnapshot(in, count);
+    } else if (type == ChangeLog.CHANGES) {
+      if (frameSequence != sequence + 1 || sequence < 0) {
+        throw new IllegalStateException(
+              "Expected change log frame " + (sequence + 1) + " but received " + frameSequence);
+      }
+      applyChanges(in, count);
+    } else {
+      throw new IOException("Unknown change log frame type: " + type);
+    }
+
+    sequence = frameSequence;
+    lagMillis = Math.max(0, System.currentTimeMillis() - timestamp);
+    receivedNanos = System.nanoTime();
+  }
+
+  /**
+   * Entries missing from the snapshot are deleted, rather than clearing the
+   * map first, so readers never see the map empty while it is replaced.
+   */
+  private void applySnapshot(DataInputStream in, int count) throws IOException {
+    Map<K, V> snapshot = new HashMap<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      in.readByte();
+      K key = keys.read(in);
+      snapshot.put(key, values.read(in));
+    }
+    for (K key : new ArrayList<>(map.keySet())) {
+      if (!snapshot.containsKey(key)) {
+        map.delete(key);
+      }
+    }
+    snapshot.forEach(map::insert);
+  }
+
+  private void applyChanges(DataInputStream in, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      byte operation = in.readByte();
+      K key = keys.read(in);
+      if (operation == ChangeLog.INSERT) {
+        map.insert(key, values.read(in));
+      } else if (operation == ChangeLog.DELETE) {
+        map.delete(key);
+      } else {
+        throw new IOException("Unknown change log operation: " + operation);
+      }
+    }
+  }
+
+  /**
+   * @return sequence of the last frame applied, which is zero after the
+   * snapshot and increases by one for each frame of changes, or -1 if nothing
+   * has been received.
+   */
+  public long sequence() {
+    return sequence;
+  }
+
+  /**
+   * The time between the leader shipping the last frame received and it being
+   * applied here. This is based on the clocks of both processes, so is only as
+   * accurate as they are synchronised.
+   *
+   * <p/>
+   * This is only updated as frames are applied, so stays at its last value
+   * should the leader stop shipping, such as when disconnected, which can be
+   * detected using {@link #sinceLastFrame()}.
+   *
+   * @return replication lag as of the last frame applied.
+   */
+  public Duration lag() {
+    return Duration.ofMillis(lagMillis);
+  }
+
+  /**
+   * The time since the last frame was applied, or since the follower was
+   * created if nothing has been received. The leader only ships frames as the
+   * map changes, so this grows while the map is idle, but also while the
+   * follower is disconnected, and would typically be checked against the rate
+   * at which the map is expected to change.
+   *
+   * @return time since the last frame was applied.
+   */
+  public Duration sinceLastFrame() {
+    return Duration.ofNanos(System.nanoTime() - receivedNanos);
+  }
+
+}
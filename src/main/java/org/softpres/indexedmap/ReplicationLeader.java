@@ -0,0 +1,158 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Replicates an {@link IndexedMap} to any number of followers, typically in
+ * other processes, by shipping a binary log of the changes made to it. Each
+ * follower applies the log to its own map, maintaining its own secondary
+ * indices, so only the leader needs to load its state from upstream.
+ * <p/>
+ * A follower first receives a snapshot of the map, followed by the changes
+ * made since it started to follow. Changes made while the snapshot was being
+ * taken may already be reflected in it, so are shipped again, meaning a
+ * follower converges on the state of the leader once it has caught up, but
+ * may briefly see older values while doing so.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class ReplicationLeader<K, V> {
+
+  private final IndexedMap<K, V> map;
+  private final Codec<K> keys;
+  private final Codec<V> values;
+  private final Executor executor;
+
+  /**
+   * @param map map to replicate.
+   * @param keys encoding of the keys.
+   * @param values encoding of the values.
+   * @param executor used to encode and ship changes, as per
+   *                 {@link IndexedMap#subscribe(ChangeListener, Executor)}.
+   */
+  public ReplicationLeader(IndexedMap<K, V> map, Codec<K> keys, Codec<V> values, Executor executor) {
+    this.map = Objects.requireNonNull(map);
+    this.keys = Objects.requireNonNull(keys);
+    this.values = Objects.requireNonNull(values);
+    this.executor = Objects.requireNonNull(executor);
+  }
+
+  /**
+   * Start replicating to a follower, where the snapshot is shipped on the
+   * calling thread. Should the transport fail, replication to the follower
+   * stops, the transport is closed and the failure rethrown on the executor
+   * as an {@link UncheckedIOException}. The follower must then follow again,
+   * starting with a new snapshot.
+   *
+   * @return subscription that can be cancelled to stop replicating to the
+   * follower, which also closes the transport.
+   * @throws IOException if the snapshot could not be sent.
+   */
+  public Subscription follow(ReplicationTransport transport) throws IOException {
+    Link link = new Link(Objects.requireNonNull(transport));
+    link.subscribed(map.subscribe(link, executor));
+    link.start();
+    return link;
+  }
+
+  /**
+   * Ships changes to a single follower. Changes are held back until the
+   * snapshot has been shipped, which is taken without holding the monitor,
+   * so that changes can still be delivered on the writing thread.
+   */
+  private class Link implements ChangeListener<K, V>, Subscription {
+    private final ReplicationTransport transport;
+    private Subscription subscription;
+    private List<Change<K, V>> pending = new ArrayList<>();
+    private long sequence = 0;
+    private boolean closed = false;
+
+    Link(ReplicationTransport transport) {
+      this.transport = transport;
+    }
+
+    void start() throws IOException {
+      Map<K, V> snapshot = new HashMap<>();
+      map.forEach(snapshot::put);
+
+      synchronized (this) {
+        try {
+          transport.send(ChangeLog.snapshot(snapshot, keys, values));
+          if (!pending.isEmpty()) {
+            ship(pending);
+          }
+          pending = null;
+        } catch (IOException e) {
+          cancel();
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public synchronized void changed(List<Change<K, V>> changes) {
+      if (closed) {
+        return;
+      }
+      if (pending != null) {
+        pending.addAll(changes);
+        return;
+      }
+      try {
+        ship(changes);
+      } catch (IOException e) {
+        cancel();
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * The link may already have been cancelled by the time the subscription is
+     * returned, where a failure is delivered on a synchronous executor.
+     */
+    void subscribed(Subscription subscription) {
+      boolean cancelled;
+      synchronized (this) {
+        this.subscription = subscription;
+        cancelled = closed;
+      }
+      if (cancelled) {
+        subscription.cancel();
+      }
+    }
+
+    private void ship(List<Change<K, V>> changes) throws IOException {
+      transport.send(ChangeLog.changes(++sequence, changes, keys, values));
+    }
+
+    @Override
+    public void cancel() {
+      Subscription cancelling;
+      synchronized (this) {
+        cancelling = subscription;
+        if (!closed) {
+          closed = true;
+          try {
+            transport.close();
+          } catch (IOException e) {
+            // Nothing more to ship, so failing to close is of no consequence
+          }
+        }
+      }
+      if (cancelling != null) {
+        cancelling.cancel();
+      }
+    }
+  }
+
+}
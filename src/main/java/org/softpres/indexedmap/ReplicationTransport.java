@@ -0,0 +1,32 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.IOException;
+
+/**
+ * Ships the change log of a {@link ReplicationLeader} to a single
+ * {@link ReplicationFollower}, frame by frame. Within a process, a follower
+ * can be used directly as a transport with {@code follower::receive}, or
+ * between processes using a {@link SocketTransport} connected to a
+ * {@link SocketReceiver}.
+ */
+@FunctionalInterface
+public interface ReplicationTransport {
+
+  /**
+   * Send a frame, which must be received by the follower in the order sent.
+   * Frames are never sent concurrently.
+   *
+   * @throws IOException if the frame could not be sent, which stops the
+   * replication to this follower.
+   */
+  void send(byte[] frame) throws IOException;
+
+  /**
+   * Release any resources, called once replication to the follower stops.
+   */
+  default void close() throws IOException {
+  }
+
+}
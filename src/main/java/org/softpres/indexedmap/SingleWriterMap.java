@@ -0,0 +1,268 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Owns an {@link IndexedMap} on a single dedicated thread, which applies
+ * commands submitted from any number of other threads. As only the one thread
+ * ever accesses the map, the map should be built without a locking strategy,
+ * see {@link IndexedMapBuilder#lockStrategy(java.util.concurrent.locks.ReadWriteLock)}.
+ * <p/>
+ * Commands are submitted to a bounded queue, which blocks submitting threads
+ * when full. The writer thread drains the queue in batches, and applies the
+ * commands in the order they were submitted, completing the returned future of
+ * each as it is applied. Note that dependent actions added to these futures
+ * without using an async variant run on the writer thread, so should be short,
+ * and must not submit further commands using the blocking methods.
+ * <p/>
+ * The {@link AsyncIndexedMap} methods never block the submitting thread, but
+ * fail the returned stage with a {@link RejectedExecutionException} when the
+ * queue is full, so can be used where callers must not block, including from
+ * dependent actions on the writer thread. As only the writer thread accesses
+ * the map, callers never wait on the map's lock either, even while a long
+ * operation such as adding an index is in progress.
+ * <p/>
+ * Queries are commands too, so see the map between two other commands, and are
+ * given a read-only view of the map. Results of queries must not retain the
+ * view or any other view of the map, as they are not safe to use from other
+ * threads.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class SingleWriterMap<K, V> implements AsyncIndexedMap<K, V>, AutoCloseable {
+
+  private static final int maxBatch = 1024;
+
+  private final IndexedMap<K, V> map;
+  private final IndexedMap<K, V> readOnly;
+  private final BlockingQueue<Command<K, V, ?>> queue;
+  private final Thread writer;
+  private volatile boolean closed = false;
+  private volatile boolean stopped = false;
+
+  /**
+   * Create and start the writer thread.
+   *
+   * @param map map to be owned by the writer thread, which must not be used
+   *            directly from any other thread after this.
+   * @param capacity maximum number of commands waiting to be applied.
+   */
+  public SingleWriterMap(IndexedMap<K, V> map, int capacity) {
+    this.map = Objects.requireNonNull(map);
+    this.readOnly = new UnmodifiableIndexedMap<>(map);
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.writer = new Thread(this::run, "IndexedMap writer");
+
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * @return future of the value associated with the key on the primary index.
+   * @see IndexedMap#select(Object)
+   */
+  public CompletableFuture<Optional<V>> select(K key) {
+    return submit(map -> map.select(key));
+  }
+
+  /**
+   * @return future of the value previously associated with the key.
+   * @see IndexedMap#insert(Object, Object)
+   */
+  public CompletableFuture<Optional<V>> insert(K key, V value) {
+    return submit(map -> map.insert(key, value));
+  }
+
+  /**
+   * @return future of the value previously associated with the key.
+   * @see IndexedMap#delete(Object)
+   */
+  public CompletableFuture<Optional<V>> delete(K key) {
+    return submit(map -> map.delete(key));
+  }
+
+  /**
+   * Apply any changes to the map on the writer thread, such as using the
+   * default methods or adding an index. The result must not retain the map or
+   * any view of it.
+   *
+   * @param work work to perform on the map.
+   * @return future of the result of the work.
+   */
+  public <R> CompletableFuture<R> update(Function<? super IndexedMap<K, V>, ? extends R> work) {
+    return submit(work);
+  }
+
+  /**
+   * Query a read-only view of the map on the writer thread, such as to use a
+   * secondary index or take a copy of the entries.
+   *
+   * @param query query to perform on a read-only view of the map.
+   * @return future of the result of the query.
+   */
+  public <R> CompletableFuture<R> query(Function<? super IndexedMap<K, V>, ? extends R> query) {
+    Objects.requireNonNull(query);
+    return submit(ignored -> query.apply(readOnly));
+  }
+
+  @Override
+  public CompletionStage<Optional<V>> selectAsync(K key) {
+    return offer(map -> map.select(key));
+  }
+
+  @Override
+  public CompletionStage<Optional<V>> insertAsync(K key, V value) {
+    return offer(map -> map.insert(key, value));
+  }
+
+  @Override
+  public CompletionStage<Optional<V>> deleteAsync(K key) {
+    return offer(map -> map.delete(key));
+  }
+
+  @Override
+  public <R> CompletionStage<R> updateAsync(Function<? super IndexedMap<K, V>, ? extends R> work) {
+    Objects.requireNonNull(work);
+    return offer(work);
+  }
+
+  @Override
+  public <R> CompletionStage<R> queryAsync(Function<? super IndexedMap<K, V>, ? extends R> query) {
+    Objects.requireNonNull(query);
+    return offer(ignored -> query.apply(readOnly));
+  }
+
+  private <R> CompletableFuture<R> submit(Function<? super IndexedMap<K, V>, ? extends R> work) {
+    Objects.requireNonNull(work);
+    if (closed) {
+      throw new IllegalStateException("Writer has been closed");
+    }
+
+    Command<K, V, R> command = new Command<>(work);
+    try {
+      queue.put(command);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      command.future.completeExceptionally(e);
+    }
+    return submitted(command);
+  }
+
+  /**
+   * Submit without blocking, failing the command if the queue is full.
+   */
+  private <R> CompletableFuture<R> offer(Function<? super IndexedMap<K, V>, ? extends R> work) {
+    Command<K, V, R> command = new Command<>(work);
+    if (closed) {
+      command.future.completeExceptionally(new IllegalStateException("Writer has been closed"));
+    } else if (!queue.offer(command)) {
+      command.future.completeExceptionally(new RejectedExecutionException("Writer queue is full"));
+    }
+    return submitted(command);
+  }
+
+  private <R> CompletableFuture<R> submitted(Command<K, V, R> command) {
+    if (stopped) {
+      // Closed concurrently, and the writer thread may have already given up
+      reject(new ArrayList<>());
+    }
+    return command.future;
+  }
+
+  private void run() {
+    List<Command<K, V, ?>> batch = new ArrayList<>(maxBatch);
+    try {
+      while (true) {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatch - 1);
+        for (Command<K, V, ?> command : batch) {
+          if (command.work == null) {
+            return;
+          }
+          command.apply(map);
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // Only interrupted by close
+    } finally {
+      stopped = true;
+      reject(batch);
+    }
+  }
+
+  /**
+   * Fail any commands that were submitted while closing, which may be called
+   * from both the writer and a submitting thread once stopped.
+   */
+  private void reject(List<Command<K, V, ?>> batch) {
+    queue.drainTo(batch);
+    IllegalStateException closing = new IllegalStateException("Writer has been closed");
+    for (Command<K, V, ?> command : batch) {
+      command.future.completeExceptionally(closing);
+    }
+  }
+
+  /**
+   * Stop accepting commands, and wait for those already submitted to be
+   * applied before stopping the writer thread. If interrupted while waiting,
+   * this returns with the interrupt status set, and should the queue have
+   * been full, the commands still waiting in it are failed rather than
+   * applied.
+   */
+  @Override
+  public void close() {
+    try {
+      if (!closed) {
+        closed = true;
+        try {
+          queue.put(new Command<>(null));
+        } catch (InterruptedException e) {
+          writer.interrupt();
+          throw e;
+        }
+      }
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Work to be applied to the map, where null work signals the writer thread
+   * to stop.
+   */
+  private static class Command<K, V, R> {
+    private final Function<? super IndexedMap<K, V>, ? extends R> work;
+    private final CompletableFuture<R> future = new CompletableFuture<>();
+
+    Command(Function<? super IndexedMap<K, V>, ? extends R> work) {
+      this.work = work;
+    }
+
+    /**
+     * Any failure, including an {@link Error} such as a stack overflow, only
+     * fails this command, so the writer thread goes on to apply the rest.
+     */
+    void apply(IndexedMap<K, V> map) {
+      try {
+        future.complete(work.apply(map));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+}
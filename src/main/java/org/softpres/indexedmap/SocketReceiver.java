@@ -0,0 +1,127 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Receives the change log shipped by a {@link SocketTransport} and applies it
+ * to a {@link ReplicationFollower}, on a thread of its own. One leader is
+ * connected at a time. When the connection ends, or a frame cannot be applied,
+ * the connection is closed and another accepted, so the leader can reconnect
+ * and start again with a new snapshot. The failure that closed the last such
+ * connection is kept, see {@link #lastFailure()}.
+ */
+public class SocketReceiver implements AutoCloseable {
+
+  private final ReplicationFollower<?, ?> follower;
+  private final ServerSocket server;
+  private final Thread receiver;
+
+  private volatile Socket connection;
+  private volatile boolean closed = false;
+  private volatile Exception failure;
+
+  /**
+   * Listen on the loopback address.
+   *
+   * @param port port to listen on, or zero to use any free port.
+   */
+  public SocketReceiver(ReplicationFollower<?, ?> follower, int port) throws IOException {
+    this(follower, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  /**
+   * @param address address to listen on.
+   */
+  public SocketReceiver(ReplicationFollower<?, ?> follower, InetSocketAddress address) throws IOException {
+    this.follower = Objects.requireNonNull(follower);
+    this.server = new ServerSocket();
+    server.bind(address);
+
+    receiver = new Thread(this::run, "IndexedMap replication receiver");
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  /**
+   * @return address listened on, for the leader to connect to.
+   */
+  public InetSocketAddress address() {
+    return (InetSocketAddress)server.getLocalSocketAddress();
+  }
+
+  private void run() {
+    while (!closed) {
+      try (Socket socket = server.accept()) {
+        connection = socket;
+        receive(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+      } catch (IOException | RuntimeException e) {
+        // Connection lost or out of step with the leader, so await another
+        if (!closed) {
+          failure = e;
+        }
+      }
+    }
+  }
+
+  private void receive(DataInputStream in) throws IOException {
+    while (!closed) {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return;
+      }
+      byte[] frame = new byte[length];
+      in.readFully(frame);
+      follower.receive(frame);
+    }
+  }
+
+  /**
+   * @return failure that most recently closed a connection, such as the
+   * connection being lost, or a frame being malformed or missed, or empty if
+   * no connection has failed.
+   */
+  public Optional<Exception> lastFailure() {
+    return Optional.ofNullable(failure);
+  }
+
+  /**
+   * Stop listening, closing any connection, and wait for the receiving
+   * thread to finish. If interrupted while waiting, this returns with the
+   * interrupt status set.
+   *
+   * @throws UncheckedIOException if the sockets could not be closed.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      server.close();
+      Socket socket = connection;
+      if (socket != null) {
+        socket.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    try {
+      receiver.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
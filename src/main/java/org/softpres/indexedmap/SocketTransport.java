@@ -0,0 +1,42 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Ships the change log of a {@link ReplicationLeader} over a socket to a
+ * {@link SocketReceiver}, with each frame prefixed by its length.
+ */
+public class SocketTransport implements ReplicationTransport {
+
+  private final Socket socket;
+  private final DataOutputStream out;
+
+  /**
+   * @param address address of the {@link SocketReceiver} of the follower.
+   * @throws IOException if the connection could not be made.
+   */
+  public SocketTransport(InetSocketAddress address) throws IOException {
+    socket = new Socket(address.getAddress(), address.getPort());
+    socket.setTcpNoDelay(true);
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  @Override
+  public void send(byte[] frame) throws IOException {
+    out.writeInt(frame.length);
+    out.write(frame);
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+}
@@ -0,0 +1,400 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleBiFunction;
+
+/**
+ * A spatial index of the entries of a map, see
+ * {@link IndexedMap#addSpatialIndex(ToDoubleBiFunction, ToDoubleBiFunction)},
+ * which looks up the entries whose point lies within a bounding box or a
+ * radius, or the entries nearest to a point.
+ * <p/>
+ * Points are held in a quadtree, where each node covers a rectangle of the
+ * plane, and leaves are split into four quadrants once they hold more than a
+ * handful of points, so queries only visit the nodes overlapping the area of
+ * interest. The tree has no fixed bounds, and instead grows outwards as points
+ * are added beyond the area it covers. Leaves are merged back together as
+ * points are removed.
+ * <p/>
+ * Distances are Euclidean, in the units of the coordinates. Where the
+ * coordinates are latitude and longitude, distances are only approximate,
+ * and more so away from the equator, so longitude may be scaled by the cosine
+ * of a typical latitude where that matters.
+ * <p/>
+ * The index is kept up-to-date as part of each write to the map, and lookups
+ * return a copy of the matching entries. A {@link QueryCache} tracks lookups
+ * as reads of the whole index, so any change to the index invalidates them.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class SpatialIndex<K, V> extends SubscribedIndex<K, V> {
+
+  private static final int CAPACITY = 16;
+
+  private final ToDoubleBiFunction<K, V> x;
+  private final ToDoubleBiFunction<K, V> y;
+
+  private final Map<K, Item> items = new HashMap<>();
+  private Node root;
+
+  SpatialIndex(IndexedMap<K, V> map, ToDoubleBiFunction<K, V> x, ToDoubleBiFunction<K, V> y) {
+    this.x = x;
+    this.y = y;
+    follow(map);
+  }
+
+  /**
+   * A value at the same point as before simply replaces it.
+   */
+  @Override
+  void write(K key, V value) {
+    Item previous = items.remove(key);
+    double px = value == null ? Double.NaN : x.applyAsDouble(key, value);
+    double py = value == null ? Double.NaN : y.applyAsDouble(key, value);
+    boolean located = Double.isFinite(px) && Double.isFinite(py);
+
+    if (previous != null) {
+      if (located && previous.x == px && previous.y == py) {
+        previous.value = value;
+        items.put(key, previous);
+        return;
+      }
+      remove(previous);
+    }
+    if (located) {
+      Item item = new Item(key, value, px, py);
+      items.put(key, item);
+      add(item);
+    }
+  }
+
+  private void add(Item item) {
+    if (root == null) {
+      double minX = Math.floor(item.x);
+      double minY = Math.floor(item.y);
+      root = new Node(minX, minY, minX + 1, minY + 1);
+    }
+    while (!root.contains(item.x, item.y)) {
+      grow(item.x, item.y);
+    }
+
+    Node node = root;
+    while (true) {
+      node.count++;
+      if (node.children == null) {
+        node.items.add(item);
+        if (node.items.size() > CAPACITY) {
+          node.split();
+        }
+        return;
+      }
+      node = node.child(item.x, item.y);
+    }
+  }
+
+  /**
+   * Double the area covered by the tree towards the point, where the existing
+   * root becomes one quadrant of the new root.
+   */
+  private void grow(double px, double py) {
+    double width = root.maxX - root.minX;
+    double height = root.maxY - root.minY;
+    boolean west = px < root.minX;
+    boolean south = py < root.minY;
+
+    Node grown = new Node(
+          west ? root.minX - width : root.minX,
+          south ? root.minY - height : root.minY,
+          west ? root.maxX : root.maxX + width,
+          south ? root.maxY : root.maxY + height);
+    grown.count = root.count;
+    grown.divide(west ? root.minX : root.maxX, south ? root.minY : root.maxY);
+    grown.children.set((west ? 1 : 0) + (south ? 2 : 0), root);
+    root = grown;
+  }
+
+  private void remove(Item item) {
+    Node node = root;
+    while (node.children != null) {
+      node.count--;
+      node = node.child(item.x, item.y);
+    }
+    node.count--;
+    node.items.remove(item);
+
+    if (root.count == 0) {
+      root = null;
+      return;
+    }
+    // Merge the highest quadrants that now hold few enough points
+    node = root;
+    while (node.children != null) {
+      if (node.count <= CAPACITY / 2) {
+        node.merge();
+        return;
+      }
+      node = node.child(item.x, item.y);
+    }
+  }
+
+  /**
+   * Lookup of entries whose point lies within the bounding box, including
+   * those on its edges.
+   */
+  public Map<K, V> within(double minX, double minY, double maxX, double maxY) {
+    return read(() -> {
+      Map<K, V> result = new LinkedHashMap<>();
+      collect(root, minX, minY, maxX, maxY,
+            item -> item.x >= minX && item.x <= maxX && item.y >= minY && item.y <= maxY,
+            result);
+      return result;
+    });
+  }
+
+  /**
+   * Lookup of entries whose point lies within the radius of a point,
+   * including those at exactly that distance.
+   */
+  public Map<K, V> withinRadius(double px, double py, double radius) {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Negative radius: " + radius);
+    }
+    double squared = radius * radius;
+    return read(() -> {
+      Map<K, V> result = new LinkedHashMap<>();
+      collect(root, px - radius, py - radius, px + radius, py + radius,
+            item -> item.distanceSquared(px, py) <= squared,
+            result);
+      return result;
+    });
+  }
+
+  private void collect(
+        Node node,
+        double minX, double minY, double maxX, double maxY,
+        Predicate<Item> test,
+        Map<K, V> result) {
+
+    if (node == null || node.count == 0 || !node.overlaps(minX, minY, maxX, maxY)) {
+      return;
+    }
+    if (node.children == null) {
+      for (Item item : node.items) {
+        if (test.test(item)) {
+          result.put(item.key, item.value);
+        }
+      }
+    } else {
+      for (Node child : node.children) {
+        collect(child, minX, minY, maxX, maxY, test, result);
+      }
+    }
+  }
+
+  /**
+   * Lookup of the entries nearest to a point, found by visiting the nodes of
+   * the tree in order of their distance from the point, until as many entries
+   * have been found as asked for.
+   *
+   * @param count maximum number of entries to return.
+   * @return nearest entries, ordered by distance from the point.
+   */
+  public Map<K, V> nearest(double px, double py, int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Negative count: " + count);
+    }
+    return read(() -> {
+      Map<K, V> result = new LinkedHashMap<>();
+      if (root == null || count == 0) {
+        return result;
+      }
+
+      PriorityQueue<Candidate> queue = new PriorityQueue<>();
+      queue.add(new Candidate(root.distanceSquared(px, py), root, null));
+      while (!queue.isEmpty() && result.size() < count) {
+        Candidate candidate = queue.poll();
+        if (candidate.item != null) {
+          result.put(candidate.item.key, candidate.item.value);
+        } else if (candidate.node.children == null) {
+          for (Item item : candidate.node.items) {
+            queue.add(new Candidate(item.distanceSquared(px, py), null, item));
+          }
+        } else {
+          for (Node child : candidate.node.children) {
+            if (child.count > 0) {
+              queue.add(new Candidate(child.distanceSquared(px, py), child, null));
+            }
+          }
+        }
+      }
+      return result;
+    });
+  }
+
+  /**
+   * @return number of entries held by the index, which excludes those
+   * without a finite point.
+   */
+  public int size() {
+    return read(items::size);
+  }
+
+  @Override
+  void clear() {
+    items.clear();
+    root = null;
+  }
+
+  private class Item {
+    final K key;
+    V value;
+    final double x;
+    final double y;
+
+    Item(K key, V value, double x, double y) {
+      this.key = key;
+      this.value = value;
+      this.x = x;
+      this.y = y;
+    }
+
+    double distanceSquared(double px, double py) {
+      double dx = x - px;
+      double dy = y - py;
+      return dx * dx + dy * dy;
+    }
+  }
+
+  /**
+   * A rectangle of the plane, which includes its minimum edges but not its
+   * maximum ones, and is either a leaf holding the points within it, or is
+   * divided into four quadrants, ordered south-west, south-east, north-west
+   * and north-east.
+   */
+  private class Node {
+    final double minX;
+    final double minY;
+    final double maxX;
+    final double maxY;
+    double midX;
+    double midY;
+    int count;
+    List<Item> items = new ArrayList<>();
+    List<Node> children;
+
+    Node(double minX, double minY, double maxX, double maxY) {
+      this.minX = minX;
+      this.minY = minY;
+      this.maxX = maxX;
+      this.maxY = maxY;
+    }
+
+    boolean contains(double px, double py) {
+      return px >= minX && px < maxX && py >= minY && py < maxY;
+    }
+
+    boolean overlaps(double x1, double y1, double x2, double y2) {
+      return minX <= x2 && maxX >= x1 && minY <= y2 && maxY >= y1;
+    }
+
+    double distanceSquared(double px, double py) {
+      double dx = Math.max(Math.max(minX - px, px - maxX), 0);
+      double dy = Math.max(Math.max(minY - py, py - maxY), 0);
+      return dx * dx + dy * dy;
+    }
+
+    Node child(double px, double py) {
+      return children.get((px >= midX ? 1 : 0) + (py >= midY ? 2 : 0));
+    }
+
+    /**
+     * Make this node into four empty quadrants meeting at the given point.
+     */
+    void divide(double x, double y) {
+      midX = x;
+      midY = y;
+      items = null;
+      children = Arrays.asList(
+            new Node(minX, minY, midX, midY),
+            new Node(midX, minY, maxX, midY),
+            new Node(minX, midY, midX, maxY),
+            new Node(midX, midY, maxX, maxY));
+    }
+
+    /**
+     * Move the points of this leaf into quadrants, unless they are all at the
+     * same point, or the leaf is too small to divide any further.
+     */
+    void split() {
+      double x = minX + (maxX - minX) / 2;
+      double y = minY + (maxY - minY) / 2;
+      if (x <= minX || x >= maxX || y <= minY || y >= maxY || coincident()) {
+        return;
+      }
+      List<Item> moving = items;
+      divide(x, y);
+      for (Item item : moving) {
+        Node child = child(item.x, item.y);
+        child.items.add(item);
+        child.count++;
+      }
+      for (Node child : children) {
+        if (child.items.size() > CAPACITY) {
+          child.split();
+        }
+      }
+    }
+
+    private boolean coincident() {
+      Item first = items.get(0);
+      for (Item item : items) {
+        if (item.x != first.x || item.y != first.y) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Gather the points of all quadrants below back into this node.
+     */
+    void merge() {
+      List<Item> gathered = new ArrayList<>(count);
+      gather(gathered);
+      children = null;
+      items = gathered;
+    }
+
+    private void gather(List<Item> gathered) {
+      if (children == null) {
+        gathered.addAll(items);
+      } else {
+        for (Node child : children) {
+          child.gather(gathered);
+        }
+      }
+    }
+  }
+
+  private class Candidate implements Comparable<Candidate> {
+    final double distance;
+    final Node node;
+    final Item item;
+
+    Candidate(double distance, Node node, Item item) {
+      this.distance = distance;
+      this.node = node;
+      this.item = item;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      return Double.compare(distance, other.distance);
+    }
+  }
+
+}
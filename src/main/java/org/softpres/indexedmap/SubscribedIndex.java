@@ -0,0 +1,113 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static org.softpres.indexedmap.MapSupport.withLock;
+
+/**
+ * Base of the indices that keep themselves up-to-date by subscribing to the
+ * changes of a map, rather than being maintained by the map, such as
+ * {@link TextIndex}, {@link BitmapIndices} and {@link SpatialIndex}. Changes
+ * are applied as part of each write to the map, under a lock of the index's
+ * own, and lookups are made under its read lock.
+ * <p/>
+ * Lookups are tracked by any {@link QueryCache} running them as reads of the
+ * whole index, so a cached result is invalidated by any change to the index.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+abstract class SubscribedIndex<K, V> {
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Set<QueryCache<?, ?>> caches = ConcurrentHashMap.newKeySet();
+  private final QueryCache.Watched watched = caches::add;
+  private Subscription subscription;
+  private boolean dropped = false;
+
+  /**
+   * Start maintaining the index, and index the existing entries of the map,
+   * which must only be called once the subclass has been initialised.
+   */
+  final void follow(IndexedMap<K, V> map) {
+    // Changes are applied while the write is made, so no write can be missed
+    // between subscribing and indexing the existing entries, and are applied
+    // under the write lock, so need not be serialised across partitions
+    subscription = map.subscribe((ConcurrentChangeListener<K, V>)this::changed, Runnable::run);
+    map.forEach((key, value) -> withWriteLock(() -> {
+      write(key, value);
+      return null;
+    }));
+  }
+
+  private void changed(List<Change<K, V>> changes) {
+    withWriteLock(() -> {
+      for (Change<K, V> change : changes) {
+        write(change.key(), change.valueOrNull());
+      }
+      return null;
+    });
+    caches.forEach(cache -> cache.invalidate(watched, null));
+  }
+
+  /**
+   * Index the latest value of an entry, where a null value indicates removal,
+   * while the write lock is held.
+   */
+  abstract void write(K key, V value);
+
+  /**
+   * Release the memory held by the index as it is dropped, while the write
+   * lock is held.
+   */
+  abstract void clear();
+
+  /**
+   * Stop maintaining the index, and release the memory it holds.
+   */
+  public void drop() {
+    withWriteLock(() -> {
+      checkNotDropped();
+      subscription.cancel();
+      clear();
+      dropped = true;
+      return null;
+    });
+    caches.forEach(cache -> cache.invalidate(watched));
+    caches.clear();
+  }
+
+  final void checkNotDropped() {
+    if (dropped) {
+      throw new IllegalStateException("Index has been dropped");
+    }
+  }
+
+  final <R> R read(Supplier<R> reader) {
+    QueryCache.read(watched, null);
+    return withLock(lock.readLock(), () -> {
+      checkNotDropped();
+      return reader.get();
+    });
+  }
+
+  /**
+   * @return whether the current thread already holds the read lock, such as
+   * within a query, so nothing can change the index until the query completes
+   * and the structures of the index may be used without copying them.
+   */
+  final boolean isReading() {
+    return lock.getReadHoldCount() > 0;
+  }
+
+  final <R> R withWriteLock(Supplier<R> writer) {
+    return withLock(lock.writeLock(), writer);
+  }
+
+}
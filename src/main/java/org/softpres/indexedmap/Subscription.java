@@ -0,0 +1,17 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+/**
+ * Handle of a {@link ChangeListener} subscribed to an {@link IndexedMap}.
+ */
+public interface Subscription {
+
+  /**
+   * Stop delivering changes to the listener. Changes that have already been
+   * made but not yet delivered are discarded. This can be called from any
+   * thread, including from within the listener itself.
+   */
+  void cancel();
+
+}
@@ -0,0 +1,315 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A full-text inverted index of the entries of a map, see
+ * {@link IndexedMap#addTextIndex(BiFunction)}, which looks up the entries
+ * whose text contains all or any of the terms in a query, terms starting with
+ * a prefix, or terms containing a fragment of text.
+ * <p/>
+ * Each entry is given an ordinal, and each term holds the ordinals of the
+ * entries containing it as compressed {@link Postings} in ascending order, so
+ * that queries of several terms intersect or union the postings without
+ * building a set of entries for each term. Ordinals are only ever appended,
+ * so a changed entry is given a new ordinal, and the ordinals of removed or
+ * changed entries are skipped until they outnumber the live entries, when the
+ * index is rebuilt. Terms are also indexed by their trigrams, so fragments of
+ * text are found without scanning every term.
+ * <p/>
+ * The index is kept up-to-date as part of each write to the map, and lookups
+ * return a copy of the matching entries, in the order their text was last
+ * changed. A {@link QueryCache} tracks lookups as reads of the whole index, so
+ * any change to the index invalidates the results using it.
+ *
+ * @param <K> type of key.
+ * @param <V> type of value.
+ */
+public class TextIndex<K, V> extends SubscribedIndex<K, V> {
+
+  private static final int GRAM = 3;
+  private static final int MIN_REBUILD = 64;
+
+  private final BiFunction<K, V, String> text;
+  private final Function<String, ? extends Iterable<String>> tokenizer;
+
+  private final NavigableMap<String, Postings> terms = new TreeMap<>();
+  private final Map<String, Set<String>> grams = new HashMap<>();
+  private final Map<K, Integer> ordinals = new HashMap<>();
+  private final List<K> keys = new ArrayList<>();
+  private final List<V> values = new ArrayList<>();
+  private final BitSet live = new BitSet();
+
+  TextIndex(
+        IndexedMap<K, V> map,
+        BiFunction<K, V, String> text,
+        Function<String, ? extends Iterable<String>> tokenizer) {
+
+    this.text = text;
+    this.tokenizer = tokenizer;
+    follow(map);
+  }
+
+  /**
+   * The default tokenizer, which splits text into lower case words of letters
+   * and digits.
+   */
+  public static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (word && start < 0) {
+        start = i;
+      } else if (!word && start >= 0) {
+        words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * A value with the same text as before simply replaces it.
+   */
+  @Override
+  void write(K key, V value) {
+    Integer ordinal = ordinals.remove(key);
+    if (ordinal != null) {
+      if (value != null && textOf(key, value).equals(textOf(key, values.get(ordinal)))) {
+        values.set(ordinal, value);
+        ordinals.put(key, ordinal);
+        return;
+      }
+      live.clear(ordinal);
+      keys.set(ordinal, null);
+      values.set(ordinal, null);
+    }
+    if (value != null) {
+      append(key, value);
+    }
+    int dead = keys.size() - ordinals.size();
+    if (dead >= MIN_REBUILD && dead > ordinals.size()) {
+      rebuild();
+    }
+  }
+
+  private String textOf(K key, V value) {
+    String result = text.apply(key, value);
+    return result == null ? "" : result;
+  }
+
+  private void append(K key, V value) {
+    int ordinal = keys.size();
+    keys.add(key);
+    values.add(value);
+    live.set(ordinal);
+    ordinals.put(key, ordinal);
+
+    for (String term : tokenizer.apply(textOf(key, value))) {
+      Postings postings = terms.get(term);
+      if (postings == null) {
+        postings = new Postings();
+        terms.put(term, postings);
+        for (String gram : grams(term)) {
+          grams.computeIfAbsent(gram, g -> new HashSet<>()).add(term);
+        }
+      }
+      // Terms repeated in the same text are only added once
+      if (postings.last() != ordinal) {
+        postings.add(ordinal);
+      }
+    }
+  }
+
+  /**
+   * Index the live entries afresh, so their ordinals are contiguous again and
+   * terms without live entries are removed.
+   */
+  private void rebuild() {
+    List<K> liveKeys = new ArrayList<>(ordinals.size());
+    List<V> liveValues = new ArrayList<>(ordinals.size());
+    for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+      liveKeys.add(keys.get(i));
+      liveValues.add(values.get(i));
+    }
+    clear();
+    for (int i = 0; i < liveKeys.size(); i++) {
+      append(liveKeys.get(i), liveValues.get(i));
+    }
+  }
+
+  @Override
+  void clear() {
+    terms.clear();
+    grams.clear();
+    ordinals.clear();
+    keys.clear();
+    values.clear();
+    live.clear();
+  }
+
+  private static Set<String> grams(String term) {
+    Set<String> result = new HashSet<>();
+    for (int i = 0; i + GRAM <= term.length(); i++) {
+      result.add(term.substring(i, i + GRAM));
+    }
+    return result;
+  }
+
+  /**
+   * Lookup of entries containing all of the terms of a query, which is split
+   * into terms using the tokenizer of the index.
+   *
+   * @return matching entries, or none where the query has no terms.
+   */
+  public Map<K, V> matchAll(String query) {
+    return read(() -> {
+      Set<String> queried = new LinkedHashSet<>();
+      tokenizer.apply(query).forEach(queried::add);
+
+      List<Postings> postings = new ArrayList<>(queried.size());
+      for (String term : queried) {
+        Postings found = terms.get(term);
+        if (found == null) {
+          return Collections.emptyMap();
+        }
+        postings.add(found);
+      }
+      return postings.isEmpty() ? Collections.emptyMap() : intersect(postings);
+    });
+  }
+
+  /**
+   * Lookup of entries containing any of the terms of a query, which is split
+   * into terms using the tokenizer of the index.
+   */
+  public Map<K, V> matchAny(String query) {
+    return read(() -> {
+      List<Postings> postings = new ArrayList<>();
+      for (String term : tokenizer.apply(query)) {
+        Postings found = terms.get(term);
+        if (found != null) {
+          postings.add(found);
+        }
+      }
+      return union(postings);
+    });
+  }
+
+  /**
+   * Lookup of entries containing a term that starts with the prefix, which is
+   * expected to be normalised in the same way as the terms, such as being in
+   * lower case for the default tokenizer.
+   */
+  public Map<K, V> matchPrefix(String prefix) {
+    Objects.requireNonNull(prefix);
+    return read(() -> union(terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()));
+  }
+
+  /**
+   * Lookup of entries containing a term that contains the fragment of text,
+   * which is expected to be normalised in the same way as the terms. Where the
+   * fragment is at least three characters long, only the terms sharing all of
+   * its trigrams are checked.
+   */
+  public Map<K, V> matchFragment(String fragment) {
+    Objects.requireNonNull(fragment);
+    return read(() -> {
+      Collection<String> candidates = terms.keySet();
+      if (fragment.length() >= GRAM) {
+        Set<String> sharing = null;
+        for (String gram : grams(fragment)) {
+          Set<String> withGram = grams.getOrDefault(gram, Collections.emptySet());
+          if (sharing == null) {
+            sharing = new HashSet<>(withGram);
+          } else {
+            sharing.retainAll(withGram);
+          }
+        }
+        candidates = sharing;
+      }
+
+      List<Postings> postings = new ArrayList<>();
+      for (String term : candidates) {
+        if (term.contains(fragment)) {
+          postings.add(terms.get(term));
+        }
+      }
+      return union(postings);
+    });
+  }
+
+  /**
+   * @return number of distinct terms held by the index, including those whose
+   * entries have all since been removed but not yet rebuilt.
+   */
+  public int termCount() {
+    return read(terms::size);
+  }
+
+  /**
+   * Intersect the postings, leapfrogging each cursor in turn to the greatest
+   * ordinal seen so far, starting with the shortest postings.
+   */
+  private Map<K, V> intersect(List<Postings> postings) {
+    postings.sort(Comparator.comparingInt(Postings::size));
+    int n = postings.size();
+    Postings.Cursor[] cursors = new Postings.Cursor[n];
+    for (int c = 0; c < n; c++) {
+      cursors[c] = postings.get(c).cursor();
+    }
+
+    Map<K, V> result = new LinkedHashMap<>();
+    if (!cursors[0].next()) {
+      return result;
+    }
+    int target = cursors[0].value();
+    int agreed = 1;
+    int c = 1 % n;
+    while (true) {
+      if (agreed == n) {
+        collect(target, result);
+        if (!cursors[c].next()) {
+          return result;
+        }
+        target = cursors[c].value();
+        agreed = 1;
+      } else if (!cursors[c].advance(target)) {
+        return result;
+      } else if (cursors[c].value() == target) {
+        agreed++;
+      } else {
+        target = cursors[c].value();
+        agreed = 1;
+      }
+      c = (c + 1) % n;
+    }
+  }
+
+  private Map<K, V> union(Collection<Postings> postings) {
+    BitSet matched = new BitSet();
+    for (Postings list : postings) {
+      Postings.Cursor cursor = list.cursor();
+      while (cursor.next()) {
+        matched.set(cursor.value());
+      }
+    }
+    Map<K, V> result = new LinkedHashMap<>();
+    for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+      collect(i, result);
+    }
+    return result;
+  }
+
+  private void collect(int ordinal, Map<K, V> result) {
+    if (live.get(ordinal)) {
+      result.put(keys.get(ordinal), values.get(ordinal));
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timer wheel for expiring entries, where scheduling and
+ * cancelling a timer are constant time, and advancing the time only visits
+ * the buckets whose time has passed. Each level of the wheel has buckets
+ * spanning about a second, a minute, an hour and a day, with a final bucket
+ * for anything further away. Timers in coarser buckets are moved to finer ones
+ * as their time approaches, and returned once it has passed.
+ * <p/>
+ * Times are in nanoseconds, from the same source as {@link System#nanoTime()},
+ * and are only ever compared by their difference. Not thread-safe.
+ */
+class TimerWheel<K> {
+
+  private static final int[] buckets = { 64, 64, 32, 4, 1 };
+  private static final long[] spans = {
+        ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)),
+        ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)),
+        ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),
+        ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+        buckets[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+        buckets[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1))
+  };
+  private static final int[] shifts = new int[spans.length];
+
+  static {
+    for (int i = 0; i < spans.length; i++) {
+      shifts[i] = Long.numberOfTrailingZeros(spans[i]);
+    }
+  }
+
+  private final Timer<K>[][] wheel;
+  private long now;
+
+  @SuppressWarnings("unchecked")
+  TimerWheel(long now) {
+    this.now = now;
+    wheel = (Timer<K>[][])new Timer<?>[buckets.length][];
+    for (int i = 0; i < buckets.length; i++) {
+      wheel[i] = (Timer<K>[])new Timer<?>[buckets[i]];
+      for (int j = 0; j < buckets[i]; j++) {
+        wheel[i][j] = new Timer<>(null, 0);
+      }
+    }
+  }
+
+  private static long ceilingPowerOfTwo(long n) {
+    return 1L << -Long.numberOfLeadingZeros(n - 1);
+  }
+
+  /**
+   * A key to expire at a given time, linked into a bucket of the wheel.
+   */
+  static class Timer<K> {
+    final K key;
+    final long time;
+    Timer<K> previous = this;
+    Timer<K> next = this;
+
+    Timer(K key, long time) {
+      this.key = key;
+      this.time = time;
+    }
+  }
+
+  void schedule(Timer<K> timer) {
+    Timer<K> sentinel = bucket(timer.time);
+    timer.previous = sentinel.previous;
+    timer.next = sentinel;
+    sentinel.previous.next = timer;
+    sentinel.previous = timer;
+  }
+
+  void cancel(Timer<K> timer) {
+    timer.previous.next = timer.next;
+    timer.next.previous = timer.previous;
+    timer.previous = timer;
+    timer.next = timer;
+  }
+
+  private Timer<K> bucket(long time) {
+    long duration = time - now;
+    int last = wheel.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (duration < spans[i + 1]) {
+        long ticks = time >>> shifts[i];
+        return wheel[i][(int)(ticks & (wheel[i].length - 1))];
+      }
+    }
+    return wheel[last][0];
+  }
+
+  /**
+   * Advance the time of the wheel, removing the timers whose time has passed.
+   *
+   * @return timers that have expired, which are no longer scheduled.
+   */
+  List<Timer<K>> advance(long time) {
+    List<Timer<K>> expired = new ArrayList<>();
+    long previous = now;
+    now = time;
+    for (int i = 0; i < wheel.length; i++) {
+      long previousTicks = previous >>> shifts[i];
+      long currentTicks = time >>> shifts[i];
+      if (currentTicks - previousTicks <= 0) {
+        break;
+      }
+      expire(i, previousTicks, currentTicks - previousTicks, expired);
+    }
+    return expired;
+  }
+
+  /**
+   * Visit the buckets of a level that have been passed over, including the
+   * bucket of the previous time, which may hold timers due within it.
+   */
+  private void expire(int level, long previousTicks, long delta, List<Timer<K>> expired) {
+    Timer<K>[] sentinels = wheel[level];
+    int mask = sentinels.length - 1;
+    int steps = (int)Math.min(1 + delta, sentinels.length);
+    int start = (int)(previousTicks & mask);
+    for (int i = start; i < start + steps; i++) {
+      Timer<K> sentinel = sentinels[i & mask];
+      Timer<K> timer = sentinel.next;
+      sentinel.previous = sentinel;
+      sentinel.next = sentinel;
+
+      while (timer != sentinel) {
+        Timer<K> next = timer.next;
+        timer.previous = timer;
+        timer.next = timer;
+        if (timer.time - now <= 0) {
+          expired.add(timer);
+        } else {
+          schedule(timer);
+        }
+        timer = next;
+      }
+    }
+  }
+
+}
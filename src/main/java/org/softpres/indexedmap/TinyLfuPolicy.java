@@ -0,0 +1,102 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.softpres.indexedmap.LruPolicy.eldest;
+
+/**
+ * Window TinyLFU eviction. New keys enter an LRU window of about 1% of the
+ * maximum size. Keys pushed out of the window enter the main space while it
+ * has room, and otherwise become candidates for it. The main space is a
+ * segmented LRU of probation and protected keys. When
+ * evicting, the eldest candidate competes against the eldest probation key,
+ * and the one with the lower estimated frequency is evicted, so a burst of
+ * keys used only once cannot flush out the frequently used keys.
+ */
+class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+
+  private final Map<K, Boolean> window = accessOrdered();
+  private final Map<K, Boolean> candidates = accessOrdered();
+  private final Map<K, Boolean> probation = accessOrdered();
+  private final Map<K, Boolean> protect = accessOrdered();
+
+  private final FrequencySketch sketch;
+  private final int windowSize;
+  private final int mainSize;
+  private final int protectedSize;
+
+  TinyLfuPolicy(int maximumSize) {
+    sketch = new FrequencySketch(maximumSize);
+    windowSize = Math.max(1, maximumSize / 100);
+    mainSize = maximumSize - windowSize;
+    protectedSize = mainSize * 4 / 5;
+  }
+
+  private static <K> Map<K, Boolean> accessOrdered() {
+    return new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  @Override
+  public void add(K key) {
+    sketch.increment(key);
+    window.put(key, Boolean.TRUE);
+    if (window.size() > windowSize) {
+      K candidate = eldest(window);
+      window.remove(candidate);
+      if (probation.size() + protect.size() < mainSize) {
+        probation.put(candidate, Boolean.TRUE);
+      } else {
+        candidates.put(candidate, Boolean.TRUE);
+      }
+    }
+  }
+
+  @Override
+  public void access(K key) {
+    sketch.increment(key);
+    if (window.get(key) != null || candidates.get(key) != null || protect.get(key) != null) {
+      return;
+    }
+    if (probation.remove(key) != null) {
+      protect.put(key, Boolean.TRUE);
+      if (protect.size() > protectedSize) {
+        K demoted = eldest(protect);
+        protect.remove(demoted);
+        probation.put(demoted, Boolean.TRUE);
+      }
+    }
+  }
+
+  @Override
+  public void remove(K key) {
+    if (window.remove(key) == null && candidates.remove(key) == null && probation.remove(key) == null) {
+      protect.remove(key);
+    }
+  }
+
+  /**
+   * A candidate that wins is admitted to probation straight away, leaving its
+   * opponent to be evicted.
+   */
+  @Override
+  public K victim() {
+    K victim = eldest(probation);
+    if (victim == null) {
+      victim = eldest(protect);
+    }
+    K candidate = eldest(candidates);
+    if (candidate == null) {
+      return victim != null ? victim : eldest(window);
+    }
+    if (victim == null || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+      return candidate;
+    }
+    candidates.remove(candidate);
+    probation.put(candidate, Boolean.TRUE);
+    return victim;
+  }
+
+}
@@ -3,9 +3,12 @@
 package org.softpres.indexedmap;
 
 import java.util.AbstractSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 /**
  * We don't want mutable entries mucking up the index, so for now, do not
@@ -24,11 +27,56 @@ class UnmodifiableEntrySet<K, V> extends AbstractSet<Entry<K, V>> {
     return new UnmodifiableIterable<>(entries.iterator());
   }
 
+  /** Splits as well as the underlying entries, for parallel streams. */
+  @Override
+  public Spliterator<Entry<K, V>> spliterator() {
+    return new UnmodifiableSpliterator<>(entries.spliterator());
+  }
+
   @Override
   public int size() {
     return entries.size();
   }
 
+  private static class UnmodifiableSpliterator<K, V> implements Spliterator<Entry<K, V>> {
+    private final Spliterator<Entry<K, V>> spliterator;
+
+    public UnmodifiableSpliterator(Spliterator<Entry<K, V>> spliterator) {
+      this.spliterator = spliterator;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+      return spliterator.tryAdvance(entry -> action.accept(new UnmodifiableEntry<>(entry)));
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Entry<K, V>> action) {
+      spliterator.forEachRemaining(entry -> action.accept(new UnmodifiableEntry<>(entry)));
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> trySplit() {
+      Spliterator<Entry<K, V>> split = spliterator.trySplit();
+      return split == null ? null : new UnmodifiableSpliterator<>(split);
+    }
+
+    @Override
+    public long estimateSize() {
+      return spliterator.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+      return spliterator.characteristics();
+    }
+
+    @Override
+    public Comparator<? super Entry<K, V>> getComparator() {
+      return spliterator.getComparator();
+    }
+  }
+
   private static class UnmodifiableIterable<K, V> implements Iterator<Entry<K, V>> {
     private final Iterator<Entry<K, V>> iterator;
 
@@ -2,10 +2,14 @@
 
 package org.softpres.indexedmap;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
 
 /**
  * An indexed map that cannot be modified.
@@ -17,7 +21,49 @@ public class UnmodifiableIndexedMap<K, V> extends DispatchedIndexedMap<K, V> {
   }
 
   @Override
-  public <I> Function<I, Map<K, V>> addIndex(BiFunction<K, V, Iterable<I>> view) {
+  public <I> Index<I, K, V> addIndex(BiFunction<K, V, Iterable<I>> view) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <I> Index<I, K, V> addLazyIndex(BiFunction<K, V, Iterable<I>> view) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <I> Index<I, K, V> addLazyIndex(
+        BiFunction<K, V, Iterable<I>> view,
+        Duration idleTimeout,
+        ScheduledExecutorService scheduler) {
+
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <I> AsyncIndex<I, K, V> addAsyncIndex(BiFunction<K, V, Iterable<I>> view, Executor executor) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public TextIndex<K, V> addTextIndex(
+        BiFunction<K, V, String> text,
+        Function<String, ? extends Iterable<String>> tokenizer) {
+
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public BitmapIndices<K, V> addBitmapIndices() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public SpatialIndex<K, V> addSpatialIndex(ToDoubleBiFunction<K, V> x, ToDoubleBiFunction<K, V> y) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <R> MaterializedView<K, R> materialize(BiFunction<? super K, ? super V, ? extends R> mapping) {
     throw new UnsupportedOperationException();
   }
 
@@ -66,6 +112,11 @@ public class UnmodifiableIndexedMap<K, V> extends DispatchedIndexedMap<K, V> {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m, boolean parallel) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public V putIfAbsent(K key, V value) {
     throw new UnsupportedOperationException();
@@ -96,4 +147,9 @@ public class UnmodifiableIndexedMap<K, V> extends DispatchedIndexedMap<K, V> {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function, boolean parallel) {
+    throw new UnsupportedOperationException();
+  }
+
 }
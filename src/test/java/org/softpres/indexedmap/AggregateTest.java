@@ -0,0 +1,143 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for aggregates maintained alongside an {@link Index}.
+ */
+@RunWith(Parameterized.class)
+public class AggregateTest {
+
+  private static final Comparator<Animal> byName = Comparator.comparing(a -> a.name);
+
+  private final IndexedMap<Id, Animal> map;
+  private final Index<String, Id, Animal> byFood;
+
+  public AggregateTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    byFood = map.addIndex((id, a) -> a.foods);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().partitions(4).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().ordinalStorage().build() }
+    });
+  }
+
+  @Test
+  public void aggregateIncludesExistingEntries() {
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+
+    assertThat(count.get("biscuits")).isEqualTo(2);
+    assertThat(count.get("fish")).isEqualTo(1);
+  }
+
+  @Test
+  public void aggregateOfKeyWithoutEntriesIsIdentity() {
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+    Aggregate<String, Optional<Animal>> first = byFood.aggregate(Aggregators.min(byName));
+
+    assertThat(count.get("worm")).isEqualTo(0);
+    assertThat(first.get("worm").isPresent()).isFalse();
+  }
+
+  @Test
+  public void sumIsMaintainedOnChanges() {
+    Aggregate<String, Long> legs = byFood.aggregate(Aggregators.sumLong(a -> a.legs));
+
+    map.insert(bird.id, bird);
+    map.insert(fish.id, fish);
+    map.insert(dog.id, woundedDog);
+
+    assertThat(legs.get("water")).isEqualTo(4 + 2 + 0);
+    assertThat(legs.get("biscuits")).isEqualTo(4);
+    assertThat(legs.get("medicine")).isEqualTo(3);
+  }
+
+  @Test
+  public void valueReplacedInPlaceIsReaggregated() {
+    Aggregate<String, Double> legs = byFood.aggregate(Aggregators.sumDouble(a -> a.legs));
+    Animal threeLeggedCat = new Animal(cat.id, cat.name, 3, cat.foods);
+
+    map.insert(cat.id, threeLeggedCat);
+
+    assertThat(legs.get("fish")).isEqualTo(3.0);
+    assertThat(legs.get("water")).isEqualTo(7.0);
+  }
+
+  @Test
+  public void minAndMaxAreRecalculatedWhenRemoved() {
+    Aggregate<String, Optional<Animal>> first = byFood.aggregate(Aggregators.min(byName));
+    Aggregate<String, Optional<Animal>> last = byFood.aggregate(Aggregators.max(byName));
+    map.insert(cow.id, cow);
+
+    assertThat(first.get("water").get()).isEqualTo(cat);
+    assertThat(last.get("water").get()).isEqualTo(dog);
+
+    map.delete(cat.id);
+    map.delete(dog.id);
+
+    assertThat(first.get("water").get()).isEqualTo(cow);
+    assertThat(last.get("water").get()).isEqualTo(cow);
+  }
+
+  @Test
+  public void userDefinedAggregateWithoutRemovalIsRecalculated() {
+    Aggregate<String, Set<String>> names = byFood.aggregate(Aggregators.of(
+          Collections.<String>emptySet(),
+          (set, a) -> {
+            Set<String> result = new TreeSet<>(set);
+            result.add(a.name);
+            return result;
+          }));
+
+    map.insert(cow.id, cow);
+    map.delete(dog.id);
+
+    assertThat(names.get("water")).containsExactly("Cat", "Cow");
+    assertThat(names.get("rabbit")).isEmpty();
+  }
+
+  @Test
+  public void aggregateIsClearedWithMap() {
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+
+    map.clear();
+    map.insert(cow.id, cow);
+
+    assertThat(count.get("water")).isEqualTo(1);
+    assertThat(count.get("biscuits")).isEqualTo(0);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void aggregateOfDroppedIndexCannotBeQueried() {
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+
+    byFood.drop();
+
+    count.get("water");
+  }
+
+}
@@ -0,0 +1,95 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run 100k concurrent clients, each making a series of read-modify-write
+ * requests, against a map shared using the default lock from a pool of
+ * blocking threads, and against a single writer using the non-blocking
+ * {@link AsyncIndexedMap} methods, where each client is a chain of
+ * {@link CompletionStage}s rather than a thread of its own.
+ */
+public class AsyncClientsBenchmark {
+
+  private static final int clients = 100_000;
+  private static final int requestsPerClient = 10;
+  private static final int keys = 10_000;
+  private static final int poolThreads = 200;
+
+  private static IndexedMap<Integer, Long> index(IndexedMap<Integer, Long> map) {
+    map.addIndex((k, v) -> Collections.singleton(v % 10));
+    return map;
+  }
+
+  private static long blocking() throws InterruptedException {
+    IndexedMap<Integer, Long> map = index(new IndexedMapBuilder<Integer, Long>()
+          .primary(new HashMap<>(keys * 2))
+          .build());
+    ExecutorService pool = Executors.newFixedThreadPool(poolThreads);
+
+    long begin = System.currentTimeMillis();
+    for (int c = 0; c < clients; c++) {
+      int client = c;
+      pool.execute(() -> {
+        for (int r = 0; r < requestsPerClient; r++) {
+          int key = (client + r) % keys;
+          map.merge(key, 1L, Long::sum);
+        }
+      });
+    }
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.MINUTES);
+    return System.currentTimeMillis() - begin;
+  }
+
+  private static long async() {
+    IndexedMapBuilder<Integer, Long> builder = new IndexedMapBuilder<Integer, Long>()
+          .primary(new HashMap<>(keys * 2));
+
+    try (SingleWriterMap<Integer, Long> writer = builder.buildSingleWriter(clients * 2)) {
+      writer.update(AsyncClientsBenchmark::index).join();
+
+      long begin = System.currentTimeMillis();
+      List<CompletableFuture<?>> done = new ArrayList<>(clients);
+      for (int c = 0; c < clients; c++) {
+        done.add(request(writer, c, 0).toCompletableFuture());
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[clients])).join();
+      return System.currentTimeMillis() - begin;
+    }
+  }
+
+  private static CompletionStage<?> request(AsyncIndexedMap<Integer, Long> map, int client, int r) {
+    if (r == requestsPerClient) {
+      return CompletableFuture.completedFuture(null);
+    }
+    int key = (client + r) % keys;
+    return map.updateAsync(m -> m.merge(key, 1L, Long::sum))
+          .thenCompose(count -> request(map, client, r + 1));
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    long total = (long)clients * requestsPerClient;
+
+    for (int pass = 0; pass < 3; pass++) {
+      long blockingElapsed = blocking();
+      long asyncElapsed = async();
+
+      System.out.printf("%d clients, blocking pool of %d: %4.3f usec/request, async: %4.3f usec/request\n",
+            clients, poolThreads, blockingElapsed * 1000.0 / total, asyncElapsed * 1000.0 / total);
+    }
+
+    System.out.println("Done");
+  }
+
+}
@@ -0,0 +1,188 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for indices added with {@link IndexedMap#addAsyncIndex}.
+ */
+public class AsyncIndexTest {
+
+  private final IndexedMap<Id, Animal> map = new IndexedMapBuilder<Id, Animal>().build();
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+
+  @Test
+  public void indexReflectsExistingEntries() {
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+
+    assertThat(byFood.apply("biscuits")).containsOnly(entry(dog.id, dog), entry(cat.id, cat));
+    assertThat(byFood.lag()).isEqualTo(0);
+  }
+
+  @Test
+  public void changesAreAppliedByExecutor() {
+    map.insert(dog.id, dog);
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+
+    map.insert(cow.id, cow);
+    map.delete(dog.id);
+
+    assertThat(byFood.apply("water")).containsOnly(entry(dog.id, dog));
+    assertThat(byFood.lag()).isEqualTo(2);
+
+    runTasks();
+
+    assertThat(byFood.apply("water")).containsOnly(entry(cow.id, cow));
+    assertThat(byFood.contains("biscuits")).isFalse();
+    assertThat(byFood.lag()).isEqualTo(0);
+  }
+
+  @Test
+  public void viewFunctionIsNotRunByWriters() {
+    AtomicInteger viewed = new AtomicInteger();
+    map.addAsyncIndex((id, a) -> {
+      viewed.incrementAndGet();
+      return a.foods;
+    }, tasks::add);
+
+    map.insert(dog.id, dog);
+    map.insert(dog.id, woundedDog);
+    assertThat(viewed.get()).isEqualTo(0);
+
+    runTasks();
+    assertThat(viewed.get()).isGreaterThan(0);
+  }
+
+  @Test
+  public void changesAreAppliedInBatches() {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    map.insert(dog.id, woundedDog);
+
+    assertThat(tasks).hasSize(1);
+    runTasks();
+
+    assertThat(byFood.apply("medicine")).containsOnly(entry(dog.id, woundedDog));
+    assertThat(byFood.apply("biscuits")).containsOnly(entry(cat.id, cat));
+  }
+
+  @Test
+  public void awaitCatchUpTimesOutWhileBehind() throws InterruptedException {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+    map.insert(dog.id, dog);
+
+    assertThat(byFood.awaitCatchUp(Duration.ofMillis(1))).isFalse();
+
+    runTasks();
+
+    assertThat(byFood.awaitCatchUp(Duration.ofMillis(1))).isTrue();
+  }
+
+  @Test
+  public void changeThatViewFailsOnIsCountedAndReported() throws InterruptedException {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> {
+      if (a == cat) {
+        throw new IllegalArgumentException("Cannot index cat");
+      }
+      return a.foods;
+    }, tasks::add);
+    map.insert(cat.id, cat);
+    map.insert(dog.id, dog);
+
+    runTasks();
+
+    assertThat(byFood.lag()).isEqualTo(0);
+    assertThat(byFood.awaitCatchUp(Duration.ofMillis(1))).isTrue();
+    assertThat(byFood.lastFailure().get()).hasMessage("Cannot index cat");
+    assertThat(byFood.apply("rabbit")).containsOnly(entry(dog.id, dog));
+  }
+
+  @Test
+  public void entryThatViewFailsOnIsNotLeftIndexedUnderPreviousValue() {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> {
+      if (a == woundedDog) {
+        throw new IllegalArgumentException("Cannot index wounded dog");
+      }
+      return a.foods;
+    }, tasks::add);
+    map.insert(dog.id, dog);
+    runTasks();
+
+    map.insert(dog.id, woundedDog);
+    runTasks();
+
+    assertThat(byFood.lastFailure().get()).hasMessage("Cannot index wounded dog");
+    assertThat(byFood.apply("rabbit")).isEmpty();
+  }
+
+  @Test
+  public void awaitCatchUpSeesOwnWrites() throws InterruptedException {
+    IndexedMap<Integer, Integer> numbers = new IndexedMapBuilder<Integer, Integer>().build();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncIndex<Integer, Integer, Integer> byTens =
+            numbers.addAsyncIndex((k, v) -> singleton(v / 10), executor);
+
+      for (int i = 0; i < 1000; i++) {
+        numbers.insert(i, i);
+      }
+
+      assertThat(byTens.awaitCatchUp(Duration.ofSeconds(10))).isTrue();
+      assertThat(byTens.lag()).isEqualTo(0);
+      assertThat(byTens.distinctKeys()).hasSize(100);
+      assertThat(byTens.count(42)).isEqualTo(10);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void aggregateIsMaintainedAsynchronously() {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+
+    map.insert(dog.id, dog);
+    map.insert(cow.id, cow);
+    assertThat(count.get("water")).isEqualTo(0);
+
+    runTasks();
+    assertThat(count.get("water")).isEqualTo(2);
+  }
+
+  @Test
+  public void droppedIndexIsNoLongerMaintained() {
+    AsyncIndex<String, Id, Animal> byFood = map.addAsyncIndex((id, a) -> a.foods, tasks::add);
+    byFood.drop();
+
+    map.insert(dog.id, dog);
+
+    assertThat(tasks).isEmpty();
+  }
+
+}
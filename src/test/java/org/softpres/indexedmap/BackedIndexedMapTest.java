@@ -0,0 +1,336 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+
+/**
+ * Unit tests for maps built with a read-through {@link Loader} and/or a
+ * write-behind {@link BackingStore}.
+ */
+public class BackedIndexedMapTest {
+
+  /** In-memory store, recording the loads and batches written. */
+  private static class MemoryStore implements Loader<Integer, String>, BackingStore<Integer, String> {
+    private final Map<Integer, String> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<Map<Integer, String>> batches = new ArrayList<>();
+
+    @Override
+    public String load(Integer key) {
+      loads.incrementAndGet();
+      return entries.get(key);
+    }
+
+    @Override
+    public void write(Map<Integer, String> inserts, Set<Integer> deletes) {
+      Map<Integer, String> batch = new LinkedHashMap<>(inserts);
+      deletes.forEach(key -> batch.put(key, null));
+      batches.add(batch);
+      entries.putAll(inserts);
+      entries.keySet().removeAll(deletes);
+    }
+  }
+
+  private final MemoryStore store = new MemoryStore();
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  private IndexedMapBuilder<Integer, String> builder() {
+    return new IndexedMapBuilder<Integer, String>()
+          .readThrough(store)
+          .writeBehind(store, tasks::add);
+  }
+
+  @Test
+  public void missingKeyIsLoadedAndIndexed() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().build();
+    Index<Integer, Integer, String> byLength = map.addIndex((k, v) -> singleton(v.length()));
+
+    assertThat(map.select(1).get()).isEqualTo("one");
+    assertThat(map.get(1)).isEqualTo("one");
+    assertThat(byLength.apply(3)).containsOnlyKeys(1);
+    assertThat(store.loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void keyMissingFromStoreIsNotInserted() {
+    IndexedMap<Integer, String> map = builder().build();
+
+    assertThat(map.select(1).isPresent()).isFalse();
+    assertThat(map.containsKey(1)).isFalse();
+    assertThat(map).isEmpty();
+  }
+
+  @Test
+  public void concurrentMissesLoadOnce() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger loads = new AtomicInteger();
+    IndexedMap<Integer, String> map = new IndexedMapBuilder<Integer, String>()
+          .readThrough(key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+              release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+            return "loaded";
+          })
+          .build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<String>> reads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      reads.add(executor.submit(() -> map.get(1)));
+    }
+    loading.await(5, TimeUnit.SECONDS);
+    Thread.sleep(50);
+    release.countDown();
+
+    for (Future<String> read : reads) {
+      assertThat(read.get(5, TimeUnit.SECONDS)).isEqualTo("loaded");
+    }
+    executor.shutdown();
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void loadFailureIsThrownToReader() {
+    IndexedMap<Integer, String> map = new IndexedMapBuilder<Integer, String>()
+          .readThrough(key -> { throw new IllegalStateException("Store unavailable"); })
+          .build();
+
+    map.get(1);
+  }
+
+  @Test
+  public void writesAreWrittenToStoreInBatches() {
+    IndexedMap<Integer, String> map = builder().build();
+
+    map.insert(1, "one");
+    map.insert(2, "two");
+    map.insert(1, "uno");
+    map.delete(2);
+    map.merge(3, "three", (a, b) -> a + b);
+    runTasks();
+
+    assertThat(store.batches).hasSize(1);
+    assertThat(store.batches.get(0)).containsEntry(1, "uno").containsEntry(2, null).containsEntry(3, "three");
+    assertThat(store.entries).containsOnly(entry(1, "uno"), entry(3, "three"));
+  }
+
+  @Test
+  public void loadedValuesAreNotWrittenBack() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().build();
+
+    map.get(1);
+    runTasks();
+
+    assertThat(store.batches).isEmpty();
+  }
+
+  @Test
+  public void loadIsPublishedWithItsOrigin() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().build();
+    List<Change<Integer, String>> changes = new ArrayList<>();
+    map.subscribe(changes::addAll, Runnable::run);
+
+    map.get(1);
+    map.put(2, "two");
+
+    assertThat(changes).hasSize(2);
+    assertThat(changes.get(0).origin()).isEqualTo(Change.Origin.LOADED);
+    assertThat(changes.get(1).origin()).isEqualTo(Change.Origin.WRITTEN);
+  }
+
+  @Test
+  public void mergeOfKeyOnlyInStoreCombinesWithStoredValue() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().build();
+
+    assertThat(map.merge(1, " more", String::concat)).isEqualTo("one more");
+    runTasks();
+
+    assertThat(store.entries).containsOnly(entry(1, "one more"));
+  }
+
+  @Test
+  public void computeOfKeyOnlyInStoreSeesStoredValue() {
+    store.entries.put(1, "one");
+    store.entries.put(2, "two");
+    IndexedMap<Integer, String> map = builder().build();
+
+    assertThat(map.compute(1, (k, v) -> v == null ? "none" : v + "!")).isEqualTo("one!");
+    assertThat(map.computeIfPresent(2, (k, v) -> v + "!")).isEqualTo("two!");
+    runTasks();
+
+    assertThat(store.entries).containsOnly(entry(1, "one!"), entry(2, "two!"));
+  }
+
+  @Test
+  public void conditionalWritesOfKeyOnlyInStoreSeeStoredValue() {
+    store.entries.put(1, "one");
+    store.entries.put(2, "two");
+    IndexedMap<Integer, String> map = builder().build();
+
+    assertThat(map.putIfAbsent(1, "uno")).isEqualTo("one");
+    assertThat(map.replace(2, "dos")).isEqualTo("two");
+    runTasks();
+
+    assertThat(store.entries).containsOnly(entry(1, "one"), entry(2, "dos"));
+  }
+
+  @Test
+  public void pendingWriteIsLoadedRatherThanStaleStoreValue() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().maximumSize(1, Eviction.LRU).build();
+
+    map.insert(1, "uno");
+    map.insert(2, "two");
+
+    assertThat(map.get(1)).isEqualTo("uno");
+    assertThat(store.loads.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void evictedEntriesAreNotDeletedFromStore() {
+    IndexedMap<Integer, String> map = builder().maximumSize(1, Eviction.LRU).build();
+
+    map.insert(1, "one");
+    map.insert(2, "two");
+    runTasks();
+
+    assertThat(map).hasSize(1);
+    assertThat(store.entries).containsOnly(entry(1, "one"), entry(2, "two"));
+    assertThat(map.get(1)).isEqualTo("one");
+  }
+
+  @Test
+  public void deleteOfKeyOnlyInStoreIsWritten() {
+    store.entries.put(1, "one");
+    IndexedMap<Integer, String> map = builder().build();
+
+    assertThat(map.delete(1).isPresent()).isFalse();
+    runTasks();
+
+    assertThat(store.entries).isEmpty();
+    assertThat(map.select(1).isPresent()).isFalse();
+  }
+
+  @Test
+  public void concurrentWritesReachStoreInTheOrderMadeToMap() throws Exception {
+    CountDownLatch unlocked = new CountDownLatch(1);
+    CountDownLatch resume = new CountDownLatch(1);
+    Queue<Runnable> queued = new ConcurrentLinkedQueue<>();
+    IndexedMap<Integer, String> map = new IndexedMapBuilder<Integer, String>()
+          .lockStrategy(new PausingLock(unlocked, resume))
+          .writeBehind(store, queued::add)
+          .build();
+
+    // The first write is paused just after releasing the lock, so the second
+    // write to the same key completes in between
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> first = executor.submit(() -> map.put(1, "first"));
+    unlocked.await(5, TimeUnit.SECONDS);
+    map.put(1, "second");
+    resume.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    executor.shutdown();
+    queued.forEach(Runnable::run);
+
+    assertThat(map.get(1)).isEqualTo("second");
+    assertThat(store.entries).containsOnly(entry(1, "second"));
+  }
+
+  /** Lock that pauses the first thread to release the write lock. */
+  private static class PausingLock implements ReadWriteLock {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final CountDownLatch unlocked;
+    private final CountDownLatch resume;
+
+    PausingLock(CountDownLatch unlocked, CountDownLatch resume) {
+      this.unlocked = unlocked;
+      this.resume = resume;
+    }
+
+    @Override
+    public Lock readLock() {
+      return lock.readLock();
+    }
+
+    @Override
+    public Lock writeLock() {
+      Lock writeLock = lock.writeLock();
+      return new Lock() {
+        @Override
+        public void lock() {
+          writeLock.lock();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+          writeLock.lockInterruptibly();
+        }
+
+        @Override
+        public boolean tryLock() {
+          return writeLock.tryLock();
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+          return writeLock.tryLock(time, unit);
+        }
+
+        @Override
+        public void unlock() {
+          writeLock.unlock();
+          if (paused.compareAndSet(false, true)) {
+            unlocked.countDown();
+            try {
+              resume.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+
+        @Override
+        public Condition newCondition() {
+          return writeLock.newCondition();
+        }
+      };
+    }
+  }
+
+  private void runTasks() {
+    List<Runnable> toRun = new ArrayList<>(tasks);
+    tasks.clear();
+    toRun.forEach(Runnable::run);
+  }
+
+}
@@ -0,0 +1,187 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for {@link BitmapIndices} and {@link BitmapIndex}.
+ */
+@RunWith(Parameterized.class)
+public class BitmapIndexTest {
+
+  private final IndexedMap<Id, Animal> map;
+  private final BitmapIndices<Id, Animal> bitmaps;
+  private final BitmapIndex<String, Id, Animal> byFood;
+  private final BitmapIndex<Integer, Id, Animal> byLegs;
+
+  public BitmapIndexTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    map.insert(bird.id, bird);
+    bitmaps = map.addBitmapIndices();
+    byFood = bitmaps.addIndex((id, a) -> a.foods);
+    byLegs = bitmaps.addIndex((id, a) -> singleton(a.legs));
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().partitions(4).build() }
+    });
+  }
+
+  @Test
+  public void lookupIncludesExistingEntries() {
+    assertThat(byFood.apply("biscuits")).isEqualTo(map(dog, cat));
+    assertThat(byFood.count("water")).isEqualTo(3);
+    assertThat(byLegs.distinctKeys()).containsOnly(2, 4);
+  }
+
+  @Test
+  public void bitmapsOfIndicesCanBeCombined() {
+    assertThat(bitmaps.query(() -> byFood.bitmap("water").and(byLegs.bitmap(4)).andNot(byFood.bitmap("fish"))))
+          .isEqualTo(map(dog));
+    assertThat(bitmaps.query(() -> byFood.bitmap("fish").or(byLegs.bitmap(2))).keySet())
+          .containsOnly(cat.id, bird.id);
+    assertThat(bitmaps.query(() -> bitmaps.all().andNot(byLegs.bitmap(4)))).isEqualTo(map(bird));
+  }
+
+  @Test
+  public void bitmapWithinQueryIsNotCopied() {
+    List<Bitmap> looked = new ArrayList<>();
+    bitmaps.query(() -> {
+      looked.add(byFood.bitmap("water"));
+      looked.add(byFood.bitmap("water"));
+      return looked.get(0);
+    });
+
+    assertThat(looked.get(0)).isSameAs(looked.get(1));
+  }
+
+  @Test
+  public void bitmapOutsideQueryIsUnaffectedByLaterChanges() {
+    Bitmap water = byFood.bitmap("water");
+    Bitmap all = bitmaps.all();
+
+    map.delete(dog.id);
+
+    assertThat(water.cardinality()).isEqualTo(3);
+    assertThat(all.cardinality()).isEqualTo(3);
+  }
+
+  @Test
+  public void queryNeverSeesOrdinalsReusedByConcurrentWrites() throws Exception {
+    IndexedMap<Integer, Integer> numbers = new IndexedMapBuilder<Integer, Integer>().build();
+    BitmapIndices<Integer, Integer> numberBitmaps = numbers.addBitmapIndices();
+    BitmapIndex<Boolean, Integer, Integer> byEven = numberBitmaps.addIndex((k, v) -> singleton(v % 2 == 0));
+    for (int i = 0; i < 1000; i++) {
+      numbers.put(i, i * 2);
+    }
+
+    // Each even entry deleted is replaced by an odd one, reusing its ordinal
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; !done.get(); i = (i + 1) % 1000) {
+        numbers.delete(i);
+        numbers.put(i + 1000, i * 2 + 1);
+        numbers.delete(i + 1000);
+        numbers.put(i, i * 2);
+      }
+    });
+    writer.start();
+    try {
+      for (int q = 0; q < 200; q++) {
+        for (Integer value : numberBitmaps.query(() -> byEven.bitmap(true)).values()) {
+          assertThat(value % 2).isEqualTo(0);
+        }
+      }
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+  }
+
+  @Test
+  public void indexIsMaintainedOnChanges() {
+    map.insert(cow.id, cow);
+    map.insert(dog.id, woundedDog);
+    map.delete(cat.id);
+
+    assertThat(byFood.apply("water").keySet()).containsOnly(bird.id, cow.id);
+    assertThat(byFood.apply("medicine")).isEqualTo(map(woundedDog));
+    assertThat(byFood.distinctKeys()).doesNotContain("fish", "biscuits");
+    assertThat(byLegs.apply(3)).isEqualTo(map(woundedDog));
+  }
+
+  @Test
+  public void ordinalsOfRemovedEntriesAreReused() {
+    map.delete(dog.id);
+    map.insert(sheep.id, sheep);
+
+    assertThat(bitmaps.all().cardinality()).isEqualTo(3);
+    assertThat(bitmaps.all().toArray()).containsOnly(0, 1, 2);
+    assertThat(byFood.apply("grass")).isEqualTo(map(sheep));
+  }
+
+  @Test
+  public void indexAddedLaterIncludesExistingEntries() {
+    map.insert(fish.id, fish);
+
+    BitmapIndex<String, Id, Animal> byName = bitmaps.addIndex((id, a) -> singleton(a.name));
+
+    assertThat(byName.apply("Fish")).isEqualTo(map(fish));
+  }
+
+  @Test
+  public void clearRemovesEveryEntry() {
+    map.clear();
+
+    assertThat(byFood.distinctKeys()).isEmpty();
+    assertThat(bitmaps.all().isEmpty()).isTrue();
+  }
+
+  @Test
+  public void cachedQueryIsInvalidatedByAnyChange() {
+    QueryCache<Integer, Integer> counts = new QueryCache<>(legs -> byLegs.apply(legs).size());
+    assertThat(counts.get(4)).isEqualTo(2);
+
+    map.insert(cow.id, cow);
+
+    assertThat(counts.get(4)).isEqualTo(3);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeQueried() {
+    byFood.drop();
+
+    byFood.count("water");
+  }
+
+  @Test
+  public void droppedIndexIsNoLongerMaintained() {
+    byFood.drop();
+    map.insert(cow.id, cow);
+
+    assertThat(byLegs.count(4)).isEqualTo(3);
+  }
+
+}
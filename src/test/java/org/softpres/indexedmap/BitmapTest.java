@@ -0,0 +1,127 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.BinaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link Bitmap}, checked against {@link TreeSet} for sparse
+ * and dense sets of ints, so both kinds of container are covered.
+ */
+public class BitmapTest {
+
+  private final Random random = new Random(42);
+
+  private Set<Integer> randomSet(int count, int range) {
+    Set<Integer> set = new TreeSet<>();
+    while (set.size() < count) {
+      set.add(random.nextInt(range));
+    }
+    return set;
+  }
+
+  private static Bitmap bitmap(Set<Integer> set) {
+    Bitmap bitmap = new Bitmap();
+    set.forEach(bitmap::add);
+    return bitmap;
+  }
+
+  private static List<Integer> list(Bitmap bitmap) {
+    List<Integer> list = new ArrayList<>();
+    bitmap.forEach(list::add);
+    return list;
+  }
+
+  @Test
+  public void addedValuesAreContainedInOrder() {
+    Set<Integer> values = randomSet(20_000, 200_000);
+    Bitmap bitmap = bitmap(values);
+
+    assertThat(list(bitmap)).isEqualTo(new ArrayList<>(values));
+    assertThat(bitmap.cardinality()).isEqualTo(20_000);
+    for (int i = 0; i < 200_000; i += 7) {
+      assertThat(bitmap.contains(i)).isEqualTo(values.contains(i));
+    }
+  }
+
+  @Test
+  public void addAndRemoveReportChanges() {
+    Bitmap bitmap = new Bitmap();
+
+    assertThat(bitmap.add(70_000)).isTrue();
+    assertThat(bitmap.add(70_000)).isFalse();
+    assertThat(bitmap.remove(70_000)).isTrue();
+    assertThat(bitmap.remove(70_000)).isFalse();
+    assertThat(bitmap.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void removingFromDenseBitmapKeepsRemainder() {
+    Set<Integer> values = randomSet(50_000, 70_000);
+    Bitmap bitmap = bitmap(values);
+
+    for (Iterator<Integer> it = values.iterator(); it.hasNext(); ) {
+      int value = it.next();
+      if (value % 3 != 0) {
+        bitmap.remove(value);
+        it.remove();
+      }
+    }
+
+    assertThat(list(bitmap)).isEqualTo(new ArrayList<>(values));
+  }
+
+  @Test
+  public void operationsMatchSets() {
+    int[][] shapes = { { 100, 1_000_000 }, { 30_000, 100_000 }, { 60_000, 70_000 } };
+    for (int[] a : shapes) {
+      for (int[] b : shapes) {
+        Set<Integer> x = randomSet(a[0], a[1]);
+        Set<Integer> y = randomSet(b[0], b[1]);
+
+        check(x, y, Bitmap::and, (s, t) -> { s.retainAll(t); return s; });
+        check(x, y, Bitmap::or, (s, t) -> { s.addAll(t); return s; });
+        check(x, y, Bitmap::andNot, (s, t) -> { s.removeAll(t); return s; });
+      }
+    }
+  }
+
+  private void check(Set<Integer> x, Set<Integer> y,
+        BinaryOperator<Bitmap> operation, BinaryOperator<Set<Integer>> expected) {
+
+    Bitmap result = operation.apply(bitmap(x), bitmap(y));
+    Set<Integer> set = expected.apply(new TreeSet<>(x), y);
+
+    assertThat(list(result)).isEqualTo(new ArrayList<>(set));
+    assertThat(result.cardinality()).isEqualTo(set.size());
+  }
+
+  @Test
+  public void operationsLeaveOperandsUnchanged() {
+    Bitmap x = Bitmap.of(1, 2, 3);
+    Bitmap y = Bitmap.of(3, 4);
+
+    x.and(y);
+    x.or(y);
+    x.andNot(y);
+
+    assertThat(x.toArray()).containsExactly(1, 2, 3);
+    assertThat(y.toArray()).containsExactly(3, 4);
+  }
+
+  @Test
+  public void denseBitmapTakesABitPerValue() {
+    Bitmap bitmap = new Bitmap();
+    for (int i = 0; i < 1_000_000; i++) {
+      bitmap.add(i);
+    }
+
+    assertThat(bitmap.bytes()).isLessThanOrEqualTo(1_000_000 / 8 + 8192);
+  }
+
+}
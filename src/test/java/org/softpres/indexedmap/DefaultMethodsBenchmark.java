@@ -0,0 +1,102 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Compare the native implementations of the Map default methods on
+ * {@link IndexedHashMap} against the get-then-put paths of the default
+ * implementations in {@link Map}, which they replaced. The map has a
+ * secondary index so that index maintenance is included in the cost.
+ */
+public class DefaultMethodsBenchmark {
+
+  private static final int keys = 10_000;
+  private static final int ops = 20_000_000;
+
+  private final Random rand = new Random(42);
+
+  private final IndexedMap<Integer, Long> counters = new IndexedMapBuilder<Integer, Long>()
+        .primary(new HashMap<>(keys * 2))
+        .lockStrategy(new NoReadWriteLock())
+        .build();
+
+  {
+    counters.addIndex((k, v) -> Collections.singleton(v % 10));
+  }
+
+  private static void nativeMerge(IndexedMap<Integer, Long> map, Integer key) {
+    map.merge(key, 1L, Long::sum);
+  }
+
+  /** Equivalent of {@link Map#merge}, as previously inherited. */
+  private static void defaultMerge(IndexedMap<Integer, Long> map, Integer key) {
+    Long old = map.get(key);
+    Long value = old == null ? 1L : old + 1L;
+    map.put(key, value);
+  }
+
+  private static void nativeCompute(IndexedMap<Integer, Long> map, Integer key) {
+    map.compute(key, (k, v) -> v == null ? 1L : v + 1L);
+  }
+
+  /** Equivalent of {@link Map#compute}, as previously inherited. */
+  private static void defaultCompute(IndexedMap<Integer, Long> map, Integer key) {
+    Long old = map.get(key);
+    Long value = old == null ? 1L : old + 1L;
+    // Remapping never returns null here, so the remove path is not taken
+    map.put(key, value);
+  }
+
+  private static void nativePutIfAbsent(IndexedMap<Integer, Long> map, Integer key) {
+    map.putIfAbsent(key, 1L);
+  }
+
+  /** Equivalent of {@link Map#putIfAbsent}, as previously inherited. */
+  private static void defaultPutIfAbsent(IndexedMap<Integer, Long> map, Integer key) {
+    Long old = map.get(key);
+    if (old == null) {
+      map.put(key, 1L);
+    }
+  }
+
+  private long run(BiConsumer<IndexedMap<Integer, Long>, Integer> op) {
+    long begin = System.currentTimeMillis();
+    for (int i = 0; i < ops; i++) {
+      op.accept(counters, rand.nextInt(keys));
+    }
+    long end = System.currentTimeMillis();
+    return end - begin;
+  }
+
+  private void compare(String name,
+                       BiConsumer<IndexedMap<Integer, Long>, Integer> nativeOp,
+                       BiConsumer<IndexedMap<Integer, Long>, Integer> defaultOp) {
+
+    for (int pass = 0; pass < 3; pass++) {
+      counters.clear();
+      long nativeElapsed = run(nativeOp);
+      counters.clear();
+      long defaultElapsed = run(defaultOp);
+
+      System.out.printf("%-12s native: %4.3f usec/op, default: %4.3f usec/op\n",
+            name, nativeElapsed * 1000.0 / ops, defaultElapsed * 1000.0 / ops);
+    }
+  }
+
+  public static void main(String[] args) {
+    DefaultMethodsBenchmark bench = new DefaultMethodsBenchmark();
+
+    bench.compare("merge", DefaultMethodsBenchmark::nativeMerge, DefaultMethodsBenchmark::defaultMerge);
+    bench.compare("compute", DefaultMethodsBenchmark::nativeCompute, DefaultMethodsBenchmark::defaultCompute);
+    bench.compare("putIfAbsent", DefaultMethodsBenchmark::nativePutIfAbsent, DefaultMethodsBenchmark::defaultPutIfAbsent);
+
+    System.out.println("Done");
+  }
+
+}
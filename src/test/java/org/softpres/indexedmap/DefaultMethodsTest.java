@@ -133,6 +133,76 @@ public class DefaultMethodsTest {
     assertThat(odds).isEqualTo(set(3, 5));
   }
 
+  @Test
+  public void replaceAllInParallelUpdatesValuesAndIndexes() {
+    for (int i = 0; i < 1000; i++) {
+      map.put("key" + i, i);
+    }
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.replaceAll((k, v) -> v + 1, true);
+
+    assertThat(map.get("key0")).isEqualTo(1);
+    assertThat(map.get("key999")).isEqualTo(1000);
+    assertThat(evenOrOdd.apply(true)).hasSize(500).containsKey("key1");
+    assertThat(evenOrOdd.apply(false)).hasSize(500).containsKey("key0");
+  }
+
+  @Test
+  public void putAllInParallelUpdatesValuesAndEveryIndex() {
+    map.put("key0", -1);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k, v) -> Collections.singleton(v % 2 == 0));
+    Function<Integer, Map<String, Integer>> byHundreds =
+          map.addIndex((k, v) -> Collections.singleton(v / 100));
+
+    Map<String, Integer> batch = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      batch.put("key" + i, i);
+    }
+    map.putAll(batch, true);
+
+    assertThat(map).hasSize(1000);
+    assertThat(evenOrOdd.apply(true)).hasSize(500).containsKey("key0");
+    assertThat(evenOrOdd.apply(false)).hasSize(500).containsKey("key999");
+    assertThat(byHundreds.apply(0)).hasSize(100).containsKey("key0");
+    assertThat(byHundreds.apply(-1)).isEmpty();
+  }
+
+  @Test
+  public void replaceAllReturningSameValuesLeavesIndexesIntact() {
+    map.put("one", 1);
+    map.put("two", 2);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.replaceAll((k, v) -> k.equals("one") ? v : v + 1);
+
+    assertThat(values(evenOrOdd.apply(true))).isEmpty();
+    assertThat(values(evenOrOdd.apply(false))).isEqualTo(set(1, 3));
+  }
+
+  @Test
+  public void replaceAllFailureLeavesMapUnchanged() {
+    map.put("one", 1);
+    map.put("two", 2);
+    map.put("three", 3);
+
+    try {
+      map.replaceAll((k, v) -> {
+        if (k.equals("two")) {
+          throw new IllegalStateException();
+        }
+        return v * 10;
+      });
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    assertThat(new HashSet<>(map.values())).isEqualTo(set(1, 2, 3));
+  }
+
   @Test
   public void removeUpdatesValues() {
     map.put("one", 1);
@@ -207,9 +277,109 @@ public class DefaultMethodsTest {
     assertThat(values(evenOrOdd.apply(false))).isEqualTo(set(3));
   }
 
-  // todo test compute
-  // todo test computeIfAbsent
-  // todo test computeIfPresent
+  @Test
+  public void mergeToNullRemovesValueAndUpdatesIndexes() {
+    map.put("one", 1);
+    map.put("two", 2);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.merge("one", 1, (a, b) -> null);
+
+    assertThat(map.containsKey("one")).isFalse();
+    assertThat(values(evenOrOdd.apply(false))).isEmpty();
+    assertThat(values(evenOrOdd.apply(true))).isEqualTo(set(2));
+  }
+
+  @Test
+  public void computeUpdatesValues() {
+    map.put("one", 1);
+
+    map.compute("one", (k, v) -> v + 10);
+    map.compute("two", (k, v) -> v == null ? 2 : v + 10);
+
+    assertThat(map.get("one")).isEqualTo(11);
+    assertThat(map.get("two")).isEqualTo(2);
+  }
+
+  @Test
+  public void computeUpdatesIndexes() {
+    map.put("one", 1);
+    map.put("two", 2);
+    map.put("three", 3);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.compute("one", (k, v) -> v + 1);
+    map.compute("four", (k, v) -> 4);
+    map.compute("three", (k, v) -> null);
+
+    assertThat(values(evenOrOdd.apply(true))).isEqualTo(set(2, 4));
+    assertThat(values(evenOrOdd.apply(false))).isEmpty();
+  }
+
+  @Test
+  public void computeReturningSameValueLeavesIndexesIntact() {
+    map.put("one", 1);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.compute("one", (k, v) -> v);
+
+    assertThat(values(evenOrOdd.apply(false))).isEqualTo(set(1));
+  }
+
+  @Test
+  public void computeIfAbsentOnlyUpdatesAbsentValues() {
+    map.put("one", 1);
+
+    map.computeIfAbsent("one", k -> 100);
+    map.computeIfAbsent("two", k -> 2);
+
+    assertThat(map.get("one")).isEqualTo(1);
+    assertThat(map.get("two")).isEqualTo(2);
+  }
+
+  @Test
+  public void computeIfAbsentUpdatesIndexes() {
+    map.put("one", 1);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.computeIfAbsent("one", k -> 100);
+    map.computeIfAbsent("two", k -> 2);
+    map.computeIfAbsent("three", k -> null);
+
+    assertThat(values(evenOrOdd.apply(true))).isEqualTo(set(2));
+    assertThat(values(evenOrOdd.apply(false))).isEqualTo(set(1));
+    assertThat(map.containsKey("three")).isFalse();
+  }
+
+  @Test
+  public void computeIfPresentOnlyUpdatesPresentValues() {
+    map.put("one", 1);
+
+    map.computeIfPresent("one", (k, v) -> v + 1);
+    map.computeIfPresent("two", (k, v) -> 2);
+
+    assertThat(map.get("one")).isEqualTo(2);
+    assertThat(map.containsKey("two")).isFalse();
+  }
+
+  @Test
+  public void computeIfPresentUpdatesIndexes() {
+    map.put("one", 1);
+    map.put("two", 2);
+    Function<Boolean, Map<String, Integer>> evenOrOdd =
+          map.addIndex((k1, v1) -> Collections.singleton(v1 % 2 == 0));
+
+    map.computeIfPresent("one", (k, v) -> v + 1);
+    map.computeIfPresent("two", (k, v) -> null);
+    map.computeIfPresent("three", (k, v) -> 3);
+
+    assertThat(values(evenOrOdd.apply(true))).isEqualTo(set(2));
+    assertThat(values(evenOrOdd.apply(false))).isEmpty();
+  }
 
   private Set<Integer> values(Map<String, Integer> entries) {
     return new HashSet<>(entries.values());
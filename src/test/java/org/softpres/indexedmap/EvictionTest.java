@@ -0,0 +1,278 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for maps bounded in size, or with entries that expire.
+ */
+public class EvictionTest {
+
+  private final AtomicLong time = new AtomicLong(-TimeUnit.DAYS.toNanos(1));
+
+  private void advance(Duration duration) {
+    time.addAndGet(duration.toNanos());
+  }
+
+  private IndexedMap<Integer, String> bounded(int maximumSize, Eviction eviction) {
+    return new IndexedMapBuilder<Integer, String>().maximumSize(maximumSize, eviction).build();
+  }
+
+  private IndexedMapBuilder<Integer, String> expiring() {
+    return new IndexedMapBuilder<Integer, String>().ticker(time::get);
+  }
+
+  @Test
+  public void sizeIsBoundedForEveryPolicy() {
+    for (Eviction eviction : Eviction.values()) {
+      IndexedMap<Integer, String> map = bounded(100, eviction);
+
+      for (int i = 0; i < 1000; i++) {
+        map.insert(i, "value");
+        map.get(i % 10);
+      }
+
+      assertThat(map.size()).as(eviction.name()).isEqualTo(100);
+    }
+  }
+
+  @Test
+  public void lruEvictsLeastRecentlyUsed() {
+    IndexedMap<Integer, String> map = bounded(2, Eviction.LRU);
+    map.insert(1, "one");
+    map.insert(2, "two");
+
+    map.select(1);
+    map.insert(3, "three");
+
+    assertThat(map.keySet()).containsOnly(1, 3);
+  }
+
+  @Test
+  public void lfuEvictsLeastFrequentlyUsed() {
+    IndexedMap<Integer, String> map = bounded(2, Eviction.LFU);
+    map.insert(1, "one");
+    map.insert(2, "two");
+    map.select(2);
+    map.select(1);
+    map.select(1);
+
+    map.insert(3, "three");
+    map.insert(4, "four");
+
+    assertThat(map.keySet()).containsOnly(1, 4);
+  }
+
+  @Test
+  public void tinyLfuKeepsPopularEntriesDuringScan() {
+    IndexedMap<Integer, String> map = bounded(200, Eviction.TINY_LFU);
+    for (int i = 0; i < 200; i++) {
+      map.insert(i, "popular");
+    }
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 100; i++) {
+        map.select(i);
+      }
+    }
+
+    for (int i = 1000; i < 5000; i++) {
+      map.insert(i, "scan");
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(map.containsKey(i)).as("Key " + i).isTrue();
+    }
+  }
+
+  @Test
+  public void evictedEntriesAreRemovedFromIndices() {
+    IndexedMap<Integer, String> map = bounded(2, Eviction.LRU);
+    Index<Integer, Integer, String> byLength = map.addIndex((k, v) -> singleton(v.length()));
+
+    map.insert(1, "one");
+    map.insert(2, "two");
+    map.insert(3, "six");
+
+    assertThat(byLength.apply(3)).containsOnlyKeys(2, 3);
+  }
+
+  @Test
+  public void evictionIsPublishedToSubscribers() {
+    IndexedMap<Integer, String> map = bounded(1, Eviction.LRU);
+    List<Change<Integer, String>> changes = new ArrayList<>();
+    map.subscribe(changes::addAll, Runnable::run);
+
+    map.insert(1, "one");
+    map.insert(2, "two");
+
+    assertThat(changes).containsAll(Collections.singletonList(new Change<>(1, "one", null)));
+  }
+
+  @Test
+  public void evictionIsPublishedWithItsOrigin() {
+    IndexedMap<Integer, String> map = bounded(1, Eviction.LRU);
+    List<Change<Integer, String>> changes = new ArrayList<>();
+    map.subscribe(changes::addAll, Runnable::run);
+
+    map.insert(1, "one");
+    map.insert(2, "two");
+
+    assertThat(changes.get(0).origin()).isEqualTo(Change.Origin.WRITTEN);
+    assertThat(changes.get(1).origin()).isEqualTo(Change.Origin.WRITTEN);
+    assertThat(changes.get(2).origin()).isEqualTo(Change.Origin.EVICTED);
+  }
+
+  @Test
+  public void entryExpiresAfterTimeToLive() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(10)).build();
+    map.insert(1, "one");
+
+    advance(Duration.ofSeconds(9));
+    assertThat(map.select(1).isPresent()).isTrue();
+
+    advance(Duration.ofSeconds(1));
+    assertThat(map.select(1).isPresent()).isFalse();
+    assertThat(map).isEmpty();
+  }
+
+  @Test
+  public void expiredEntriesAreRemovedFromIndicesOnLaterWrites() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(10)).build();
+    Index<Integer, Integer, String> byLength = map.addIndex((k, v) -> singleton(v.length()));
+    map.insert(1, "one");
+    map.insert(2, "two");
+
+    advance(Duration.ofSeconds(12));
+    map.insert(3, "six");
+
+    assertThat(byLength.apply(3)).containsOnlyKeys(3);
+  }
+
+  @Test
+  public void expiredEntriesAreRemovedFromIndicesOnceEnoughReadsAreMade() {
+    IndexedMap<Integer, String> map = expiring()
+          .expireAfter((k, v) -> k == 1 ? Duration.ofSeconds(10) : null)
+          .build();
+    Index<Integer, Integer, String> byLength = map.addIndex((k, v) -> singleton(v.length()));
+    map.insert(1, "one");
+    map.insert(2, "two");
+
+    advance(Duration.ofSeconds(12));
+    for (int i = 0; i < 100; i++) {
+      map.get(2);
+    }
+
+    assertThat(byLength.apply(3)).containsOnlyKeys(2);
+  }
+
+  @Test
+  public void writingEntryAgainRestartsTimeToLive() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(10)).build();
+    map.insert(1, "one");
+
+    advance(Duration.ofSeconds(8));
+    map.insert(1, "uno");
+    advance(Duration.ofSeconds(8));
+
+    assertThat(map.get(1)).isEqualTo("uno");
+  }
+
+  @Test
+  public void putIfAbsentOfExpiredKeyInsertsValue() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(1)).build();
+    map.insert(1, "one");
+    advance(Duration.ofSeconds(5));
+
+    assertThat(map.putIfAbsent(1, "uno")).isNull();
+    assertThat(map.get(1)).isEqualTo("uno");
+  }
+
+  @Test
+  public void mergeOfExpiredKeyIgnoresExpiredValue() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(1)).build();
+    map.insert(1, "one");
+    advance(Duration.ofSeconds(5));
+
+    assertThat(map.merge(1, "uno", String::concat)).isEqualTo("uno");
+    assertThat(map.get(1)).isEqualTo("uno");
+  }
+
+  @Test
+  public void computeOfExpiredKeySeesNoValue() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(1)).build();
+    map.insert(1, "one");
+    advance(Duration.ofSeconds(5));
+
+    assertThat(map.compute(1, (k, v) -> v == null ? "uno" : v + " again")).isEqualTo("uno");
+    assertThat(map.get(1)).isEqualTo("uno");
+  }
+
+  @Test
+  public void writesOfExpiredKeyReturnNoPreviousValue() {
+    IndexedMap<Integer, String> map = expiring().expireAfterWrite(Duration.ofSeconds(1)).build();
+    map.insert(1, "one");
+    map.insert(2, "two");
+    advance(Duration.ofSeconds(5));
+
+    assertThat(map.put(1, "uno")).isNull();
+    assertThat(map.remove(2, "two")).isFalse();
+  }
+
+  @Test
+  public void eachEntryHasItsOwnTimeToLive() {
+    IndexedMap<Integer, String> map = expiring()
+          .expireAfter((k, v) -> v.equals("forever") ? null : Duration.ofSeconds(k))
+          .build();
+    map.insert(5, "five");
+    map.insert(20, "twenty");
+    map.insert(1, "forever");
+
+    advance(Duration.ofSeconds(10));
+    map.insert(100, "hundred");
+
+    assertThat(map.keySet()).containsOnly(20, 1, 100);
+  }
+
+  @Test
+  public void entriesExpireAfterLongTimesToLive() {
+    IndexedMap<Integer, String> map = expiring()
+          .expireAfter((k, v) -> Duration.ofHours(k))
+          .build();
+    map.insert(3, "hours");
+    map.insert(72, "days");
+    map.insert(24 * 30, "month");
+
+    for (int hour = 0; hour < 24 * 4; hour++) {
+      advance(Duration.ofHours(1));
+      map.insert(1000, "tick");
+    }
+
+    assertThat(map.keySet()).containsOnly(1000, 24 * 30);
+  }
+
+  @Test
+  public void sizeAndExpiryCanBeCombined() {
+    IndexedMap<Integer, String> map = expiring()
+          .maximumSize(2, Eviction.LRU)
+          .expireAfterWrite(Duration.ofSeconds(10))
+          .build();
+    map.insert(1, "one");
+    map.insert(2, "two");
+    map.insert(3, "three");
+
+    advance(Duration.ofSeconds(11));
+    map.insert(4, "four");
+
+    assertThat(map.keySet()).containsOnly(4);
+  }
+
+}
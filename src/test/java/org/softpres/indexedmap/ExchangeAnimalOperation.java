@@ -1,13 +1,15 @@
 /* IndexedMap - (c) 2014, Kieron Wilkinson */
 
-package org.softpres.indexedmap.deferredexample;
+package org.softpres.indexedmap;
 
 import org.softpres.indexedmap.animal.Animal;
 import org.softpres.indexedmap.animal.Id;
-import org.softpres.indexedmap.IndexedMap;
 
 import java.util.Optional;
 
+/**
+ * Example operation, which exchanges one animal for another.
+ */
 public class ExchangeAnimalOperation implements Operation<Id, Animal> {
 
   private final Id sellingId;
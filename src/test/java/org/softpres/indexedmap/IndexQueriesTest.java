@@ -0,0 +1,190 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for the queries of an {@link Index}.
+ */
+@RunWith(Parameterized.class)
+public class IndexQueriesTest {
+
+  private final IndexedMap<Id, Animal> map;
+  private final Index<String, Id, Animal> byFood;
+
+  public IndexQueriesTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    map.insert(cow.id, cow);
+    byFood = map.addIndex((id, a) -> a.foods);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().partitions(4).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().ordinalStorage().build() }
+    });
+  }
+
+  @Test
+  public void countIsNumberOfEntriesForKey() {
+    assertThat(byFood.count("water")).isEqualTo(3);
+    assertThat(byFood.count("biscuits")).isEqualTo(2);
+    assertThat(byFood.count("grass")).isEqualTo(1);
+    assertThat(byFood.count("sausage")).isEqualTo(0);
+  }
+
+  @Test
+  public void countIsMaintainedOnChanges() {
+    map.delete(cat.id);
+    map.insert(sheep.id, sheep);
+
+    assertThat(byFood.count("biscuits")).isEqualTo(1);
+    assertThat(byFood.count("grass")).isEqualTo(2);
+  }
+
+  @Test
+  public void containsIndicatesWhetherAnyEntriesExist() {
+    assertThat(byFood.contains("rabbit")).isTrue();
+    assertThat(byFood.contains("worm")).isFalse();
+
+    map.delete(dog.id);
+
+    assertThat(byFood.contains("rabbit")).isFalse();
+  }
+
+  @Test
+  public void containsAllRequiresEveryKey() {
+    assertThat(byFood.containsAll(Arrays.asList("rabbit", "mouse"))).isTrue();
+    assertThat(byFood.containsAll(Arrays.asList("rabbit", "worm"))).isFalse();
+    assertThat(byFood.containsAll(Collections.emptyList())).isTrue();
+  }
+
+  @Test
+  public void containsAnyRequiresOneKey() {
+    assertThat(byFood.containsAny(Arrays.asList("worm", "mouse"))).isTrue();
+    assertThat(byFood.containsAny(Arrays.asList("worm", "plankton"))).isFalse();
+    assertThat(byFood.containsAny(Collections.emptyList())).isFalse();
+  }
+
+  @Test
+  public void distinctKeysAreAllKeysWithEntries() {
+    Set<String> foods = byFood.distinctKeys();
+
+    assertThat(foods).containsOnly("rabbit", "biscuits", "water", "fish", "mouse", "grass");
+
+    map.insert(bird.id, bird);
+    map.delete(cow.id);
+
+    assertThat(foods).containsOnly("rabbit", "biscuits", "water", "fish", "mouse", "worm");
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void distinctKeysCannotBeModified() {
+    byFood.distinctKeys().remove("water");
+  }
+
+  @Test
+  public void forEachVisitsEntriesForKey() {
+    Map<Id, Animal> visited = new HashMap<>();
+
+    byFood.forEach("biscuits", visited::put);
+
+    assertThat(visited).isEqualTo(map(dog, cat));
+  }
+
+  @Test
+  public void parallelForEachVisitsEntriesForKey() {
+    Map<Id, Animal> visited = new ConcurrentHashMap<>();
+
+    byFood.parallelForEach("water", visited::put);
+
+    assertThat(visited).isEqualTo(map(dog, cat, cow));
+  }
+
+  @Test
+  public void forEachOfMissingKeyDoesNothing() {
+    byFood.forEach("worm", (id, animal) -> { throw new AssertionError(); });
+  }
+
+  @Test
+  public void streamsEntriesKeysAndValuesForKey() {
+    assertThat(byFood.stream("biscuits").map(Map.Entry::getValue).collect(Collectors.toSet()))
+          .containsOnly(dog, cat);
+    assertThat(byFood.parallelStream("water").map(Map.Entry::getKey).collect(Collectors.toSet()))
+          .containsOnly(dog.id, cat.id, cow.id);
+    assertThat(byFood.keys("grass").collect(Collectors.toList())).containsOnly(cow.id);
+    assertThat(byFood.values("mouse").collect(Collectors.toList())).containsOnly(cat);
+    assertThat(byFood.values("worm").count()).isEqualTo(0);
+  }
+
+  @Test
+  public void findAnyReturnsOneOfTheValues() {
+    assertThat(byFood.findAny("biscuits").get()).isIn(dog, cat);
+    assertThat(byFood.findAny("grass").get()).isEqualTo(cow);
+    assertThat(byFood.findAny("worm").isPresent()).isFalse();
+  }
+
+  @Test
+  public void statisticsDescribeIndexShape() {
+    IndexStatistics statistics = byFood.statistics();
+
+    assertThat(statistics.distinctKeys()).isEqualTo(6);
+    assertThat(statistics.entries()).isEqualTo(9);
+    assertThat(statistics.maxCount()).isEqualTo(3);
+    assertThat(statistics.averageCount()).isEqualTo(1.5);
+  }
+
+  @Test
+  public void droppedIndexIsNoLongerMaintained() {
+    Index<Integer, Id, Animal> byLegs = map.addIndex((id, a) -> Collections.singleton(a.legs));
+
+    byFood.drop();
+    map.insert(bird.id, bird);
+    map.delete(dog.id);
+
+    assertThat(byLegs.apply(2)).isEqualTo(map(bird));
+    assertThat(byLegs.apply(4)).isEqualTo(map(cat, cow));
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeQueried() {
+    byFood.drop();
+
+    byFood.count("water");
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeLookedUp() {
+    byFood.drop();
+
+    byFood.apply("water");
+  }
+
+}
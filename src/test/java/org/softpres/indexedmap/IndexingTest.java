@@ -56,6 +56,20 @@ public class IndexingTest {
     assertThat(index.apply(4)).isEqualTo(map(cat, dog, cow, sheep));
   }
 
+  @Test
+  public void indexedValuesCanBeIterableOnlyOnce() {
+    IndexedMap<Id, Animal> map = mapWithAnimals();
+
+    Function<String, Map<Id, Animal>> index =
+          map.addIndex((id, a) -> a.foods.stream()::iterator);
+    map.put(cat.id, new Animal(cat.id, cat.name, cat.legs, foods("fish", "water", "milk")));
+
+    assertThat(index.apply("biscuits")).isEqualTo(map(dog));
+    assertThat(index.apply("mouse")).isEqualTo(map());
+    assertThat(index.apply("milk")).containsOnlyKeys(cat.id);
+    assertThat(index.apply("water")).hasSize(5);
+  }
+
   @Test
   public void whenRemovingAnimalsTheIndexShouldBeUpdated() {
     IndexedMap<Id, Animal> map = new IndexedHashMap<>();
@@ -103,6 +117,27 @@ public class IndexingTest {
           Arrays.asList(dog, cat, cow, sheep));
   }
 
+  @Test
+  public void repeatedLookupsReturnTheSameView() {
+    IndexedMap<Id, Animal> map = mapWithAnimals();
+    Function<String, Map<Id, Animal>> index =
+          map.addIndex((id, a) -> a.foods);
+
+    assertThat(index.apply("biscuits")).isSameAs(index.apply("biscuits"));
+  }
+
+  @Test
+  public void cachedViewSeesLaterChanges() {
+    IndexedMap<Id, Animal> map = mapWithAnimals();
+    Function<String, Map<Id, Animal>> index =
+          map.addIndex((id, a) -> a.foods);
+    Map<Id, Animal> biscuitEaters = index.apply("biscuits");
+
+    map.delete(cat.id);
+
+    assertThat(biscuitEaters).isEqualTo(map(dog));
+  }
+
   @Test (expected = UnsupportedOperationException.class)
   public void doNotAllowExternalModificationOfIndexMap() {
     IndexedMap<Id, Animal> map = mapWithAnimals();
@@ -0,0 +1,159 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.assertj.core.data.MapEntry;
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for indices added with {@link IndexedMap#addLazyIndex}.
+ */
+public class LazyIndexTest {
+
+  private final IndexedMap<Id, Animal> map = new IndexedMapBuilder<Id, Animal>().build();
+  private final AtomicInteger viewed = new AtomicInteger();
+  private final BiFunction<Id, Animal, Iterable<String>> foods = (id, a) -> {
+    viewed.incrementAndGet();
+    return a.foods;
+  };
+
+  /** Scheduled idle checks, which are run explicitly. */
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1) {
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      tasks.add(command);
+      return null;
+    }
+  };
+  private long now = 0;
+
+  private LazyIndex<String, Id, Animal> idling(Duration timeout) {
+    return new LazyIndex<>(map, foods, timeout, scheduler, () -> now);
+  }
+
+  private void runTasks() {
+    List<Runnable> running = new ArrayList<>(tasks);
+    tasks.clear();
+    running.forEach(Runnable::run);
+  }
+
+  @Test
+  public void indexIsNotBuiltUntilFirstUsed() {
+    Index<String, Id, Animal> byFood = map.addLazyIndex(foods);
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+
+    assertThat(viewed.get()).isEqualTo(0);
+
+    assertThat(byFood.apply("biscuits")).containsOnly(entry(dog), entry(cat));
+    assertThat(viewed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void indexIsMaintainedOnceBuilt() {
+    Index<String, Id, Animal> byFood = map.addLazyIndex(foods);
+    map.insert(dog.id, dog);
+    byFood.count("water");
+
+    map.insert(cow.id, cow);
+    map.delete(dog.id);
+
+    assertThat(byFood.apply("water")).containsOnly(entry(cow));
+    assertThat(byFood.contains("biscuits")).isFalse();
+  }
+
+  @Test
+  public void indexIsDroppedWhenIdle() {
+    LazyIndex<String, Id, Animal> byFood = idling(Duration.ofNanos(100));
+    map.insert(dog.id, dog);
+    byFood.count("water");
+    assertThat(byFood.isBuilt()).isTrue();
+
+    now = 100;
+    runTasks();
+    map.insert(cat.id, cat);
+
+    assertThat(byFood.isBuilt()).isFalse();
+    assertThat(viewed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void idleCheckIsRescheduledWhenUsedSince() {
+    LazyIndex<String, Id, Animal> byFood = idling(Duration.ofNanos(100));
+    byFood.count("water");
+
+    now = 60;
+    byFood.count("water");
+    now = 100;
+    runTasks();
+
+    assertThat(byFood.isBuilt()).isTrue();
+    assertThat(tasks).hasSize(1);
+
+    now = 160;
+    runTasks();
+
+    assertThat(byFood.isBuilt()).isFalse();
+    assertThat(tasks).isEmpty();
+  }
+
+  @Test
+  public void droppedIndexIsRebuiltOnNextUse() {
+    LazyIndex<String, Id, Animal> byFood = idling(Duration.ofNanos(100));
+    map.insert(dog.id, dog);
+    byFood.count("water");
+    now = 100;
+    runTasks();
+
+    map.insert(cat.id, cat);
+
+    assertThat(byFood.apply("water")).containsOnly(entry(dog), entry(cat));
+    assertThat(byFood.isBuilt()).isTrue();
+  }
+
+  @Test
+  public void indexWithAggregateIsNotDroppedWhenIdle() {
+    LazyIndex<String, Id, Animal> byFood = idling(Duration.ofNanos(100));
+    Aggregate<String, Long> count = byFood.aggregate(Aggregators.count());
+
+    now = 100;
+    runTasks();
+    map.insert(dog.id, dog);
+
+    assertThat(byFood.isBuilt()).isTrue();
+    assertThat(count.get("water")).isEqualTo(1);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeQueried() {
+    Index<String, Id, Animal> byFood = map.addLazyIndex(foods);
+    byFood.drop();
+
+    byFood.count("water");
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void unmodifiableMapCannotAddLazyIndex() {
+    new UnmodifiableIndexedMap<>(map).addLazyIndex(foods);
+  }
+
+  private static MapEntry entry(Animal animal) {
+    return MapEntry.entry(animal.id, animal);
+  }
+
+}
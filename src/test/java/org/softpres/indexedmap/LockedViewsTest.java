@@ -0,0 +1,99 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for the lazy and copied views of {@link LockedIndexedMap}.
+ */
+public class LockedViewsTest {
+
+  private final IndexedMap<Id, Animal> lazy = new IndexedMapBuilder<Id, Animal>()
+        .primary(new HashMap<>())
+        .build();
+
+  private final IndexedMap<Id, Animal> copying = new IndexedMapBuilder<Id, Animal>()
+        .primary(new HashMap<>())
+        .copyViews(true)
+        .build();
+
+  @Test
+  public void lazyViewsSeeLaterChanges() {
+    lazy.insert(dog.id, dog);
+    Set<Id> keys = lazy.keySet();
+    Collection<Animal> values = lazy.values();
+    Set<Map.Entry<Id, Animal>> entries = lazy.entrySet();
+
+    lazy.insert(cat.id, cat);
+
+    assertThat(keys).containsOnly(dog.id, cat.id);
+    assertThat(values).containsOnly(dog, cat);
+    assertThat(entries).isEqualTo(map(dog, cat).entrySet());
+  }
+
+  @Test
+  public void lazyViewsSupportLookups() {
+    lazy.insert(dog.id, dog);
+
+    assertThat(lazy.keySet().contains(dog.id)).isTrue();
+    assertThat(lazy.keySet().contains(cat.id)).isFalse();
+    assertThat(lazy.values().contains(dog)).isTrue();
+    assertThat(lazy.entrySet().contains(map(dog).entrySet().iterator().next())).isTrue();
+  }
+
+  @Test (expected = ConcurrentModificationException.class)
+  public void lazyViewIterationFailsIfMapIsChanged() {
+    lazy.insert(dog.id, dog);
+    lazy.insert(cat.id, cat);
+    Iterator<Animal> animals = lazy.values().iterator();
+    animals.next();
+
+    lazy.delete(cat.id);
+    animals.next();
+  }
+
+  @Test
+  public void lazyViewForEachSeesAllEntries() {
+    lazy.insert(dog.id, dog);
+    lazy.insert(cat.id, cat);
+    List<Animal> animals = new ArrayList<>();
+
+    lazy.values().forEach(animals::add);
+
+    assertThat(animals).containsOnly(dog, cat);
+  }
+
+  @Test
+  public void copiedViewsDoNotSeeLaterChanges() {
+    copying.insert(dog.id, dog);
+    Set<Id> keys = copying.keySet();
+    Set<Map.Entry<Id, Animal>> entries = copying.entrySet();
+
+    copying.insert(dog.id, woundedDog);
+    copying.insert(cat.id, cat);
+
+    assertThat(keys).containsOnly(dog.id);
+    assertThat(entries.iterator().next().getValue()).isSameAs(dog);
+  }
+
+  @Test
+  public void copiedViewIterationIsUnaffectedByChanges() {
+    copying.insert(dog.id, dog);
+    copying.insert(cat.id, cat);
+    Iterator<Animal> animals = copying.values().iterator();
+    animals.next();
+
+    copying.delete(cat.id);
+
+    assertThat(animals.next()).isIn(dog, cat);
+  }
+
+}
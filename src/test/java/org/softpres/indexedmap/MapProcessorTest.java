@@ -0,0 +1,165 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for the optimistic concurrency of {@link MapProcessor}.
+ */
+public class MapProcessorTest {
+
+  private final IndexedMap<Id, Animal> map = new IndexedMapBuilder<Id, Animal>().build();
+  private final List<Runnable> sideEffects = new ArrayList<>();
+  private final MapProcessor<Id, Animal> processor = new MapProcessor<>(map, sideEffects::add, 3);
+
+  {
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+  }
+
+  @Test
+  public void operationChangesAreCommitted() {
+    processor.execute(new ExchangeAnimalOperation(dog.id, cow));
+
+    assertThat(new HashMap<>(map)).isEqualTo(map(cat, cow));
+  }
+
+  @Test
+  public void sideEffectRunsAfterCommit() {
+    List<Animal> seen = new ArrayList<>();
+
+    processor.execute(m -> OperationResult.<Id, Animal>empty()
+          .inserted(cow.id, cow)
+          .withSideEffect(() -> seen.add(map.get(cow.id))));
+
+    assertThat(seen).isEmpty();
+    sideEffects.forEach(Runnable::run);
+    assertThat(seen).containsExactly(cow);
+  }
+
+  @Test
+  public void failedOperationChangesNothing() {
+    try {
+      processor.execute(m -> {
+        throw new IllegalArgumentException();
+      });
+      fail("Expected operation to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    assertThat(new HashMap<>(map)).isEqualTo(map(dog, cat));
+    assertThat(sideEffects).isEmpty();
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void operationCannotChangeMapDirectly() {
+    processor.execute(m -> {
+      m.insert(cow.id, cow);
+      return OperationResult.empty();
+    });
+  }
+
+  @Test
+  public void conflictingOperationIsRetried() {
+    AtomicInteger attempts = new AtomicInteger();
+
+    processor.execute(m -> {
+      Animal current = m.get(dog.id);
+      if (attempts.incrementAndGet() == 1) {
+        // Another operation commits a change to the key after it was read
+        processor.execute(other -> OperationResult.<Id, Animal>empty().inserted(dog.id, woundedDog));
+      }
+      return OperationResult.<Id, Animal>empty().inserted(bird.id, current);
+    });
+
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(map.get(bird.id)).isEqualTo(woundedDog);
+  }
+
+  @Test
+  public void conflictingBlindWriteIsRetried() {
+    AtomicInteger attempts = new AtomicInteger();
+
+    processor.execute(m -> {
+      if (attempts.incrementAndGet() == 1) {
+        processor.execute(other -> OperationResult.<Id, Animal>empty().deleted(cat.id));
+      }
+      return OperationResult.<Id, Animal>empty().inserted(cat.id, cow);
+    });
+
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(map.get(cat.id)).isEqualTo(cow);
+  }
+
+  @Test
+  public void changeToUnrelatedKeyDoesNotConflict() {
+    AtomicInteger attempts = new AtomicInteger();
+
+    processor.execute(m -> {
+      Animal current = m.get(dog.id);
+      if (attempts.incrementAndGet() == 1) {
+        processor.execute(other -> OperationResult.<Id, Animal>empty().deleted(cat.id));
+      }
+      return OperationResult.<Id, Animal>empty().inserted(bird.id, current);
+    });
+
+    assertThat(attempts.get()).isEqualTo(1);
+    assertThat(map.get(bird.id)).isEqualTo(dog);
+  }
+
+  @Test
+  public void readingWholeMapConflictsWithAnyChange() {
+    AtomicInteger attempts = new AtomicInteger();
+
+    processor.execute(m -> {
+      int size = m.size();
+      if (attempts.incrementAndGet() == 1) {
+        processor.execute(other -> OperationResult.<Id, Animal>empty().inserted(fish.id, fish));
+      }
+      return OperationResult.<Id, Animal>empty().inserted(new Id(100 + size), bird);
+    });
+
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(map.get(new Id(103))).isEqualTo(bird);
+  }
+
+  @Test
+  public void operationThatAlwaysConflictsGivesUp() {
+    AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      processor.execute(m -> {
+        m.select(dog.id);
+        attempts.incrementAndGet();
+        processor.execute(other -> OperationResult.<Id, Animal>empty().inserted(dog.id, woundedDog));
+        return OperationResult.<Id, Animal>empty().deleted(dog.id);
+      });
+      fail("Expected operation to give up");
+    } catch (ConcurrentModificationException e) {
+      // expected
+    }
+
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(map.get(dog.id)).isEqualTo(woundedDog);
+  }
+
+  @Test
+  public void queryIsReadOnly() {
+    assertThat(processor.query(m -> m.select(cat.id)).get()).isEqualTo(cat);
+  }
+
+}
@@ -0,0 +1,137 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.fail;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for materialized views of an {@link IndexedMap}.
+ */
+@RunWith(Parameterized.class)
+public class MaterializedViewTest {
+
+  private final IndexedMap<Id, Animal> map;
+
+  public MaterializedViewTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().partitions(4).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().ordinalStorage().build() }
+    });
+  }
+
+  @Test
+  public void viewIncludesExistingEntries() {
+    Map<Id, String> names = map.materialize((id, a) -> a.name).asMap();
+
+    assertThat(names).isEqualTo(names(dog, cat));
+  }
+
+  @Test
+  public void viewIsMaintainedOnChanges() {
+    Map<Id, Integer> legs = map.materialize((id, a) -> a.legs).asMap();
+
+    map.insert(bird.id, bird);
+    map.insert(dog.id, woundedDog);
+    map.delete(cat.id);
+    map.computeIfAbsent(fish.id, id -> fish);
+
+    assertThat(legs).containsOnly(
+          entry(dog.id, 3),
+          entry(bird.id, 2),
+          entry(fish.id, 0));
+  }
+
+  @Test
+  public void viewIsMaintainedOnReplaceAllAndClear() {
+    Map<Id, String> names = map.materialize((id, a) -> a.name).asMap();
+
+    map.replaceAll((id, a) -> a == dog ? woundedDog : cow);
+
+    assertThat(names).containsOnly(entry(dog.id, "Dog"), entry(cat.id, "Cow"));
+
+    map.clear();
+
+    assertThat(names).isEmpty();
+  }
+
+  @Test
+  public void entriesMappedToNullAreLeftOut() {
+    Map<Id, String> quadrupeds = map.materialize((id, a) -> a.legs == 4 ? a.name : null).asMap();
+
+    map.insert(bird.id, bird);
+    map.insert(dog.id, woundedDog);
+
+    assertThat(quadrupeds).isEqualTo(names(cat));
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void viewCannotBeModified() {
+    map.materialize((id, a) -> a.name).asMap().remove(dog.id);
+  }
+
+  @Test
+  public void droppedViewIsNoLongerMaintained() {
+    List<Animal> mapped = new ArrayList<>();
+    MaterializedView<Id, String> view = map.materialize((id, a) -> {
+      mapped.add(a);
+      return a.name;
+    });
+
+    view.drop();
+    map.insert(bird.id, bird);
+
+    assertThat(mapped).containsOnly(dog, cat);
+    try {
+      view.asMap();
+      fail("Expected dropped view to be unusable");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void aggregateCanBeViewedAsGroupedMap() {
+    Index<Integer, Id, Animal> byLegs = map.addIndex((id, a) -> Collections.singleton(a.legs));
+    Map<Integer, Long> countByLegs = byLegs.aggregate(Aggregators.<Animal>count()).asMap();
+
+    map.insert(bird.id, bird);
+    map.insert(cow.id, cow);
+    map.delete(dog.id);
+
+    assertThat(countByLegs).containsOnly(entry(4, 2L), entry(2, 1L));
+  }
+
+  private static Map<Id, String> names(Animal... animals) {
+    Map<Id, String> result = new HashMap<>();
+    for (Animal animal : animals) {
+      result.put(animal.id, animal.name);
+    }
+    return result;
+  }
+
+}
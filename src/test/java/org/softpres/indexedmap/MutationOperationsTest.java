@@ -47,6 +47,23 @@ public class MutationOperationsTest {
     assertThat(putValues).isEqualTo(Arrays.asList(dog, cat, fish));
   }
 
+  @Test
+  public void putAllBatchWithNullValueLeavesMapUntouched() {
+    IndexedMap<Id, Animal> map = new IndexedHashMap<>();
+    Function<String, Map<Id, Animal>> byFood = map.addIndex((id, a) -> a.foods);
+    Map<Id, Animal> batch = map(dog, cat);
+    batch.put(fish.id, null);
+
+    try {
+      map.putAll(batch, false);
+    } catch (NullPointerException e) {
+      // Expected
+    }
+
+    assertThat(map.isEmpty()).isTrue();
+    assertThat(byFood.apply("water").isEmpty()).isTrue();
+  }
+
   @Test
   public void clearRemovesAllEntries() {
     IndexedMap<Id, Animal> map = new IndexedHashMap<>();
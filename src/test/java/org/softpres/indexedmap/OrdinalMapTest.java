@@ -0,0 +1,114 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link OrdinalMap}, and its use as the primary map of an
+ * {@link IndexedHashMap}.
+ */
+public class OrdinalMapTest {
+
+  private final OrdinalMap<Integer, String> map = new OrdinalMap<>();
+
+  @Test
+  public void randomChangesMatchHashMap() {
+    Map<Integer, String> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      // Keys sharing low bits collide in the table, to exercise probing
+      int key = random.nextInt(2000) << (i % 3 == 0 ? 12 : 0);
+      if (random.nextInt(3) == 0) {
+        assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+      } else {
+        String value = "v" + i;
+        assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+      }
+    }
+
+    assertThat(map).isEqualTo(expected);
+    assertThat(map.size()).isEqualTo(expected.size());
+    for (Integer key : expected.keySet()) {
+      assertThat(map.get(key)).isEqualTo(expected.get(key));
+    }
+  }
+
+  @Test
+  public void entriesKeepTheirOrdinals() {
+    map.put(1, "one");
+    map.put(2, "two");
+    map.put(3, "three");
+
+    map.put(2, "TWO");
+
+    assertThat(map.ordinal(1)).isEqualTo(0);
+    assertThat(map.ordinal(2)).isEqualTo(1);
+    assertThat(map.ordinal(3)).isEqualTo(2);
+    assertThat(map.valueAt(1)).isEqualTo("TWO");
+  }
+
+  @Test
+  public void ordinalOfRemovedKeyIsReusedAfterNextChange() {
+    map.put(1, "one");
+    map.put(2, "two");
+
+    map.remove(1);
+
+    assertThat(map.ordinal(1)).isEqualTo(-1);
+    assertThat(map.ordinalOf(1)).isEqualTo(0);
+
+    map.put(3, "three");
+
+    assertThat(map.ordinalOf(1)).isEqualTo(-1);
+    assertThat(map.ordinal(3)).isEqualTo(0);
+  }
+
+  @Test
+  public void entriesAreIteratedInOrdinalOrderAndCanBeReplaced() {
+    map.put(30, "a");
+    map.put(10, "b");
+    map.put(20, "c");
+    map.remove(10);
+
+    List<Integer> keys = new ArrayList<>();
+    for (Map.Entry<Integer, String> entry : map.entrySet()) {
+      keys.add(entry.getKey());
+      entry.setValue(entry.getValue().toUpperCase());
+    }
+
+    assertThat(keys).containsExactly(30, 20);
+    assertThat(map.get(30)).isEqualTo("A");
+    assertThat(map.get(20)).isEqualTo("C");
+  }
+
+  @Test
+  public void indicesAreKeptInLineByEveryKindOfWrite() {
+    IndexedMap<Integer, Integer> numbers = new IndexedMapBuilder<Integer, Integer>()
+          .ordinalStorage()
+          .build();
+    Function<Boolean, Map<Integer, Integer>> evens = numbers.addIndex((k, v) -> singleton(v % 2 == 0));
+    for (int i = 0; i < 100; i++) {
+      numbers.put(i, i);
+    }
+
+    numbers.compute(0, (k, v) -> null);
+    numbers.merge(1, 1, Integer::sum);
+    numbers.remove(3, 3);
+    numbers.computeIfPresent(5, (k, v) -> v + 1);
+    numbers.replaceAll((k, v) -> k >= 90 ? v + 1 : v, true);
+
+    assertThat(numbers).hasSize(98);
+    assertThat(evens.apply(true).keySet()).contains(1, 5, 91).doesNotContain(0, 3, 90);
+    assertThat(evens.apply(false).keySet()).contains(7, 90).doesNotContain(1, 5);
+    assertThat(evens.apply(true).get(1)).isEqualTo(2);
+    assertThat(evens.apply(true).size() + evens.apply(false).size()).isEqualTo(98);
+  }
+
+}
@@ -0,0 +1,192 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for an {@link IndexedMap} built with several partitions. Most
+ * behaviour is covered by the parameterised tests of each feature.
+ */
+public class PartitionedIndexedMapTest {
+
+  private final IndexedMap<Integer, Integer> map = new IndexedMapBuilder<Integer, Integer>()
+        .partitions(4)
+        .build();
+
+  @Test (expected = IllegalArgumentException.class)
+  public void partitionsMustBePositive() {
+    new IndexedMapBuilder<Integer, Integer>().partitions(0);
+  }
+
+  @Test
+  public void primaryEntriesAreSpreadOverPartitions() {
+    Map<Integer, Integer> primary = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      primary.put(i, i);
+    }
+
+    IndexedMap<Integer, Integer> seeded = new IndexedMapBuilder<Integer, Integer>()
+          .primary(primary)
+          .partitions(4)
+          .build();
+
+    assertThat(seeded).hasSize(1000);
+    assertThat(seeded.get(999)).isEqualTo(999);
+  }
+
+  @Test
+  public void concurrentWritesToAllPartitionsAreIndexed() throws InterruptedException {
+    Index<Boolean, Integer, Integer> evens = map.addIndex((k, v) -> singleton(v % 2 == 0));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      int offset = t * 1000;
+      executor.execute(() -> {
+        for (int i = 0; i < 1000; i++) {
+          map.put(offset + i, offset + i);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(map).hasSize(4000);
+    assertThat(evens.count(true)).isEqualTo(2000);
+    assertThat(evens.apply(false)).hasSize(2000).containsEntry(3999, 3999);
+  }
+
+  @Test
+  public void parallelBatchIsWrittenToEveryPartition() {
+    Index<Boolean, Integer, Integer> evens = map.addIndex((k, v) -> singleton(v % 2 == 0));
+    Map<Integer, Integer> batch = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      batch.put(i, i);
+    }
+
+    map.putAll(batch, true);
+
+    assertThat(map).hasSize(1000);
+    assertThat(evens.count(true)).isEqualTo(500);
+    assertThat(evens.count(false)).isEqualTo(500);
+  }
+
+  @Test
+  public void statisticsCountKeysSharedByPartitionsOnce() {
+    Index<Boolean, Integer, Integer> evens = map.addIndex((k, v) -> singleton(v % 2 == 0));
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i);
+    }
+
+    IndexStatistics statistics = evens.statistics();
+
+    assertThat(statistics.distinctKeys()).isEqualTo(2);
+    assertThat(statistics.entries()).isEqualTo(100);
+    assertThat(statistics.maxCount()).isEqualTo(50);
+  }
+
+  @Test
+  public void aggregatesThatCannotBeCombinedAreNotMaintainedForEachPartition() {
+    Index<Boolean, Integer, Integer> evens = map.addIndex((k, v) -> singleton(v % 2 == 0));
+    List<Integer> added = new ArrayList<>();
+    Aggregate<Boolean, Long> sum = evens.aggregate(Aggregators.of(0L, (total, v) -> {
+      added.add(v);
+      return total + v;
+    }));
+
+    for (int i = 0; i < 10; i++) {
+      map.put(i, i);
+    }
+
+    assertThat(added).isEmpty();
+    assertThat(sum.get(true)).isEqualTo(20);
+    assertThat(added).containsOnly(0, 2, 4, 6, 8);
+  }
+
+  @Test
+  public void aggregatesOfEachPartitionAreCombined() {
+    Index<Boolean, Integer, Integer> evens = map.addIndex((k, v) -> singleton(v % 2 == 0));
+    Aggregate<Boolean, Long> count = evens.aggregate(Aggregators.count());
+    Aggregate<Boolean, Long> sum = evens.aggregate(Aggregators.sumLong(v -> v));
+    Aggregate<Boolean, Optional<Integer>> max = evens.aggregate(Aggregators.max(Comparator.naturalOrder()));
+
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i);
+    }
+
+    assertThat(count.get(true)).isEqualTo(50);
+    assertThat(sum.get(false)).isEqualTo(2500);
+    assertThat(max.get(false).get()).isEqualTo(99);
+  }
+
+  @Test
+  public void subscriberReceivesChangesOfEveryPartition() {
+    IndexedMap<Id, Animal> animals = new IndexedMapBuilder<Id, Animal>().partitions(4).build();
+    List<Change<Id, Animal>> changes = new ArrayList<>();
+    animals.subscribe(changes::addAll, Runnable::run);
+
+    animals.insert(dog.id, dog);
+    animals.insert(cat.id, cat);
+    animals.insert(cow.id, cow);
+    animals.delete(dog.id);
+
+    assertThat(changes).containsOnlyElementsOf(Arrays.asList(
+          new Change<>(dog.id, null, dog),
+          new Change<>(cat.id, null, cat),
+          new Change<>(cow.id, null, cow),
+          new Change<>(dog.id, dog, null)));
+    assertThat(changes.indexOf(new Change<>(dog.id, null, dog)))
+          .isLessThan(changes.indexOf(new Change<>(dog.id, dog, null)));
+  }
+
+  @Test
+  public void concurrentListenerIsCalledFromPartitionsConcurrently() throws Exception {
+    // Each call waits for the other, so they cannot both succeed in turn
+    CountDownLatch called = new CountDownLatch(2);
+    AtomicInteger overlapping = new AtomicInteger();
+    ConcurrentChangeListener<Integer, Integer> listener = changes -> {
+      called.countDown();
+      try {
+        if (called.await(5, TimeUnit.SECONDS)) {
+          overlapping.incrementAndGet();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    map.subscribe(listener, Runnable::run);
+
+    // Keys 0 and 1 belong to different partitions
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    executor.execute(() -> map.put(0, 0));
+    executor.execute(() -> map.put(1, 1));
+    executor.shutdown();
+    executor.awaitTermination(15, TimeUnit.SECONDS);
+
+    assertThat(overlapping.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void parallelStreamVisitsEveryPartition() {
+    for (int i = 0; i < 10_000; i++) {
+      map.put(i, i);
+    }
+
+    long sum = map.parallelStream().mapToLong(Map.Entry::getValue).sum();
+
+    assertThat(sum).isEqualTo(49_995_000L);
+  }
+
+}
@@ -0,0 +1,76 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link Postings}.
+ */
+public class PostingsTest {
+
+  @Test
+  public void ordinalsAreIteratedInOrder() {
+    Postings postings = new Postings();
+    List<Integer> added = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0, ordinal = 0; i < 1000; i++) {
+      ordinal += 1 + random.nextInt(i % 10 == 0 ? 100_000 : 10);
+      postings.add(ordinal);
+      added.add(ordinal);
+    }
+
+    List<Integer> iterated = new ArrayList<>();
+    Postings.Cursor cursor = postings.cursor();
+    while (cursor.next()) {
+      iterated.add(cursor.value());
+    }
+
+    assertThat(iterated).isEqualTo(added);
+    assertThat(postings.size()).isEqualTo(1000);
+  }
+
+  @Test
+  public void denseOrdinalsTakeAByteEach() {
+    Postings postings = new Postings();
+    for (int i = 0; i < 1000; i++) {
+      postings.add(i * 3);
+    }
+
+    assertThat(postings.bytes()).isEqualTo(1000);
+  }
+
+  @Test
+  public void advanceSkipsToFirstOrdinalAtOrAfterTarget() {
+    Postings postings = new Postings();
+    for (int i = 0; i < 1000; i++) {
+      postings.add(i * 10);
+    }
+    Postings.Cursor cursor = postings.cursor();
+
+    assertThat(cursor.advance(5)).isTrue();
+    assertThat(cursor.value()).isEqualTo(10);
+    assertThat(cursor.advance(10)).isTrue();
+    assertThat(cursor.value()).isEqualTo(10);
+    assertThat(cursor.advance(5_555)).isTrue();
+    assertThat(cursor.value()).isEqualTo(5_560);
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.value()).isEqualTo(5_570);
+    assertThat(cursor.advance(9_990)).isTrue();
+    assertThat(cursor.advance(9_991)).isFalse();
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void ordinalsMustBeAscending() {
+    Postings postings = new Postings();
+    postings.add(5);
+    postings.add(5);
+  }
+
+}
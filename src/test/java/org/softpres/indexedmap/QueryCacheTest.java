@@ -0,0 +1,168 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for {@link QueryCache}.
+ */
+@RunWith(Parameterized.class)
+public class QueryCacheTest {
+
+  private final IndexedMap<Id, Animal> map;
+  private final Index<String, Id, Animal> byFood;
+  private final Index<Integer, Id, Animal> byLegs;
+
+  private final AtomicInteger runs = new AtomicInteger();
+
+  /** Names of animals eating the given food with the given number of legs. */
+  private final QueryCache<List<Object>, Set<String>> names;
+
+  public QueryCacheTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    map.insert(cow.id, cow);
+    byFood = map.addIndex((id, a) -> a.foods);
+    byLegs = map.addIndex((id, a) -> singleton(a.legs));
+
+    names = new QueryCache<>(parameters -> {
+      runs.incrementAndGet();
+      Set<Id> legged = byLegs.apply((Integer)parameters.get(1)).keySet();
+      Set<String> result = new TreeSet<>();
+      byFood.forEach((String)parameters.get(0), (id, animal) -> {
+        if (legged.contains(id)) {
+          result.add(animal.name);
+        }
+      });
+      return result;
+    });
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().partitions(4).build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().ordinalStorage().build() }
+    });
+  }
+
+  private static List<Object> query(String food, int legs) {
+    return Arrays.asList(food, legs);
+  }
+
+  @Test
+  public void repeatedQueryIsOnlyRunOnce() {
+    assertThat(names.get(query("biscuits", 4))).containsExactly("Cat", "Dog");
+    assertThat(names.get(query("biscuits", 4))).containsExactly("Cat", "Dog");
+
+    assertThat(runs.get()).isEqualTo(1);
+    assertThat(names.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void writeToKeyReadByQueryInvalidatesResult() {
+    names.get(query("grass", 4));
+
+    map.insert(sheep.id, sheep);
+
+    assertThat(names.get(query("grass", 4))).containsExactly("Cow", "Sheep");
+    assertThat(runs.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void writeToKeyOfOtherIndexReadByQueryInvalidatesResult() {
+    names.get(query("biscuits", 4));
+
+    map.insert(dog.id, new Animal(dog.id, dog.name, 3, dog.foods));
+
+    assertThat(names.get(query("biscuits", 4))).containsExactly("Cat");
+  }
+
+  @Test
+  public void writeToUnrelatedKeysKeepsResult() {
+    names.get(query("fish", 4));
+
+    map.insert(bird.id, bird);
+    map.insert(fish.id, fish);
+
+    assertThat(names.get(query("fish", 4))).containsExactly("Cat");
+    assertThat(runs.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void valueReplacedWithinSameKeysInvalidatesResult() {
+    names.get(query("grass", 4));
+
+    map.insert(cow.id, new Animal(cow.id, "Bull", 4, cow.foods));
+
+    assertThat(names.get(query("grass", 4))).containsExactly("Bull");
+  }
+
+  @Test
+  public void onlyResultsReadingChangedKeyAreInvalidated() {
+    names.get(query("grass", 4));
+    names.get(query("fish", 4));
+    names.get(query("worm", 2));
+
+    map.insert(bird.id, bird);
+
+    assertThat(names.size()).isEqualTo(2);
+    assertThat(names.get(query("worm", 2))).containsExactly("Bird");
+  }
+
+  @Test
+  public void wholeIndexReadIsInvalidatedByAnyChange() {
+    QueryCache<String, Integer> foods = new QueryCache<>(ignored -> byFood.distinctKeys().size());
+    assertThat(foods.get("all")).isEqualTo(6);
+
+    map.insert(bird.id, bird);
+
+    assertThat(foods.get("all")).isEqualTo(7);
+  }
+
+  @Test
+  public void writeMadeWhileQueryRunsInvalidatesResult() {
+    QueryCache<String, Integer> counts = new QueryCache<>(food -> {
+      int count = byFood.count(food);
+      // Written after the lookup, before the result is cached
+      if (runs.getAndIncrement() == 0) {
+        map.insert(bird.id, bird);
+      }
+      return count;
+    });
+
+    assertThat(counts.get("water")).isEqualTo(3);
+    assertThat(counts.get("water")).isEqualTo(4);
+    assertThat(runs.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void clearInvalidatesResults() {
+    names.get(query("water", 4));
+
+    map.clear();
+
+    assertThat(names.get(query("water", 4))).isEmpty();
+  }
+
+}
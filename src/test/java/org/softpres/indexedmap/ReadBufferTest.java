@@ -0,0 +1,71 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link ReadBuffer}.
+ */
+public class ReadBufferTest {
+
+  private final ReadBuffer<Integer> buffer = new ReadBuffer<>();
+
+  @Test
+  public void eventsAreDrainedInOrderRecorded() {
+    buffer.record(1);
+    buffer.record(2);
+    buffer.record(3);
+
+    List<Integer> drained = new ArrayList<>();
+    buffer.drain(drained::add);
+
+    assertThat(drained).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void eventsAreDroppedOnceFullUntilDrained() {
+    List<Boolean> full = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      full.add(buffer.record(i));
+    }
+
+    List<Integer> drained = new ArrayList<>();
+    buffer.drain(drained::add);
+    buffer.record(99);
+    buffer.drain(drained::add);
+
+    assertThat(full.subList(0, 15)).containsOnly(false);
+    assertThat(full.subList(15, 20)).containsOnly(true);
+    assertThat(drained).hasSize(17).startsWith(0, 1, 2).endsWith(15, 99);
+  }
+
+  @Test
+  public void eventsRecordedConcurrentlyAreNotDuplicated() throws InterruptedException {
+    Set<Integer> drained = new HashSet<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int base = t * 1_000_000;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          buffer.record(base + i);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    while (threads.stream().anyMatch(Thread::isAlive)) {
+      buffer.drain(event -> assertThat(drained.add(event)).isTrue());
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    buffer.drain(event -> assertThat(drained.add(event)).isTrue());
+
+    assertThat(drained).isNotEmpty();
+  }
+
+}
@@ -0,0 +1,189 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for replicating an {@link IndexedMap} using a
+ * {@link ReplicationLeader} and {@link ReplicationFollower}.
+ */
+public class ReplicationTest {
+
+  private final IndexedMap<Integer, String> leaderMap = new IndexedMapBuilder<Integer, String>().build();
+  private final IndexedMap<Integer, String> followerMap = new IndexedMapBuilder<Integer, String>().build();
+
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final ReplicationLeader<Integer, String> leader =
+        new ReplicationLeader<>(leaderMap, Codecs.integers(), Codecs.strings(), tasks::add);
+  private final ReplicationFollower<Integer, String> follower =
+        new ReplicationFollower<>(followerMap, Codecs.integers(), Codecs.strings());
+
+  @Test
+  public void followerStartsWithSnapshotOfLeader() throws IOException {
+    leaderMap.insert(1, "one");
+    leaderMap.insert(2, "two");
+    followerMap.insert(3, "stale");
+
+    leader.follow(follower::receive);
+
+    assertThat(new HashMap<>(followerMap)).isEqualTo(new HashMap<>(leaderMap));
+    assertThat(follower.sequence()).isEqualTo(0);
+  }
+
+  @Test
+  public void followerAppliesChangesToItsOwnIndices() throws IOException {
+    leaderMap.insert(1, "one");
+    leader.follow(follower::receive);
+    Index<Integer, Integer, String> byLength = followerMap.addIndex((k, v) -> singleton(v.length()));
+
+    leaderMap.insert(2, "two");
+    leaderMap.insert(3, "three");
+    leaderMap.delete(1);
+    runTasks();
+
+    assertThat(new HashMap<>(followerMap)).isEqualTo(new HashMap<>(leaderMap));
+    assertThat(byLength.apply(3)).containsOnlyKeys(2);
+    assertThat(byLength.apply(5)).containsOnlyKeys(3);
+    assertThat(follower.sequence()).isEqualTo(1);
+    assertThat(follower.lag().isNegative()).isFalse();
+  }
+
+  @Test
+  public void timeSinceLastFrameGrowsWhileNothingIsShipped() throws Exception {
+    leader.follow(follower::receive);
+    Thread.sleep(50);
+
+    assertThat(follower.sinceLastFrame().toMillis()).isGreaterThanOrEqualTo(50);
+
+    leaderMap.insert(1, "one");
+    runTasks();
+
+    assertThat(follower.sinceLastFrame().toMillis()).isLessThan(50);
+  }
+
+  @Test
+  public void missedFrameIsRejected() throws IOException {
+    List<byte[]> frames = new ArrayList<>();
+    leader.follow(frames::add);
+    leaderMap.insert(1, "one");
+    runTasks();
+    leaderMap.insert(2, "two");
+    runTasks();
+
+    follower.receive(frames.get(0));
+    try {
+      follower.receive(frames.get(2));
+      fail("Expected missed frame to be rejected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertThat(follower.sequence()).isEqualTo(0);
+  }
+
+  @Test
+  public void cancelledFollowerReceivesNoMoreChanges() throws IOException {
+    List<byte[]> frames = new ArrayList<>();
+    Subscription subscription = leader.follow(frames::add);
+
+    subscription.cancel();
+    leaderMap.insert(1, "one");
+    runTasks();
+
+    assertThat(frames).hasSize(1);
+  }
+
+  @Test
+  public void failedTransportStopsReplication() throws IOException {
+    List<byte[]> frames = new ArrayList<>();
+    leader.follow(frame -> {
+      if (!frames.isEmpty()) {
+        throw new IOException("Disconnected");
+      }
+      frames.add(frame);
+    });
+
+    leaderMap.insert(1, "one");
+    try {
+      runTasks();
+      fail("Expected failure to be rethrown");
+    } catch (UncheckedIOException e) {
+      // expected
+    }
+    leaderMap.insert(2, "two");
+
+    assertThat(tasks).isEmpty();
+  }
+
+  @Test
+  public void changesAreShippedOverLoopbackSocket() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ReplicationLeader<Integer, String> socketLeader =
+          new ReplicationLeader<>(leaderMap, Codecs.integers(), Codecs.strings(), executor);
+    leaderMap.insert(1, "one");
+
+    try (SocketReceiver receiver = new SocketReceiver(follower, 0)) {
+      Subscription subscription = socketLeader.follow(new SocketTransport(receiver.address()));
+      for (int i = 2; i <= 100; i++) {
+        leaderMap.insert(i, Integer.toString(i));
+      }
+      leaderMap.delete(1);
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (followerMap.size() != 99 || followerMap.containsKey(1)) {
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+        Thread.sleep(10);
+      }
+      subscription.cancel();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    assertThat(new HashMap<>(followerMap)).isEqualTo(new HashMap<>(leaderMap));
+  }
+
+  @Test
+  public void malformedFrameIsRecordedAsFailureOfConnection() throws Exception {
+    try (SocketReceiver receiver = new SocketReceiver(follower, 0);
+         Socket socket = new Socket()) {
+      socket.connect(receiver.address());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(21);
+      out.writeByte(99);
+      out.writeLong(0);
+      out.writeLong(0);
+      out.writeInt(0);
+      out.flush();
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!receiver.lastFailure().isPresent()) {
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+        Thread.sleep(10);
+      }
+      assertThat(receiver.lastFailure().get())
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Unknown change log frame type");
+    }
+  }
+
+  private void runTasks() {
+    List<Runnable> toRun = new ArrayList<>(tasks);
+    tasks.clear();
+    toRun.forEach(Runnable::run);
+  }
+
+}
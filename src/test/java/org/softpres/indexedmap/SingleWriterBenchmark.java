@@ -0,0 +1,85 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * Compare the write throughput of several threads inserting into a map shared
+ * using the default {@link java.util.concurrent.locks.ReentrantReadWriteLock},
+ * against them submitting the inserts to a {@link SingleWriterMap}. The map
+ * has a couple of secondary indices so that index maintenance is included.
+ */
+public class SingleWriterBenchmark {
+
+  private static final int threads = 4;
+  private static final int keys = 10_000;
+  private static final int opsPerThread = 2_000_000;
+
+  private static IndexedMap<Integer, Long> map(IndexedMapBuilder<Integer, Long> builder) {
+    IndexedMap<Integer, Long> map = builder.primary(new HashMap<>(keys * 2)).build();
+    map.addIndex((k, v) -> Collections.singleton(v % 10));
+    map.addIndex((k, v) -> Collections.singleton(k % 100));
+    return map;
+  }
+
+  /**
+   * Run inserts from each thread, where the insert may return a future to be
+   * waited for once all inserts have been made.
+   */
+  private static long run(BiFunction<Integer, Long, Optional<CompletableFuture<?>>> insert)
+        throws InterruptedException {
+
+    List<Thread> workers = new ArrayList<>();
+    List<CompletableFuture<?>> last = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < threads; t++) {
+      long seed = t;
+      workers.add(new Thread(() -> {
+        Optional<CompletableFuture<?>> result = Optional.empty();
+        for (int i = 0; i < opsPerThread; i++) {
+          result = insert.apply((int)((seed + i * 31L) % keys), (long)i);
+        }
+        result.ifPresent(last::add);
+      }));
+    }
+
+    long begin = System.currentTimeMillis();
+    workers.forEach(Thread::start);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    last.forEach(CompletableFuture::join);
+    long end = System.currentTimeMillis();
+    return end - begin;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    long total = (long)threads * opsPerThread;
+
+    for (int pass = 0; pass < 3; pass++) {
+      IndexedMap<Integer, Long> locked = map(new IndexedMapBuilder<>());
+      long lockedElapsed = run((k, v) -> {
+        locked.insert(k, v);
+        return Optional.empty();
+      });
+
+      long singleWriterElapsed;
+      try (SingleWriterMap<Integer, Long> writer = new SingleWriterMap<>(
+            map(new IndexedMapBuilder<Integer, Long>().lockStrategy(new NoReadWriteLock())), 8192)) {
+        singleWriterElapsed = run((k, v) -> Optional.of(writer.insert(k, v)));
+      }
+
+      System.out.printf("%d threads, locked: %4.3f usec/op, single writer: %4.3f usec/op\n",
+            threads, lockedElapsed * 1000.0 / total, singleWriterElapsed * 1000.0 / total);
+    }
+
+    System.out.println("Done");
+  }
+
+}
@@ -0,0 +1,198 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for {@link SingleWriterMap}.
+ */
+public class SingleWriterMapTest {
+
+  private final SingleWriterMap<Id, Animal> writer = new IndexedMapBuilder<Id, Animal>().buildSingleWriter(16);
+
+  @After
+  public void close() {
+    writer.close();
+  }
+
+  @Test
+  public void commandsAreAppliedInOrder() throws Exception {
+    CompletableFuture<Optional<Animal>> first = writer.insert(dog.id, dog);
+    CompletableFuture<Optional<Animal>> second = writer.insert(dog.id, woundedDog);
+    CompletableFuture<Optional<Animal>> deleted = writer.delete(dog.id);
+    CompletableFuture<Optional<Animal>> selected = writer.select(dog.id);
+
+    assertThat(first.get(5, TimeUnit.SECONDS).isPresent()).isFalse();
+    assertThat(second.get(5, TimeUnit.SECONDS).get()).isEqualTo(dog);
+    assertThat(deleted.get(5, TimeUnit.SECONDS).get()).isEqualTo(woundedDog);
+    assertThat(selected.get(5, TimeUnit.SECONDS).isPresent()).isFalse();
+  }
+
+  @Test
+  public void queriesCanUseIndicesAddedByUpdates() throws Exception {
+    CompletableFuture<Index<String, Id, Animal>> byFood = writer.update(map -> map.addIndex((id, a) -> a.foods));
+    writer.insert(dog.id, dog);
+    writer.insert(cat.id, cat);
+    writer.insert(cow.id, cow);
+
+    Set<Id> biscuitEaters = writer.query(map -> new HashSet<>(byFood.join().apply("biscuits").keySet()))
+          .get(5, TimeUnit.SECONDS);
+
+    assertThat(biscuitEaters).containsOnly(dog.id, cat.id);
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void queriesCannotChangeTheMap() throws Throwable {
+    try {
+      writer.query(map -> map.insert(dog.id, dog)).get(5, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void failedCommandDoesNotStopLaterCommands() throws Exception {
+    CompletableFuture<Object> failed = writer.update(map -> { throw new IllegalArgumentException(); });
+    CompletableFuture<Optional<Animal>> inserted = writer.insert(cat.id, cat);
+
+    assertThat(inserted.get(5, TimeUnit.SECONDS).isPresent()).isFalse();
+    assertThat(failed.isCompletedExceptionally()).isTrue();
+  }
+
+  @Test
+  public void commandsFromManyThreadsAreAllApplied() throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int offset = t * 1000;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          writer.insert(new Id(offset + i), dog);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(writer.query(Map::size).get(5, TimeUnit.SECONDS)).isEqualTo(4000);
+  }
+
+  @Test
+  public void closeAppliesSubmittedCommands() throws Exception {
+    CompletableFuture<Optional<Animal>> inserted = writer.insert(dog.id, dog);
+
+    writer.close();
+
+    assertThat(inserted.isDone()).isTrue();
+    try {
+      writer.select(dog.id);
+      fail("Expected closed writer to reject commands");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void errorFailsOnlyItsOwnCommand() throws Exception {
+    CompletableFuture<Object> failed = writer.update(map -> { throw new AssertionError("Broken"); });
+
+    try {
+      failed.get(5, TimeUnit.SECONDS);
+      fail("Expected failure");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(AssertionError.class);
+    }
+    assertThat(writer.insert(dog.id, dog).get(5, TimeUnit.SECONDS).isPresent()).isFalse();
+  }
+
+  @Test
+  public void asyncOperationsCanBeComposed() throws Exception {
+    CompletionStage<Optional<Animal>> exchanged = writer.insertAsync(dog.id, dog)
+          .thenCompose(previous -> writer.selectAsync(dog.id))
+          .thenCompose(selected -> writer.insertAsync(cat.id, selected.get()))
+          .thenCompose(previous -> writer.deleteAsync(dog.id));
+
+    assertThat(exchanged.toCompletableFuture().get(5, TimeUnit.SECONDS).get()).isEqualTo(dog);
+    assertThat(writer.queryAsync(map -> map.get(cat.id)).toCompletableFuture().get(5, TimeUnit.SECONDS))
+          .isEqualTo(dog);
+  }
+
+  @Test
+  public void asyncUpdateIsAppliedAsOneOperation() throws Exception {
+    List<CompletableFuture<Animal>> merged = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      merged.add(writer.updateAsync(map -> map.merge(dog.id, dog, (a, b) -> a == dog ? cat : dog))
+            .toCompletableFuture());
+    }
+
+    assertThat(merged.get(9).get(5, TimeUnit.SECONDS)).isEqualTo(cat);
+    assertThat(writer.select(dog.id).get(5, TimeUnit.SECONDS).get()).isEqualTo(cat);
+  }
+
+  @Test
+  public void asyncOperationIsRejectedRatherThanBlockingWhenFull() throws Exception {
+    CountDownLatch busy = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer.update(map -> {
+      busy.countDown();
+      try {
+        return release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    busy.await(5, TimeUnit.SECONDS);
+
+    List<CompletionStage<Optional<Animal>>> accepted = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      accepted.add(writer.insertAsync(new Id(i), dog));
+    }
+    CompletableFuture<Optional<Animal>> rejected = writer.selectAsync(dog.id).toCompletableFuture();
+    release.countDown();
+
+    assertThat(rejected.isCompletedExceptionally()).isTrue();
+    try {
+      rejected.join();
+    } catch (RuntimeException e) {
+      assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+    }
+    for (CompletionStage<Optional<Animal>> stage : accepted) {
+      assertThat(stage.toCompletableFuture().get(5, TimeUnit.SECONDS).isPresent()).isFalse();
+    }
+  }
+
+  @Test
+  public void closeWhenInterruptedKeepsInterruptStatus() {
+    Thread.currentThread().interrupt();
+
+    writer.close();
+
+    assertThat(Thread.interrupted()).isTrue();
+    assertThat(writer.selectAsync(dog.id).toCompletableFuture().isCompletedExceptionally()).isTrue();
+  }
+
+  @Test
+  public void asyncOperationAfterCloseFailsStage() throws Exception {
+    writer.close();
+
+    assertThat(writer.selectAsync(dog.id).toCompletableFuture().isCompletedExceptionally()).isTrue();
+  }
+
+}
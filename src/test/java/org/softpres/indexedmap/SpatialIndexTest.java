@@ -0,0 +1,177 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link SpatialIndex}.
+ */
+@RunWith(Parameterized.class)
+public class SpatialIndexTest {
+
+  private final IndexedMap<String, double[]> vehicles;
+  private final SpatialIndex<String, double[]> byLocation;
+
+  public SpatialIndexTest(Supplier<IndexedMap<String, double[]>> factory) {
+    vehicles = factory.get();
+    vehicles.insert("bus", new double[] { 1, 1 });
+    vehicles.insert("taxi", new double[] { 2, 3 });
+    vehicles.insert("tram", new double[] { -4, 5 });
+    vehicles.insert("van", new double[] { 10, -10 });
+    byLocation = vehicles.addSpatialIndex((id, p) -> p[0], (id, p) -> p[1]);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<String, double[]>>) () ->
+                new IndexedMapBuilder<String, double[]>().build() },
+          { (Supplier<IndexedMap<String, double[]>>) () ->
+                new IndexedMapBuilder<String, double[]>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<String, double[]>>) () ->
+                new IndexedMapBuilder<String, double[]>().partitions(4).build() },
+          { (Supplier<IndexedMap<String, double[]>>) () ->
+                new IndexedMapBuilder<String, double[]>().ordinalStorage().build() }
+    });
+  }
+
+  @Test
+  public void withinIncludesPointsOnTheEdges() {
+    assertThat(byLocation.within(0, 0, 2, 3).keySet()).containsOnly("bus", "taxi");
+    assertThat(byLocation.within(-5, -20, 20, 0).keySet()).containsOnly("van");
+    assertThat(byLocation.within(3, 3, 4, 4)).isEmpty();
+  }
+
+  @Test
+  public void withinRadiusExcludesCornersOfTheBox() {
+    assertThat(byLocation.withinRadius(0, 0, 2).keySet()).containsOnly("bus");
+    assertThat(byLocation.withinRadius(2, 3, 0).keySet()).containsOnly("taxi");
+    assertThat(byLocation.withinRadius(0, 0, 6.5).keySet()).containsOnly("bus", "taxi", "tram");
+  }
+
+  @Test
+  public void nearestAreOrderedByDistance() {
+    assertThat(byLocation.nearest(3, 3, 3).keySet()).containsExactly("taxi", "bus", "tram");
+    assertThat(byLocation.nearest(3, 3, 10).keySet()).containsExactly("taxi", "bus", "tram", "van");
+    assertThat(byLocation.nearest(3, 3, 0)).isEmpty();
+  }
+
+  @Test
+  public void indexIsMaintainedOnWrites() {
+    vehicles.insert("bus", new double[] { 100, 100 });
+    vehicles.insert("bike", new double[] { 0, 1 });
+    vehicles.delete("taxi");
+
+    assertThat(byLocation.within(0, 0, 3, 3).keySet()).containsOnly("bike");
+    assertThat(byLocation.nearest(99, 99, 1).keySet()).containsOnly("bus");
+    assertThat(byLocation.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void valueAtSamePointIsReplaced() {
+    double[] moved = { 1, 1 };
+    vehicles.insert("bus", moved);
+
+    assertThat(byLocation.within(1, 1, 1, 1).get("bus")).isSameAs(moved);
+  }
+
+  @Test
+  public void entriesWithoutFinitePointAreLeftOut() {
+    vehicles.insert("ghost", new double[] { Double.NaN, 0 });
+    vehicles.insert("lost", new double[] { 0, Double.POSITIVE_INFINITY });
+
+    assertThat(byLocation.size()).isEqualTo(4);
+    assertThat(byLocation.nearest(0, 0, 10)).doesNotContainKey("ghost").doesNotContainKey("lost");
+  }
+
+  @Test
+  public void coincidentPointsAreAllKept() {
+    for (int i = 0; i < 100; i++) {
+      vehicles.insert("car" + i, new double[] { 7, 7 });
+    }
+    vehicles.insert("car0", new double[] { 8, 8 });
+
+    assertThat(byLocation.within(7, 7, 7, 7)).hasSize(99);
+    assertThat(byLocation.nearest(8, 8, 1).keySet()).containsOnly("car0");
+  }
+
+  @Test
+  public void randomChangesMatchBruteForce() {
+    Random random = new Random(42);
+    Map<String, double[]> expected = new HashMap<>(vehicles);
+    for (int i = 0; i < 5_000; i++) {
+      String key = "v" + random.nextInt(1000);
+      if (random.nextInt(4) == 0) {
+        vehicles.delete(key);
+        expected.remove(key);
+      } else {
+        // Points spread widely but clustered, to grow, split and merge the tree
+        double[] point = { random.nextGaussian() * Math.pow(10, random.nextInt(4)), random.nextGaussian() * 10 };
+        vehicles.insert(key, point);
+        expected.put(key, point);
+      }
+
+      if (i % 250 == 0) {
+        double x = random.nextGaussian() * 20;
+        double y = random.nextGaussian() * 20;
+        double radius = random.nextDouble() * 30;
+
+        assertThat(byLocation.within(x - radius, y - radius, x + radius, y + radius).keySet())
+              .isEqualTo(matching(expected, p -> Math.abs(p[0] - x) <= radius && Math.abs(p[1] - y) <= radius));
+        assertThat(byLocation.withinRadius(x, y, radius).keySet())
+              .isEqualTo(matching(expected, p -> Math.hypot(p[0] - x, p[1] - y) <= radius));
+        assertThat(byLocation.nearest(x, y, 10).values().stream()
+              .map(p -> distance(p, x, y)).collect(Collectors.toList()))
+              .isEqualTo(expected.values().stream()
+                    .map(p -> distance(p, x, y)).sorted().limit(10).collect(Collectors.toList()));
+      }
+    }
+    assertThat(byLocation.size()).isEqualTo(expected.size());
+  }
+
+  @Test
+  public void cachedQueryIsInvalidatedByAnyChange() {
+    QueryCache<Double, Integer> counts = new QueryCache<>(radius -> byLocation.withinRadius(0, 0, radius).size());
+    assertThat(counts.get(2.0)).isEqualTo(1);
+
+    vehicles.insert("bike", new double[] { 0, 1 });
+
+    assertThat(counts.get(2.0)).isEqualTo(2);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeQueried() {
+    byLocation.drop();
+
+    byLocation.nearest(0, 0, 1);
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void negativeCountIsRejected() {
+    byLocation.nearest(0, 0, -1);
+  }
+
+  private static Set<String> matching(Map<String, double[]> entries, Predicate<double[]> test) {
+    return entries.entrySet().stream()
+          .filter(e -> test.test(e.getValue()))
+          .map(Map.Entry::getKey)
+          .collect(Collectors.toSet());
+  }
+
+  private static double distance(double[] p, double x, double y) {
+    double dx = p[0] - x;
+    double dy = p[1] - y;
+    return dx * dx + dy * dy;
+  }
+
+}
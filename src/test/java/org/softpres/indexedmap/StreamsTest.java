@@ -0,0 +1,153 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for parallel and stream operations on {@link IndexedMap}.
+ */
+@RunWith(Parameterized.class)
+public class StreamsTest {
+
+  private final IndexedMap<Integer, Integer> map;
+
+  public StreamsTest(Supplier<IndexedMap<Integer, Integer>> factory) {
+    this.map = factory.get();
+    for (int i = 0; i < 10_000; i++) {
+      map.put(i, i);
+    }
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Integer, Integer>>) () ->
+                new IndexedMapBuilder<Integer, Integer>().build() },
+          { (Supplier<IndexedMap<Integer, Integer>>) () ->
+                new IndexedMapBuilder<Integer, Integer>().lockStrategy(new NoReadWriteLock()).build() }
+    });
+  }
+
+  @Test
+  public void parallelForEachVisitsEveryEntry() {
+    Map<Integer, Integer> visited = new ConcurrentHashMap<>();
+
+    map.parallelForEach(visited::put);
+
+    assertThat(visited).isEqualTo(new HashMap<>(map));
+  }
+
+  @Test (timeout = 10_000)
+  public void parallelForEachActionCanReadMapWhileWriterWaits() throws Exception {
+    Thread caller = Thread.currentThread();
+    AtomicBoolean writing = new AtomicBoolean();
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    List<Future<?>> writes = new CopyOnWriteArrayList<>();
+
+    try {
+      map.parallelForEach((k, v) -> {
+        if (Thread.currentThread() != caller && writing.compareAndSet(false, true)) {
+          writes.add(writer.submit(() -> map.put(-1, -1)));
+          pause(100);
+        }
+        assertThat(map.get(k)).isEqualTo(v);
+      });
+    } catch (ConcurrentModificationException e) {
+      // The write may be made between the chunks traversed
+    }
+    for (Future<?> write : writes) {
+      write.get();
+    }
+    writer.shutdown();
+
+    assertThat(map.get(-1)).isEqualTo(writes.isEmpty() ? null : -1);
+  }
+
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void streamContainsEveryEntry() {
+    long sum = map.stream().mapToLong(Map.Entry::getValue).sum();
+
+    assertThat(sum).isEqualTo(49_995_000L);
+  }
+
+  @Test
+  public void parallelStreamContainsEveryEntry() {
+    LongAdder sum = new LongAdder();
+
+    map.parallelStream().forEach(e -> sum.add(e.getValue()));
+
+    assertThat(sum.sum()).isEqualTo(49_995_000L);
+  }
+
+  @Test
+  public void parallelStreamSplits() {
+    Spliterator<Map.Entry<Integer, Integer>> entries = map.parallelStream().spliterator();
+    Spliterator<Map.Entry<Integer, Integer>> split = entries.trySplit();
+
+    assertThat(split).isNotNull();
+    assertThat(split.estimateSize() + entries.estimateSize()).isEqualTo(10_000L);
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void streamEntriesDoNotAllowModification() {
+    map.stream().findAny().get().setValue(42);
+  }
+
+  @Test (expected = ConcurrentModificationException.class)
+  public void streamFailsIfMapIsChangedDuringTraversal() {
+    Iterator<Map.Entry<Integer, Integer>> entries = map.stream().iterator();
+    entries.next();
+
+    map.put(-1, -1);
+    entries.next();
+  }
+
+  @Test
+  public void secondaryIndexCanBeStreamedInParallel() {
+    Function<Boolean, Map<Integer, Integer>> evens =
+          map.addIndex((k, v) -> singleton(v % 2 == 0));
+
+    long sum = evens.apply(true).entrySet().parallelStream()
+          .mapToLong(Map.Entry::getValue)
+          .sum();
+
+    assertThat(sum).isEqualTo(24_995_000L);
+  }
+
+  @Test
+  public void secondaryIndexLookupSeesLaterChanges() {
+    Function<Boolean, Map<Integer, Integer>> evens =
+          map.addIndex((k, v) -> singleton(v % 2 == 0));
+    Map<Integer, Integer> lookup = evens.apply(true);
+
+    map.put(-2, -2);
+
+    assertThat(lookup).hasSize(5_001).containsKey(-2);
+  }
+
+}
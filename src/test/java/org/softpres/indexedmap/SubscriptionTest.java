@@ -0,0 +1,198 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.softpres.indexedmap.animal.Animal;
+import org.softpres.indexedmap.animal.Id;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.softpres.indexedmap.animal.Animals.*;
+
+/**
+ * Unit tests for subscribing to changes of an {@link IndexedMap}.
+ */
+@RunWith(Parameterized.class)
+public class SubscriptionTest {
+
+  private final IndexedMap<Id, Animal> map;
+  private final Index<String, Id, Animal> byFood;
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final List<List<Change<Id, Animal>>> batches = new ArrayList<>();
+
+  public SubscriptionTest(Supplier<IndexedMap<Id, Animal>> factory) {
+    map = factory.get();
+    map.insert(dog.id, dog);
+    map.insert(cat.id, cat);
+    byFood = map.addIndex((id, a) -> a.foods);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().build() },
+          { (Supplier<IndexedMap<Id, Animal>>) () ->
+                new IndexedMapBuilder<Id, Animal>().lockStrategy(new NoReadWriteLock()).build() }
+    });
+  }
+
+  @Test
+  public void changesAreDeliveredInOneBatchInOrder() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.insert(cow.id, cow);
+    map.insert(dog.id, woundedDog);
+    map.delete(cat.id);
+
+    assertThat(tasks).hasSize(1);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Collections.singletonList(Arrays.asList(
+          new Change<>(cow.id, null, cow),
+          new Change<>(dog.id, dog, woundedDog),
+          new Change<>(cat.id, cat, null))));
+  }
+
+  @Test
+  public void putOfSameInstanceIsNotAChange() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.put(dog.id, dog);
+    map.putAll(Collections.singletonMap(cat.id, cat), false);
+
+    assertThat(tasks).isEmpty();
+  }
+
+  @Test
+  public void changesAfterDeliveryAreDeliveredInNextBatch() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.insert(cow.id, cow);
+    runTasks();
+    map.insert(sheep.id, sheep);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Arrays.asList(
+          Collections.singletonList(new Change<>(cow.id, null, cow)),
+          Collections.singletonList(new Change<>(sheep.id, null, sheep))));
+  }
+
+  @Test
+  public void changesFromDefaultMethodsAreDelivered() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.putIfAbsent(cow.id, cow);
+    map.computeIfPresent(dog.id, (id, a) -> woundedDog);
+    map.compute(cat.id, (id, a) -> a);
+    map.remove(cow.id, cow);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Collections.singletonList(Arrays.asList(
+          new Change<>(cow.id, null, cow),
+          new Change<>(dog.id, dog, woundedDog),
+          new Change<>(cow.id, cow, null))));
+  }
+
+  @Test
+  public void replaceAllDeliversOnlyReplacedValues() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.replaceAll((id, a) -> a == dog ? woundedDog : a);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Collections.singletonList(Collections.singletonList(
+          new Change<>(dog.id, dog, woundedDog))));
+  }
+
+  @Test
+  public void clearDeliversRemovalOfEveryEntry() {
+    map.subscribe(batches::add, tasks::add);
+
+    map.clear();
+    runTasks();
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0)).containsOnlyElementsOf(Arrays.asList(
+          new Change<>(dog.id, dog, null),
+          new Change<>(cat.id, cat, null)));
+  }
+
+  @Test
+  public void cancelledSubscriptionDeliversNothingFurther() {
+    Subscription subscription = map.subscribe(batches::add, tasks::add);
+
+    map.insert(cow.id, cow);
+    subscription.cancel();
+    map.insert(sheep.id, sheep);
+    runTasks();
+
+    assertThat(batches).isEmpty();
+  }
+
+  @Test
+  public void indexSubscriptionOnlyDeliversChangesForKey() {
+    byFood.subscribe("grass", batches::add, tasks::add);
+
+    map.insert(cow.id, cow);
+    map.insert(bird.id, bird);
+    map.insert(cow.id, fish);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Collections.singletonList(Arrays.asList(
+          new Change<>(cow.id, null, cow),
+          new Change<>(cow.id, cow, fish))));
+  }
+
+  @Test
+  public void droppingIndexCancelsItsSubscriptions() {
+    byFood.subscribe("grass", batches::add, tasks::add);
+    map.subscribe(batches::add, tasks::add);
+
+    byFood.drop();
+    map.insert(cow.id, cow);
+    runTasks();
+
+    assertThat(batches).containsExactlyElementsOf(Collections.singletonList(Collections.singletonList(
+          new Change<>(cow.id, null, cow))));
+  }
+
+  @Test
+  public void changesAreDeliveredOnExecutor() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      List<Change<Id, Animal>> delivered = Collections.synchronizedList(new ArrayList<>());
+      CountDownLatch latch = new CountDownLatch(100);
+      map.subscribe(changes -> {
+        delivered.addAll(changes);
+        changes.forEach(c -> latch.countDown());
+      }, executor);
+
+      for (int i = 0; i < 100; i++) {
+        map.insert(cow.id, i % 2 == 0 ? cow : sheep);
+      }
+
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(delivered.get(0)).isEqualTo(new Change<>(cow.id, null, cow));
+      assertThat(delivered.get(99)).isEqualTo(new Change<>(cow.id, cow, sheep));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link TextIndex}.
+ */
+@RunWith(Parameterized.class)
+public class TextIndexTest {
+
+  private final IndexedMap<Integer, String> products;
+  private final TextIndex<Integer, String> byText;
+
+  public TextIndexTest(Supplier<IndexedMap<Integer, String>> factory) {
+    products = factory.get();
+    products.insert(1, "Organic Whole Milk, 1L");
+    products.insert(2, "Semi-skimmed milk");
+    products.insert(3, "Organic oat drink");
+    byText = products.addTextIndex((id, name) -> name);
+  }
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+          { (Supplier<IndexedMap<Integer, String>>) () ->
+                new IndexedMapBuilder<Integer, String>().build() },
+          { (Supplier<IndexedMap<Integer, String>>) () ->
+                new IndexedMapBuilder<Integer, String>().lockStrategy(new NoReadWriteLock()).build() },
+          { (Supplier<IndexedMap<Integer, String>>) () ->
+                new IndexedMapBuilder<Integer, String>().partitions(4).build() }
+    });
+  }
+
+  @Test
+  public void wordsAreLowerCaseLettersAndDigits() {
+    assertThat(TextIndex.words("Semi-skimmed Milk, 1L!")).containsExactly("semi", "skimmed", "milk", "1l");
+  }
+
+  @Test
+  public void matchAllRequiresEveryTerm() {
+    assertThat(byText.matchAll("milk").keySet()).containsOnly(1, 2);
+    assertThat(byText.matchAll("organic MILK").keySet()).containsOnly(1);
+    assertThat(byText.matchAll("organic cheese")).isEmpty();
+    assertThat(byText.matchAll("")).isEmpty();
+  }
+
+  @Test
+  public void matchAnyRequiresSomeTerm() {
+    assertThat(byText.matchAny("oat skimmed cheese").keySet()).containsOnly(2, 3);
+  }
+
+  @Test
+  public void matchesIncludeValues() {
+    assertThat(byText.matchAll("oat")).isEqualTo(Collections.singletonMap(3, "Organic oat drink"));
+  }
+
+  @Test
+  public void matchPrefixFindsTermsStartingWithPrefix() {
+    assertThat(byText.matchPrefix("org").keySet()).containsOnly(1, 3);
+    assertThat(byText.matchPrefix("mil").keySet()).containsOnly(1, 2);
+    assertThat(byText.matchPrefix("x")).isEmpty();
+  }
+
+  @Test
+  public void matchFragmentFindsTermsContainingFragment() {
+    assertThat(byText.matchFragment("kimm").keySet()).containsOnly(2);
+    assertThat(byText.matchFragment("ilk").keySet()).containsOnly(1, 2);
+    assertThat(byText.matchFragment("an").keySet()).containsOnly(1, 3);
+    assertThat(byText.matchFragment("rgx")).isEmpty();
+  }
+
+  @Test
+  public void indexIsMaintainedOnChanges() {
+    products.insert(4, "Oat milk");
+    products.insert(1, "Whole milk");
+    products.delete(2);
+
+    assertThat(byText.matchAll("milk").keySet()).containsOnly(1, 4);
+    assertThat(byText.matchAll("organic").keySet()).containsOnly(3);
+    assertThat(byText.matchAll("skimmed")).isEmpty();
+  }
+
+  @Test
+  public void manyLargeChangesKeepIndexConsistent() {
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 1000; i++) {
+        products.insert(i, "product " + i + (i % 2 == 0 ? " even" : " odd") + " round" + round);
+      }
+    }
+    for (int i = 0; i < 1000; i += 3) {
+      products.delete(i);
+    }
+
+    assertThat(byText.matchAll("product even round4")).hasSize(333);
+    assertThat(byText.matchAll("round3")).isEmpty();
+    assertThat(byText.matchAny("999 998 997").keySet()).containsOnly(998, 997);
+    assertThat(byText.termCount()).isLessThan(1100);
+  }
+
+  @Test
+  public void clearRemovesEveryEntry() {
+    products.clear();
+
+    assertThat(byText.matchAny("milk oat")).isEmpty();
+  }
+
+  @Test
+  public void cachedQueryIsInvalidatedByAnyChange() {
+    QueryCache<String, Integer> matches = new QueryCache<>(query -> byText.matchAny(query).size());
+    assertThat(matches.get("cheese")).isEqualTo(0);
+
+    products.insert(4, "Mature cheddar cheese");
+
+    assertThat(matches.get("cheese")).isEqualTo(1);
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void droppedIndexCannotBeQueried() {
+    byText.drop();
+
+    byText.matchAll("milk");
+  }
+
+}
@@ -0,0 +1,61 @@
+/* IndexedMap - (c) 2014, Kieron Wilkinson */
+
+package org.softpres.indexedmap;
+
+import org.junit.Test;
+import org.softpres.indexedmap.TimerWheel.Timer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link TimerWheel}.
+ */
+public class TimerWheelTest {
+
+  @Test
+  public void timersExpireOnlyOnceTheirTimeHasPassed() {
+    long start = System.nanoTime();
+    TimerWheel<Integer> wheel = new TimerWheel<>(start);
+    Random random = new Random(42);
+    List<Timer<Integer>> timers = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      long delay = (long)(random.nextDouble() * TimeUnit.DAYS.toNanos(10));
+      Timer<Integer> timer = new Timer<>(i, start + delay);
+      timers.add(timer);
+      wheel.schedule(timer);
+    }
+
+    Set<Integer> expired = new HashSet<>();
+    long step = TimeUnit.MINUTES.toNanos(7);
+    for (long now = start; now - start <= TimeUnit.DAYS.toNanos(11); now += step) {
+      for (Timer<Integer> timer : wheel.advance(now)) {
+        assertThat(timer.time - now).isLessThanOrEqualTo(0);
+        assertThat(expired.add(timer.key)).isTrue();
+      }
+      for (Timer<Integer> timer : timers) {
+        if (timer.time - (now - TimeUnit.SECONDS.toNanos(2)) <= 0) {
+          assertThat(expired).contains(timer.key);
+        }
+      }
+    }
+
+    assertThat(expired).hasSize(1000);
+  }
+
+  @Test
+  public void cancelledTimerNeverExpires() {
+    TimerWheel<String> wheel = new TimerWheel<>(0);
+    Timer<String> cancelled = new Timer<>("cancelled", TimeUnit.SECONDS.toNanos(5));
+    Timer<String> kept = new Timer<>("kept", TimeUnit.SECONDS.toNanos(5));
+    wheel.schedule(cancelled);
+    wheel.schedule(kept);
+
+    wheel.cancel(cancelled);
+
+    assertThat(wheel.advance(TimeUnit.SECONDS.toNanos(10))).containsExactlyElementsOf(Collections.singletonList(kept));
+  }
+
+}
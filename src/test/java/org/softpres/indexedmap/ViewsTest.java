@@ -31,6 +31,7 @@ public class ViewsTest {
   public static Collection<Object[]> data() {
     return Arrays.asList(new Object[][] {
           { new IndexedMapBuilder<>().build() },
+          { new IndexedMapBuilder<>().copyViews(true).build() },
           { new IndexedMapBuilder<>()
                 .lockStrategy(new NoReadWriteLock()).build() }
     });